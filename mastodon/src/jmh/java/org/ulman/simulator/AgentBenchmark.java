@@ -0,0 +1,88 @@
+package org.ulman.simulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** The hot paths of one agent within one time point: every invocation takes the next agent
+ *  of the {@link SimulatorFixture}, loads it into a working copy, and lets it do one thing.
+ *  The simulator itself is not advanced, so all invocations see the same neighborhoods. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentBenchmark {
+	@Param({"1000", "20000"})
+	int population;
+
+	@Param({"2", "6", "12"})
+	double neighborsPerAgent;
+
+	@Param({"NO_RESTRICTION", "NO_Z_AXIS_MOVE"})
+	Agent2dMovesRestriction moves;
+
+	private SimulatorFixture fixture;
+	private Agent workingCopy;
+	private int cursor = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		fixture = new SimulatorFixture(population, neighborsPerAgent, moves);
+		workingCopy = new Agent(fixture.simulator);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fixture.dispose();
+	}
+
+	/** loads the next agent, and forgets the agents that were born and died so far once all agents were visited */
+	private Agent nextAgent() {
+		if (cursor == fixture.slots.length) {
+			cursor = 0;
+			fixture.simulator.clearRegistrations();
+		}
+		return workingCopy.loadFrom(fixture.store, fixture.slots[cursor++]);
+	}
+
+	@Benchmark
+	public int getListOfOccupiedCoords() {
+		final Agent a = nextAgent();
+		return fixture.simulator.getListOfOccupiedCoords(a, fixture.simulator.params.AGENT_LOOK_AROUND_DISTANCE, a.nearbySpheres);
+	}
+
+	@Benchmark
+	public double doOneTime() {
+		final Agent a = nextAgent();
+		a.doOneTime(true);
+		return a.nearbySpheres.dispX;
+	}
+
+	@Benchmark
+	public boolean divideMe() {
+		return nextAgent().divideMe();
+	}
+
+	@Benchmark
+	public boolean doBuldozering() {
+		//NB: makes the agent a freshly born daughter, i.e. still pushing away from its sister
+		final int slot = fixture.slots[cursor % fixture.slots.length];
+		fixture.store.divBuldozerStopTP[slot] = fixture.store.t[slot] + fixture.simulator.params.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
+		final Agent a = nextAgent();
+		return a.doBuldozering(a.getX(), a.getY(), a.getZ(), a.getR());
+	}
+}
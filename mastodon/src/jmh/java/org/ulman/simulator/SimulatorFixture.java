@@ -0,0 +1,83 @@
+package org.ulman.simulator;
+
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.project.MamutProject;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.views.bdv.SharedBigDataViewerData;
+import org.scijava.Context;
+
+import java.util.Random;
+
+/** A simulator populated from an in-memory Mastodon project whose spots are placed with a fixed seed,
+ *  so that the benchmarks see the very same agents in every run (and for every commit). The spots are
+ *  spread uniformly in a cube (or a square if moves are restricted to 2D) that is just big enough
+ *  for every agent to have, on average, the requested number of neighbors within the look around distance. */
+final class SimulatorFixture {
+	static final long SEED = 42;
+
+	final Context context;
+	final ProjectModel projectModel;
+	final Simulator simulator;
+	final AgentsStore store;
+	//slots of all agents, in the order the benchmarks go through them
+	final int[] slots;
+
+	SimulatorFixture(final int population, final double neighborsPerAgent, final Agent2dMovesRestriction moves) {
+		//NB: the simulator takes its parameters when it is created
+		final SimulationConfig config = new SimulationConfig();
+		config.RANDOM_SEED = SEED;
+		config.AGENT_DO_2D_MOVES_ONLY = moves;
+
+		context = new Context();
+		projectModel = ProjectModel.create(context, new Model(),
+				SharedBigDataViewerData.fromDummyFilename("DUMMY x=100 y=100 z=100 t=10.dummy"),
+				new MamutProject("/temp/benchmark.mastodon"));
+		addSpots(projectModel.getModel().getGraph(), population, neighborsPerAgent, moves);
+
+		simulator = new Simulator(projectModel, config);
+		simulator.populate(projectModel, 0);
+		simulator.rebuildNeighborSearch();
+
+		store = simulator.getAgentsStore();
+		slots = new int[store.size()];
+		int cnt = 0;
+		for (int slot = 0; slot < store.slotsBound(); ++slot) {
+			if (store.isAlive(slot)) slots[cnt++] = slot;
+		}
+	}
+
+	private static void addSpots(final ModelGraph graph, final int population,
+	                             final double neighborsPerAgent, final Agent2dMovesRestriction moves) {
+		//centre-to-centre distance within which the agents see each other
+		final double reach = Simulator.AGENT_LOOK_AROUND_DISTANCE + 2.0 * Simulator.AGENT_INITIAL_RADIUS;
+		final boolean flat = moves != Agent2dMovesRestriction.NO_RESTRICTION;
+		final double side = flat
+				? Math.sqrt(population * Math.PI * reach*reach / neighborsPerAgent)
+				: Math.cbrt(population * 4.0/3.0 * Math.PI * reach*reach*reach / neighborsPerAgent);
+		//the axis along which the agents don't move, if any
+		final int flatAxis = moves == Agent2dMovesRestriction.NO_X_AXIS_MOVE ? 0
+				: (moves == Agent2dMovesRestriction.NO_Y_AXIS_MOVE ? 1 : 2);
+
+		final Random rnd = new Random(SEED);
+		final double[] pos = new double[3];
+		final Spot ref = graph.vertexRef();
+		graph.getLock().writeLock().lock();
+		try {
+			for (int i = 0; i < population; ++i) {
+				for (int d = 0; d < 3; ++d) pos[d] = flat && d == flatAxis ? 0.5 * side : side * rnd.nextDouble();
+				graph.addVertex(ref).init(0, pos, Simulator.AGENT_INITIAL_RADIUS);
+				ref.setLabel(String.valueOf(i + 1));
+			}
+		} finally {
+			graph.getLock().writeLock().unlock();
+			graph.releaseRef(ref);
+		}
+	}
+
+	void dispose() {
+		simulator.clearRegistrations();
+		context.dispose();
+	}
+}
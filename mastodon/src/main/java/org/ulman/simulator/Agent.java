@@ -1,31 +1,70 @@
 package org.ulman.simulator;
 
-import org.mastodon.mamut.model.Spot;
-
-import java.util.*;
-
+/** The behaviour of one agent (cell). The state of all agents is kept in the {@link AgentsStore},
+ *  an object of this class is either a working copy that is (repeatedly) loaded from the store,
+ *  advanced and saved back, or a freshly created agent that is waiting to be stored. */
 public class Agent {
 	private final Simulator simulatorFrame;
 
 	// ============= names and IDs (incl. parentID) =============
-	private final String nameClean;
-	private final String nameBlocked;
-	private final String nameWantDivide;
-	private final String nameBlockedWantDivide;
-	private final String nameBuldozer;
-	private String name;
+	//the name is the label (that encodes the lineage) possibly decorated according to the name state
+	static final byte NAME_CLEAN = 0;
+	static final byte NAME_BLOCKED = 1;
+	static final byte NAME_WANT_DIVIDE = 2;
+	static final byte NAME_BLOCKED_WANT_DIVIDE = 3;
+	static final byte NAME_BULDOZER = 4;
+	//the label is kept compactly, see LineageLabel
+	private String labelRoot;
+	private long labelPath;
+	private byte nameState = NAME_CLEAN;
 	public String getName() {
-		return name;
+		return composeName(params.LABELS_NAMING_POLICY, labelRoot, labelPath, nameState);
 	}
 
 	public static final String ONE_AND_ONLY_NAME = "M";
 
-	private final int id;
+	static String composeName(final AgentNamingPolicy namingPolicy,
+	                          final String labelRoot, final long labelPath, final byte nameState) {
+		//NB: the label is not even built when not needed
+		if (namingPolicy == AgentNamingPolicy.USE_ALWAYS_M) return ONE_AND_ONLY_NAME;
+		final String label = LineageLabel.toString(labelRoot, labelPath);
+		switch (namingPolicy) {
+		case ENCODING_LABELS_AND_PREPENDING:
+			switch (nameState) {
+			case NAME_BLOCKED: return "B_" + label;
+			case NAME_WANT_DIVIDE: return "W_" + label;
+			case NAME_BLOCKED_WANT_DIVIDE: return "BW_" + label;
+			case NAME_BULDOZER: return "DZ_" + label;
+			default: return label;
+			}
+		case ENCODING_LABELS_AND_APPENDING:
+			switch (nameState) {
+			case NAME_BLOCKED: return label + "_B";
+			case NAME_WANT_DIVIDE: return label + "_W";
+			case NAME_BLOCKED_WANT_DIVIDE: return label + "_BW";
+			case NAME_BULDOZER: return label + "_DZ";
+			default: return label;
+			}
+		default: //NB: the same as ENCODING_LABELS
+			return label;
+		}
+	}
+
+	private int id;
 	public int getId() {
 		return id;
 	}
 
-	private final int parentId;
+	private int parentId;
+	public int getParentId() {
+		return parentId;
+	}
+
+	//where in the AgentsStore this agent lives, -1 if not stored (yet)
+	private int slot = -1;
+	int getSlot() {
+		return slot;
+	}
 
 
 	// ============= geometry (shape and position) =============
@@ -40,61 +79,58 @@ public class Agent {
 
 
 	// ============= agents behaviour aka simulation parameters =============
+	//NB: the parameters of the simulator this agent lives in, the ones below are derived from them
+	private final SimulationParams params;
+
 	//this is the distance _outside_ the agent's outer boundary
 	//that the agent cares about (where it looks for another agents)
-	private final double lookAroundRadius = Simulator.AGENT_LOOK_AROUND_DISTANCE;
+	private final double lookAroundRadius;
+
+	//NB: the agent lives in the sub-steps of time points, the durations and the step below are scaled accordingly
+	private final int substeps;
 
-	private final double minDistanceToNeighbor = Simulator.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
-	private final double usualStepSize = Simulator.AGENT_USUAL_STEP_SIZE;
-	private final double daughtersInitialDisplacement = Simulator.AGENT_DAUGHTERS_INITIAL_DISTANCE;
-	private final double daughtersDozeringDisplacement = Simulator.AGENT_DAUGHTERS_DOZERING_DISTANCE;
+	private final double minDistanceToNeighbor;
+	private final double usualStepSize;
+	private final double daughtersInitialDisplacement;
+	private final double daughtersDozeringDisplacement;
 	private static final double EPSILON = 0.00005;
 	//
-	private final int daughtersInitialBuldozer = Simulator.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
+	private final int daughtersInitialBuldozer;
 	private double divBuldozerDx=0, divBuldozerDy=0, divBuldozerDz=0;
 	private int divBuldozerStopTP = -1; //-1 means not active
 
 	private final int slowDownForDivisionPeriod;
 	private int dontDivideBefore;
-	private final int dontLiveBeyond;
-	private final int maxNeighborsForDivide = Simulator.AGENT_MAX_DENSITY_TO_ENABLE_DIVISION;
+	private int dontLiveBeyond;
+	private final int maxNeighborsForDivide;
 
-	//one generator for all agents
-	static private final Random lifeSpanRndGenerator = new Random();
-	//per-agent generator of its own movements
-	private final Random moveRndGenerator = new Random();
+	//per-working-copy generator of the agents' movements, (re)keyed for every agent and time point
+	private final AgentRandom moveRndGenerator = new AgentRandom();
 
 
 	// ============= reporting =============
-	private final List<String> reportLog = new ArrayList<>(100);
-	public List<String> getReportLog() {
-		return reportLog;
+	//what the last doOneTime() has seen and done, -1 if not known
+	private int lastNeighborsCnt = -1;
+	private int lastMoveAttemptsCnt = -1;
+	private int lastDivisionAttemptsCnt = 0;
+
+	//where the decisions are recorded if this agent is traced (in this time point), null otherwise
+	private AgentsTracer.Buffer trace = null;
+
+	//how many times the agents (advanced with this working copy) did what, see Simulator.getProfile()
+	SimulationProfile.AgentCounters counters = null;
+	//divisions and deaths of the agents (advanced with this working copy), see Simulator.getStats()
+	TimepointStats.Partial stats = null;
+
+	/** the agent's state after it has been created or advanced, see Simulator.COLLECT_INTERNAL_DATA */
+	void recordInto(final EventLog eventLog) {
+		eventLog.record(this.t, this.id, this.parentId, this.nextX, this.nextY, this.nextZ, this.nextR,
+				lastNeighborsCnt, lastMoveAttemptsCnt, this.nameState);
 	}
-	public void reportStatus() {
-		reportLog.add(String.format("%d\t%f\t%f\t%f\t%d\t%d\t%s", this.t, this.x, this.y, this.z, this.id, this.parentId, this.name));
-	}
-
 
-	// ============= interaction with Mastodon =============
-	private Spot mostRecentMastodonSpotRepre = null;
-	public boolean isMostRecentMastodonSpotValid() {
-		return mostRecentMastodonSpotRepre != null;
-	}
-	public Spot getMostRecentMastodonSpotRepre() {
-		return mostRecentMastodonSpotRepre;
-	}
-	public void setMostRecentMastodonSpotRepre(final Spot initToThis) {
-		if (initToThis == null) return;
-		if (mostRecentMastodonSpotRepre == null) {
-			mostRecentMastodonSpotRepre = initToThis.getModelGraph().vertexRef();
-		}
-		mostRecentMastodonSpotRepre.refTo(initToThis);
-	}
-	private void releaseMostRecentMastodonSpotRepre() {
-		if (mostRecentMastodonSpotRepre != null) {
-			mostRecentMastodonSpotRepre.getModelGraph().releaseRef( mostRecentMastodonSpotRepre );
-			mostRecentMastodonSpotRepre = null;
-		}
+	/** how many neighbors the last doOneTime() has seen, -1 if not known */
+	int getLastNeighborsCnt() {
+		return lastNeighborsCnt;
 	}
 
 
@@ -102,41 +138,18 @@ public class Agent {
 	public Agent(Simulator simulator,
 	             int ID, int parentID, String label,
 	             double x, double y, double z, double radius, int time) {
-		this.simulatorFrame = simulator;
+		this(simulator, ID, parentID, label, LineageLabel.ROOT, x, y, z, radius, time,
+			new AgentRandom().reset(simulator.getSeed(), ID, time, AgentRandom.STREAM_LIFESPAN));
+	}
 
-		switch (Simulator.LABELS_NAMING_POLICY) {
-		case USE_ALWAYS_M:
-			this.name = ONE_AND_ONLY_NAME;
-			this.nameClean = ONE_AND_ONLY_NAME;
-			this.nameBlocked = ONE_AND_ONLY_NAME;
-			this.nameWantDivide = ONE_AND_ONLY_NAME;
-			this.nameBlockedWantDivide = ONE_AND_ONLY_NAME;
-			this.nameBuldozer = ONE_AND_ONLY_NAME;
-			break;
-		case ENCODING_LABELS_AND_PREPENDING:
-			this.name = label;
-			this.nameClean = label;
-			this.nameBlocked = "B_" + label;
-			this.nameWantDivide = "W_" + label;
-			this.nameBlockedWantDivide = "BW_" + label;
-			this.nameBuldozer = "DZ_" + label;
-			break;
-		case ENCODING_LABELS_AND_APPENDING:
-			this.name = label;
-			this.nameClean = label;
-			this.nameBlocked = label + "_B";
-			this.nameWantDivide = label + "_W";
-			this.nameBlockedWantDivide = label + "_BW";
-			this.nameBuldozer = label + "_DZ";
-			break;
-		default: //NB: the same as ENCODING_LABELS
-			this.name = label;
-			this.nameClean = label;
-			this.nameBlocked = label;
-			this.nameWantDivide = label;
-			this.nameBlockedWantDivide = label;
-			this.nameBuldozer = label;
-		}
+	/** the 'lifeSpanRndGenerator' is drawn from to determine the life span of this agent */
+	Agent(Simulator simulator,
+	      int ID, int parentID, String labelRoot, long labelPath,
+	      double x, double y, double z, double radius, int time,
+	      AgentRandom lifeSpanRndGenerator) {
+		this(simulator, simulator.params);
+		this.labelRoot = labelRoot;
+		this.labelPath = labelPath;
 
 		this.id = ID;
 		this.parentId = parentID;
@@ -150,23 +163,98 @@ public class Agent {
 		this.nextZ = z;
 		this.nextR = radius;
 
-		double meanLifePeriod = Simulator.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION;
+		double meanLifePeriod = params.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION * substeps;
 		double sigma = (0.6 * meanLifePeriod) / 3.0;
-		this.dontDivideBefore = time + Math.max((int)(lifeSpanRndGenerator.nextGaussian() * sigma + meanLifePeriod),1);
-		this.slowDownForDivisionPeriod = (int)Math.floor(0.15*meanLifePeriod);
-		this.dontLiveBeyond = time + Math.max(Simulator.AGENT_MAX_LIFESPAN_AND_DIES_AFTER,1);
-		//NB: make sure the lifespan is always at least one time point
-
-		if (parentID == 0 && Simulator.COLLECT_INTERNAL_DATA) {
-			this.reportStatus();
-		}
+		this.dontDivideBefore = time + Math.max((int)(lifeSpanRndGenerator.nextGaussian() * sigma + meanLifePeriod),substeps);
+		this.dontLiveBeyond = time + Math.max(params.AGENT_MAX_LIFESPAN_AND_DIES_AFTER,1) * substeps;
+		//NB: make sure the lifespan is always at least one time point (so that every agent gets recorded)
 
-		if (Simulator.VERBOSE_AGENT_DEBUG) {
+		if (params.VERBOSE_AGENT_DEBUG) {
 			System.out.printf("NEW AGENT %d (%s), parent %d @ [%f,%f,%f] tp=%d, (slowPeriod=%d) divTime=%d, dieTime=%d%n",
-				ID, label, parentID, x, y, z, time, this.slowDownForDivisionPeriod, this.dontDivideBefore, this.dontLiveBeyond);
+				ID, LineageLabel.toString(labelRoot, labelPath), parentID, x, y, z, time, this.slowDownForDivisionPeriod, this.dontDivideBefore, this.dontLiveBeyond);
 		}
 	}
 
+	/** creates an empty working copy, use {@link Agent#loadFrom(AgentsStore, int)} before anything else */
+	Agent(final Simulator simulator) {
+		this(simulator, simulator.params);
+		this.nearbySpheres = new NeighborSpheres(params.SIMULATION_BATCHED_KERNELS, params.VERBOSE_AGENT_DEBUG);
+		this.dispHintingSpheres = new double[3];
+		this.counters = new SimulationProfile.AgentCounters();
+		this.stats = new TimepointStats.Partial();
+	}
+
+	/** only the simulator and the behaviour, the constructors above take it from here */
+	private Agent(final Simulator simulator, final SimulationParams params) {
+		this.simulatorFrame = simulator;
+		this.params = params;
+		this.lookAroundRadius = params.AGENT_LOOK_AROUND_DISTANCE;
+		this.substeps = params.substeps();
+		this.minDistanceToNeighbor = params.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
+		this.usualStepSize = params.AGENT_USUAL_STEP_SIZE / substeps;
+		this.daughtersInitialDisplacement = params.AGENT_DAUGHTERS_INITIAL_DISTANCE;
+		this.daughtersDozeringDisplacement = params.AGENT_DAUGHTERS_DOZERING_DISTANCE;
+		this.daughtersInitialBuldozer = params.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD * substeps;
+		this.slowDownForDivisionPeriod = (int)Math.floor(0.15*params.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION*substeps);
+		this.maxNeighborsForDivide = params.AGENT_MAX_DENSITY_TO_ENABLE_DIVISION;
+	}
+
+	/** for agents that were created with the ID 0 */
+	void assignId(final int ID) {
+		this.id = ID;
+	}
+
+	Agent loadFrom(final AgentsStore store, final int slot) {
+		this.slot = slot;
+		this.id = store.id[slot];
+		this.parentId = store.parentId[slot];
+		this.labelRoot = store.labelRoot[slot];
+		this.labelPath = store.labelPath[slot];
+		this.nameState = store.nameState[slot];
+		this.t = store.t[slot];
+		this.x = store.x[slot];
+		this.y = store.y[slot];
+		this.z = store.z[slot];
+		this.R = store.R[slot];
+		this.nextX = store.nextX[slot];
+		this.nextY = store.nextY[slot];
+		this.nextZ = store.nextZ[slot];
+		this.nextR = store.nextR[slot];
+		this.divBuldozerDx = store.divBuldozerDx[slot];
+		this.divBuldozerDy = store.divBuldozerDy[slot];
+		this.divBuldozerDz = store.divBuldozerDz[slot];
+		this.divBuldozerStopTP = store.divBuldozerStopTP[slot];
+		this.dontDivideBefore = store.dontDivideBefore[slot];
+		this.dontLiveBeyond = store.dontLiveBeyond[slot];
+		this.lastNeighborsCnt = -1;
+		this.lastMoveAttemptsCnt = -1;
+		return this;
+	}
+
+	void saveTo(final AgentsStore store, final int slot) {
+		this.slot = slot;
+		store.id[slot] = this.id;
+		store.parentId[slot] = this.parentId;
+		store.labelRoot[slot] = this.labelRoot;
+		store.labelPath[slot] = this.labelPath;
+		store.nameState[slot] = this.nameState;
+		store.t[slot] = this.t;
+		store.x[slot] = this.x;
+		store.y[slot] = this.y;
+		store.z[slot] = this.z;
+		store.R[slot] = this.R;
+		store.nextX[slot] = this.nextX;
+		store.nextY[slot] = this.nextY;
+		store.nextZ[slot] = this.nextZ;
+		store.nextR[slot] = this.nextR;
+		store.divBuldozerDx[slot] = this.divBuldozerDx;
+		store.divBuldozerDy[slot] = this.divBuldozerDy;
+		store.divBuldozerDz[slot] = this.divBuldozerDz;
+		store.divBuldozerStopTP[slot] = this.divBuldozerStopTP;
+		store.dontDivideBefore[slot] = this.dontDivideBefore;
+		store.dontLiveBeyond[slot] = this.dontLiveBeyond;
+	}
+
 	public void progress(int tillThisTime) {
 		boolean firstGo = true;
 		while (this.t < tillThisTime) {
@@ -180,14 +268,20 @@ public class Agent {
 		this.y = this.nextY;
 		this.z = this.nextZ;
 		this.R = this.nextR;
-		if (Simulator.COLLECT_INTERNAL_DATA) this.reportStatus();
 	}
 
 
 	// ============= "internal" API =============
-	//100-times: x,y,z,R
-	final double[] nearbySpheres = new double[400];
-	final int nearbySpheresStride = 4;
+	//NB: only working copies have the scratch buffers, see Agent(Simulator)
+	NeighborSpheres nearbySpheres = null;
+
+	/** fills the nearbySpheres, returns their count */
+	private int lookAround(final double searchDistance) {
+		final int neighborsCnt = simulatorFrame.getListOfOccupiedCoords(this, searchDistance, nearbySpheres);
+		counters.neighborQueries++;
+		counters.neighborsFound += neighborsCnt;
+		return neighborsCnt;
+	}
 
 	protected void doOneTime(boolean fromCurrentPos) {
 		final double oldX = fromCurrentPos ? this.x : this.nextX;
@@ -195,13 +289,16 @@ public class Agent {
 		final double oldZ = fromCurrentPos ? this.z : this.nextZ;
 		final double oldR = fromCurrentPos ? this.R : this.nextR;
 
+		moveRndGenerator.reset(simulatorFrame.getSeed(), this.id, this.t, AgentRandom.STREAM_MOVES);
+		trace = simulatorFrame.getTraceBuffer(this.id, this.t, oldX,oldY,oldZ);
+		nearbySpheres.trace = trace;
 		if ( doBuldozering(oldX,oldY,oldZ, oldR) ) return;
 
-		final int neighborsMaxIdx = simulatorFrame.getListOfOccupiedCoords(this, lookAroundRadius, nearbySpheres);
-		final int neighborsCnt = neighborsMaxIdx / nearbySpheresStride;
+		final int neighborsCnt = lookAround(lookAroundRadius);
+		if (trace != null) trace.add(AgentsTracer.START, oldX,oldY,oldZ, neighborsCnt);
 
-		if (Simulator.VERBOSE_AGENT_DEBUG) {
-			System.out.printf("advancing agent id %d (%s) @ %d:%n", this.id, this.name, this.t);
+		if (params.VERBOSE_AGENT_DEBUG) {
+			System.out.printf("advancing agent id %d (%s) @ %d:%n", this.id, this.getName(), this.t);
 			System.out.printf("  from pos [%f,%f,%f] (from_current_pos=%b)%n", oldX, oldY, oldZ, fromCurrentPos);
 			System.out.println("  neighs cnt: " + neighborsCnt);
 		}
@@ -210,56 +307,17 @@ public class Agent {
 		double newX = 0,newY = 0,newZ = 0;
 
 		//calculate displacement step that finds "dominant" way to get away from the nearby agents
-		double dispAwayX = 0,dispAwayY = 0,dispAwayZ = 0;
-		double sumOfWeights = 0;
-		for (int off = 0; off < neighborsMaxIdx; off += nearbySpheresStride) {
-			double dx = oldX - nearbySpheres[off+0];
-			double dy = oldY - nearbySpheres[off+1];
-			double dz = oldZ - nearbySpheres[off+2];
-			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			dx /= dist; dy /= dist; dz /= dist;  //displacement vector is now normalized
-
-			dist -= oldR + nearbySpheres[off+3]; //the actual (surface) distance to the nearby agent
-			if (dist > minDistanceToNeighbor) continue; //too far to care...
-
-			//how much to move to get surfaces exactly "minDistance" far from each other
-			dist = minDistanceToNeighbor - dist;
-			dist = Math.min(0.7 * dist, 0.5*oldR);
-			//NB:
-			//half (0.5) should be taken because the other agent will do the same move;
-			//but since agents jump chaotically, we better displace a little more (0.7);
-			//and yet don't move more than a quarter of agent's own size
-
-			dx *= dist; //displacement vector now of the appropriate size
-			dy *= dist;
-			dz *= dist;
-
-			dist = Math.min(dist,minDistanceToNeighbor); //NB: agents' overlap is not worse
-			                                             //than just touching surfaces
-			double weight = dist / minDistanceToNeighbor; //NB: [0:1] scale
-			weight *= weight;                             //quadratic -> longer moves get more attention
-
-			dispAwayX += weight * dx;
-			dispAwayY += weight * dy;
-			dispAwayZ += weight * dz;
-			sumOfWeights += weight;
-
-			if (Simulator.VERBOSE_AGENT_DEBUG) {
-				System.out.printf("  detected away displacement = (%f,%f,%f) of weight = %f%n",dx,dy,dz,weight);
-			}
-		}
-		if (sumOfWeights > 0) {
-			dispAwayX /= sumOfWeights;
-			dispAwayY /= sumOfWeights;
-			dispAwayZ /= sumOfWeights;
-		}
+		final double sumOfWeights = nearbySpheres.repulsionFrom(oldX,oldY,oldZ, oldR, minDistanceToNeighbor);
+		final double dispAwayX = nearbySpheres.dispX;
+		final double dispAwayY = nearbySpheres.dispY;
+		final double dispAwayZ = nearbySpheres.dispZ;
+		if (trace != null) trace.add(AgentsTracer.AWAY, dispAwayX,dispAwayY,dispAwayZ, sumOfWeights);
 
-		//make sure the relevant hinting spheres are extracted and ready
-		simulatorFrame.updateSphereCaches(this.t+1);
+		//NB: the relevant hinting spheres are extracted and ready, see Simulator.doOneTime()
 
 		//NB: if 'step' is a distance along one axis, the total length in the space is sqrt(spaceDim)-times larger
 		final double stepSizeDimensionalityCompensation
-				= Simulator.AGENT_DO_2D_MOVES_ONLY == Agent2dMovesRestriction.NO_RESTRICTION ? 1.73 : 1.41;
+				= params.AGENT_DO_2D_MOVES_ONLY == Agent2dMovesRestriction.NO_RESTRICTION ? 1.73 : 1.41;
 		final double stepSize = usualStepSize / stepSizeDimensionalityCompensation;
 		double slowDownFactor = 1.0;
 		final double slowDownFactor_division = 0.2 + Math.min( Math.max(0,dontDivideBefore-1 -this.t) / (double)slowDownForDivisionPeriod , 0.8);
@@ -267,9 +325,9 @@ public class Agent {
 
 		int moveAttemptsCnt = 0;
 		boolean tooClose = true;
-		while (moveAttemptsCnt < Simulator.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE && tooClose) {
+		while (moveAttemptsCnt < params.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE && tooClose) {
 			slowDownFactor = 1.0 - (
-					(double)moveAttemptsCnt / (double)Simulator.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE );
+					(double)moveAttemptsCnt / (double)params.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE );
 			//if, however, there is "a lot of 'collision'", we additionally
 			//lower the contribution of the random step
 			slowDownFactor *= slowDownFactor_division;
@@ -281,7 +339,7 @@ public class Agent {
 			dispY = moveRndGenerator.nextGaussian() * stepSize * slowDownFactor;
 			dispZ = moveRndGenerator.nextGaussian() * stepSize * slowDownFactor;
 			//
-			switch (Simulator.AGENT_DO_2D_MOVES_ONLY) {
+			switch (params.AGENT_DO_2D_MOVES_ONLY) {
 			case NO_X_AXIS_MOVE:
 				dispX = 0.0;
 				break;
@@ -293,6 +351,8 @@ public class Agent {
 				break;
 			}
 
+			if (trace != null) trace.add(AgentsTracer.ATTEMPT, dispX,dispY,dispZ, slowDownFactor);
+
 			newX = oldX + dispX + dispAwayX;
 			newY = oldY + dispY + dispAwayY;
 			newZ = oldZ + dispZ + dispAwayZ;
@@ -313,10 +373,13 @@ public class Agent {
 				dispHintingSpheres[0] /= (double)dispHintingCnt;
 				dispHintingSpheres[1] /= (double)dispHintingCnt;
 				dispHintingSpheres[2] /= (double)dispHintingCnt;
-				if (Simulator.VERBOSE_AGENT_DEBUG) {
+				if (params.VERBOSE_AGENT_DEBUG) {
 					System.out.printf("  hinted displacement = (%f,%f,%f) from %d hinting spheres%n",
 							dispHintingSpheres[0],dispHintingSpheres[1],dispHintingSpheres[2], dispHintingCnt);
 				}
+				if (trace != null) {
+					trace.add(AgentsTracer.HINTED, dispHintingSpheres[0],dispHintingSpheres[1],dispHintingSpheres[2], dispHintingCnt);
+				}
 			}
 			//
 			//apply:
@@ -324,20 +387,11 @@ public class Agent {
 			newY += dispHintingSpheres[1];
 			newZ += dispHintingSpheres[2];
 
-			tooClose = false;
-			for (int off = 0; off < neighborsMaxIdx; off += nearbySpheresStride) {
-				double dx = nearbySpheres[off+0] - newX;
-				double dy = nearbySpheres[off+1] - newY;
-				double dz = nearbySpheres[off+2] - newZ;
-				double dist = Math.sqrt(dx*dx + dy*dy + dz*dz) - oldR - nearbySpheres[off+3];
-				//NB: little more tolerant here...
-				if (dist < (minDistanceToNeighbor-EPSILON)) {
-					tooClose = true;
-					break;
-				}
-			}
+			//NB: little more tolerant here...
+			tooClose = nearbySpheres.isAnyCloserThan(newX,newY,newZ, oldR, minDistanceToNeighbor-EPSILON);
+			if (trace != null) trace.add(AgentsTracer.TRIED, newX,newY,newZ, tooClose ? 1 : 0);
 
-			if (Simulator.VERBOSE_AGENT_DEBUG) {
+			if (params.VERBOSE_AGENT_DEBUG) {
 				System.out.printf("  away   displacement = (%f,%f,%f), heavy collision = %b, sumOfWeights=%f%n",
 						dispAwayX, dispAwayY, dispAwayZ, sumOfWeights > sumOfWeights_heavyCollisionThreshold, sumOfWeights);
 				System.out.printf("  random displacement = (%f,%f,%f), slowDownFactor = %f (slowDF_division = %f)%n",
@@ -352,43 +406,58 @@ public class Agent {
 		this.nextZ = newZ;
 		//...and indicate if that move is good or not
 		if (!tooClose) {
-			this.name = this.nameClean;
+			this.nameState = NAME_CLEAN;
 		} else {
-			if (Simulator.VERBOSE_AGENT_DEBUG) {
+			if (params.VERBOSE_AGENT_DEBUG) {
 				System.out.println("  collision move 'cause " + neighborsCnt + " neighbors are around");
 			}
-			this.name = this.nameBlocked;
+			this.nameState = NAME_BLOCKED;
 		}
+		this.lastNeighborsCnt = neighborsCnt;
+		this.lastMoveAttemptsCnt = moveAttemptsCnt;
+		counters.moveAttempts += moveAttemptsCnt;
+		if (tooClose) counters.blockedMoves++;
 		this.t += 1;
+		if (trace != null) trace.add(AgentsTracer.MOVED, this.nextX,this.nextY,this.nextZ, moveAttemptsCnt);
 
-		if (Simulator.VERBOSE_AGENT_DEBUG) {
+		if (params.VERBOSE_AGENT_DEBUG) {
 			System.out.printf("  established coords [%f,%f,%f] (required %d attempts)%n", this.nextX, this.nextY, this.nextZ, moveAttemptsCnt);
 			System.out.printf("  when %d neighbors around, too_close=%b%n", neighborsCnt, tooClose);
 		}
 
 		if (this.t > this.dontLiveBeyond) {
-			if (Simulator.VERBOSE_AGENT_DEBUG) {
+			if (params.VERBOSE_AGENT_DEBUG) {
 				System.out.println("  dying now!");
 			}
+			if (trace != null) trace.add(AgentsTracer.DIED, this.nextX,this.nextY,this.nextZ, this.dontLiveBeyond);
 			this.simulatorFrame.deregisterAgent(this);
+			stats.deaths++;
 		} else if (this.t > this.dontDivideBefore) {
 			if (neighborsCnt <= this.maxNeighborsForDivide && !tooClose) {
-				if (Simulator.VERBOSE_AGENT_DEBUG) {
+				if (params.VERBOSE_AGENT_DEBUG) {
 					System.out.println("  dividing!");
 				}
 				//
 				final boolean managedToDivide = this.divideMe();
 				//
-				this.dontDivideBefore = this.t + 2;
-				if (Simulator.VERBOSE_AGENT_DEBUG && !managedToDivide) {
+				counters.divisionAttempts++;
+				if (managedToDivide) {
+					counters.divisions++;
+					stats.divisions++;
+				}
+				this.dontDivideBefore = this.t + 2*substeps;
+				if (trace != null) {
+					trace.add(AgentsTracer.DIVIDED, managedToDivide ? 1 : 0, lastDivisionAttemptsCnt, neighborsCnt, this.dontDivideBefore+1);
+				}
+				if (params.VERBOSE_AGENT_DEBUG && !managedToDivide) {
 					System.out.println("  FAILED dividing! will try again at time point "+(dontDivideBefore+1));
 				}
 			} else {
-				if (Simulator.VERBOSE_AGENT_DEBUG) {
+				if (params.VERBOSE_AGENT_DEBUG) {
 					System.out.printf("  should divide but space seems to be full... (%d neighbors, too_close=%b)%n", neighborsCnt, tooClose);
 				}
 			}
-			this.name = tooClose ? this.nameBlockedWantDivide : this.nameWantDivide;
+			this.nameState = tooClose ? NAME_BLOCKED_WANT_DIVIDE : NAME_WANT_DIVIDE;
 		}
 	}
 
@@ -400,7 +469,7 @@ public class Agent {
 		//look just enough (and often further than normally) around to see enough to host two daughters side-by-side;
 		//so, the furtherest surface of the bigger daughter from mother's centre, minus mother's radius:
 		final double lookAroundDist = daughtersCentresHalfDistance + Math.max(d1Radius,d2Radius) - this.R;
-		final int neighborsMaxIdx = simulatorFrame.getListOfOccupiedCoords(this, lookAroundDist, nearbySpheres);
+		lookAround(lookAroundDist);
 
 		//NB: it is assumed that agent/cell is no longer buldozering when it reaches divideMe(), so we can modify the buldozering vector now
 		//but, is there any valid/already-used buldozering vector at all?
@@ -429,31 +498,31 @@ public class Agent {
 			--remainingTries;
 
 			//division vector:
-			switch (Simulator.AGENT_DO_2D_MOVES_ONLY) {
+			switch (params.AGENT_DO_2D_MOVES_ONLY) {
 			case NO_X_AXIS_MOVE:
 				azimuth = Math.atan2(divBuldozerDz, divBuldozerDy);
-				azimuth += moveRndGenerator.nextGaussian() * Simulator.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
+				azimuth += moveRndGenerator.nextGaussian() * params.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
 				dx = 0.0;
 				dy = Math.cos(azimuth);
 				dz = Math.sin(azimuth);
 				break;
 			case NO_Y_AXIS_MOVE:
 				azimuth = Math.atan2(divBuldozerDz, divBuldozerDx);
-				azimuth += moveRndGenerator.nextGaussian() * Simulator.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
+				azimuth += moveRndGenerator.nextGaussian() * params.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
 				dx = Math.cos(azimuth);
 				dy = 0.0;
 				dz = Math.sin(azimuth);
 				break;
 			case NO_Z_AXIS_MOVE:
 				azimuth = Math.atan2(divBuldozerDy, divBuldozerDx);
-				azimuth += moveRndGenerator.nextGaussian() * Simulator.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
+				azimuth += moveRndGenerator.nextGaussian() * params.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
 				dx = Math.cos(azimuth);
 				dy = Math.sin(azimuth);
 				dz = 0.0;
 				break;
 			default: //full 3D case
 				azimuth = Math.atan2(divBuldozerDy, divBuldozerDx);
-				azimuth += moveRndGenerator.nextGaussian() * 0.8 * Simulator.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
+				azimuth += moveRndGenerator.nextGaussian() * 0.8 * params.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
 				//NB: the azimuth changes in both "axes" can move within a square while we needed it move within a circle, so we
 				//    reduce the size of the square to 80% to compensate... (as a square corner stretches far beyond the circle)
 				double twoDlen = Math.sqrt(divBuldozerDy*divBuldozerDy + divBuldozerDx*divBuldozerDx);
@@ -462,7 +531,7 @@ public class Agent {
 				dz = divBuldozerDz;
 
 				azimuth = Math.atan2(dz, dx);
-				azimuth += moveRndGenerator.nextGaussian() * 0.8 * Simulator.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
+				azimuth += moveRndGenerator.nextGaussian() * 0.8 * params.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES / 3.0;
 				twoDlen = Math.sqrt(dz*dz + dx*dx);
 				dx = twoDlen * Math.cos(azimuth);
 				dz = twoDlen * Math.sin(azimuth);
@@ -483,15 +552,15 @@ public class Agent {
 			//check now the future placement of both daughters:
 			//  if bad, try again... if still bad, we don't divide now
 			//  else we continue below...
-			proximityCounter = 0;
-			for (int off = 0; off < neighborsMaxIdx; off += nearbySpheresStride) {
-				proximityCounter += isSphereTooCloseToNeigh(nextX-dx, nextY-dy, nextZ-dz, d1Radius, off) ? 1 : 0;
-				proximityCounter += isSphereTooCloseToNeigh(nextX+dx, nextY+dy, nextZ+dz, d2Radius, off) ? 1 : 0;
-			}
-			if (Simulator.VERBOSE_AGENT_DEBUG && proximityCounter > 0) {
+			proximityCounter = nearbySpheres.countCloserThan(
+					nextX-dx, nextY-dy, nextZ-dz, d1Radius,
+					nextX+dx, nextY+dy, nextZ+dz, d2Radius, daughtersInitialDisplacement);
+			if (trace != null) trace.add(AgentsTracer.DIVISION, dx,dy,dz, proximityCounter);
+			if (params.VERBOSE_AGENT_DEBUG && proximityCounter > 0) {
 				System.out.println("  daughters placement found in "+proximityCounter+" collisions, trying again");
 			}
 		}
+		lastDivisionAttemptsCnt = 20 - remainingTries;
 		if (proximityCounter > 0) return false;
 
 		//memorize the direction and the full distance to travel for the "buldozering":
@@ -502,18 +571,13 @@ public class Agent {
 		divBuldozerDz = buldozeringLen * dz;
 
 		//all seems well incl. where to place the daughters, let's introduce them to the Simulator (and deregister this mother)
-		final int d1Id = simulatorFrame.getNewId();
-		final int d2Id = simulatorFrame.getNewId();
-		final String d1Name = name + "a";
-		final String d2Name = name + "b";
-
-		Agent d1 = new Agent(simulatorFrame, d1Id, id, d1Name, nextX-dx, nextY-dy, nextZ-dz, d1Radius, t);
-		Agent d2 = new Agent(simulatorFrame, d2Id, id, d2Name, nextX+dx, nextY+dy, nextZ+dz, d2Radius, t);
-		//NB: mother must have existed for at least one time point, and thus must exist its Mastodon representation
-		d1.setMostRecentMastodonSpotRepre(this.mostRecentMastodonSpotRepre);
-		d2.setMostRecentMastodonSpotRepre(this.mostRecentMastodonSpotRepre);
-		this.releaseMostRecentMastodonSpotRepre();
+		//NB: daughters' IDs are assigned later by the Simulator, in an order that doesn't depend on threads
+		final String dRoot = LineageLabel.daughterRoot(labelRoot, labelPath);
+		final long d1Path = LineageLabel.daughterPath(labelPath, false);
+		final long d2Path = LineageLabel.daughterPath(labelPath, true);
 
+		Agent d1 = new Agent(simulatorFrame, 0, id, dRoot, d1Path, nextX-dx, nextY-dy, nextZ-dz, d1Radius, t, moveRndGenerator);
+		Agent d2 = new Agent(simulatorFrame, 0, id, dRoot, d2Path, nextX+dx, nextY+dy, nextZ+dz, d2Radius, t, moveRndGenerator);
 		simulatorFrame.deregisterAgent(this);
 		simulatorFrame.registerAgent(d1);
 		simulatorFrame.registerAgent(d2);
@@ -531,52 +595,17 @@ public class Agent {
 		return true; //division has happened
 	}
 
-	/** given one agent explicitly as [posx,posy,posz,R] and another agent implicitly via offset [ nearbySpheres[neighOffset] ],
-	 *  the method returns true if the two agents are surface-to-surface closer than Agent.daughtersInitialDisplacement */
-	private boolean isSphereTooCloseToNeigh(double posx, double posy, double posz, double R, int neighOffset) {
-			double dx = posx - nearbySpheres[neighOffset+0];
-			double dy = posy - nearbySpheres[neighOffset+1];
-			double dz = posz - nearbySpheres[neighOffset+2];
-			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			dist -= R + nearbySpheres[neighOffset+3]; //the actual (surface) distance to the nearby agent
-			return dist < daughtersInitialDisplacement;
-	}
-
-
 	protected boolean doBuldozering(final double fromHereX, final double fromHereY, final double fromHereZ, final double oldR) {
 		final int remainingTimePoints = this.divBuldozerStopTP - (this.t+1); //NB: as if already in the now-creating (future) time point
 		if (remainingTimePoints < 0) return false;
 
 		//now, a combination of what is in divideMe() and dispAwayX,Y,Z from doOneTime()
 		//NB: searching only for overlapping/colliding neighbors
-		final int neighborsMaxIdx = simulatorFrame.getListOfOccupiedCoords(this, 0.0, nearbySpheres);
-		//
-		double dispAwayX = 0,dispAwayY = 0,dispAwayZ = 0;
-		int dispAwayCnt = 0;
-		for (int off = 0; off < neighborsMaxIdx; off += nearbySpheresStride) {
-			double dx = fromHereX - nearbySpheres[off+0];
-			double dy = fromHereY - nearbySpheres[off+1];
-			double dz = fromHereZ - nearbySpheres[off+2];
-			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			dx /= dist; dy /= dist; dz /= dist;  //displacement vector is now normalized
-
-			dist -= oldR + nearbySpheres[off+3]; //the actual (surface) distance to get outside the current overlapping constellation
-			//NB: dist should be non-positive, but just in case....
-			if (dist >= 0.0) continue;
-
-			dist *= -0.7;
-			//half (0.5) should be taken because the other agent will do the same move;
-			//but since agents jump chaotically, we better displace a little more (0.7);
-			dispAwayX += dist * dx;
-			dispAwayY += dist * dy;
-			dispAwayZ += dist * dz;
-			dispAwayCnt++;
-		}
-		if (dispAwayCnt > 0) {
-			dispAwayX /= (double)dispAwayCnt;
-			dispAwayY /= (double)dispAwayCnt;
-			dispAwayZ /= (double)dispAwayCnt;
-		}
+		final int neighborsCnt = lookAround(0.0);
+		final int dispAwayCnt = nearbySpheres.overlapsPushFrom(fromHereX,fromHereY,fromHereZ, oldR);
+		final double dispAwayX = nearbySpheres.dispX;
+		final double dispAwayY = nearbySpheres.dispY;
+		final double dispAwayZ = nearbySpheres.dispZ;
 
 		//NB: steps(x) = 0.5 * (x + x*x) -- the sum of arithmetic sequence 1...to...x
 		//when k-steps (where k = 0...N-1) is left from N-step plan, the current move shall be:
@@ -591,23 +620,26 @@ public class Agent {
 		this.nextY = fromHereY + currentStepLen*divBuldozerDy + dispAwayY;
 		this.nextZ = fromHereZ + currentStepLen*divBuldozerDz + dispAwayZ;
 
-		if (Simulator.VERBOSE_AGENT_DEBUG) {
-			System.out.printf("advancing agent id %d (%s) @ %d in buldozer-mode:%n", this.id, this.name, this.t);
-			System.out.printf("  from pos [%f,%f,%f] when overlapping neighs cnt %d%n", fromHereX, fromHereY, fromHereZ, neighborsMaxIdx/nearbySpheresStride);
+		if (params.VERBOSE_AGENT_DEBUG) {
+			System.out.printf("advancing agent id %d (%s) @ %d in buldozer-mode:%n", this.id, this.getName(), this.t);
+			System.out.printf("  from pos [%f,%f,%f] when overlapping neighs cnt %d%n", fromHereX, fromHereY, fromHereZ, neighborsCnt);
 			System.out.printf("  away displacement = (%f,%f,%f), sumOfWeights=%d%n", dispAwayX, dispAwayY, dispAwayZ, dispAwayCnt);
 			System.out.printf("  in buldozer-mode  = (%f,%f,%f), phase (%d/%d)%n",
 					currentStepLen*divBuldozerDx,currentStepLen*divBuldozerDy,currentStepLen*divBuldozerDz, remainingTimePoints,daughtersInitialBuldozer);
 			System.out.printf("  established coords [%f,%f,%f]%n", this.nextX,this.nextY,this.nextZ);
 		}
 
+		this.lastNeighborsCnt = neighborsCnt;
+		this.lastMoveAttemptsCnt = 0;
+		if (trace != null) trace.add(AgentsTracer.BULDOZER, this.nextX,this.nextY,this.nextZ, dispAwayCnt);
 		this.t += 1;
-		this.name = this.nameBuldozer;
+		this.nameState = NAME_BULDOZER;
 
 		return true;
 	}
 
 
-	protected final double[] dispHintingSpheres = new double[3];
+	protected double[] dispHintingSpheres = null;
 	protected int dispHintingCnt = 0;
 
 	protected void suggestMoveBasedOnStayInsideSpheres(
@@ -617,42 +649,37 @@ public class Agent {
 	                           final double newX,
 	                           final double newY,
 	                           final double newZ) {
-		for (int off = 0; off < simulatorFrame.stayInsideSpheresSharedArrayMaxUsedIdx; off += nearbySpheresStride) {
-			double dx = oldX - simulatorFrame.stayInsideSpheresSharedArray[off+0]; //NB: direction doesn't matter now
-			double dy = oldY - simulatorFrame.stayInsideSpheresSharedArray[off+1];
-			double dz = oldZ - simulatorFrame.stayInsideSpheresSharedArray[off+2];
-			double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			if (dLen < simulatorFrame.stayInsideSpheresSharedArray[off+3]) {
-				//old pos was inside this hinting sphere, then: make sure the new pos is not outside
-				dx = simulatorFrame.stayInsideSpheresSharedArray[off+0] - newX;
-				dy = simulatorFrame.stayInsideSpheresSharedArray[off+1] - newY;
-				dz = simulatorFrame.stayInsideSpheresSharedArray[off+2] - newZ;
-				dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
-				double dist = dLen - simulatorFrame.stayInsideSpheresSharedArray[off+3];
-				if (dist > 0) {
-					//new pos is outside
-					dist = Math.min(1.1 * dist, this.usualStepSize);
-					dispHintingSpheres[0] += dx * dist / dLen;
-					dispHintingSpheres[1] += dy * dist / dLen;
-					dispHintingSpheres[2] += dz * dist / dLen;
-					dispHintingCnt++;
-				}
-			}
-		}
+		//only the spheres around the old pos are relevant
+		final HintingSpheres hs = simulatorFrame.stayInsideSpheres;
+		final int cell = hs.cellOf(oldX,oldY,oldZ);
+		for (int k = hs.cellFrom(cell); k < hs.cellTill(cell); ++k)
+			suggestMoveBasedOnStayInsideSphere(hs.spheres, 4*hs.cellMembers[k], oldX,oldY,oldZ, newX,newY,newZ);
+		for (int k = 0; k < hs.hugeCnt; ++k)
+			suggestMoveBasedOnStayInsideSphere(hs.spheres, 4*hs.hugeMembers[k], oldX,oldY,oldZ, newX,newY,newZ);
 	}
 
-	protected void suggestMoveBasedOnKeepOutSpheres(
+	private void suggestMoveBasedOnStayInsideSphere(
+	                           final double[] spheres, final int off,
+	                           final double oldX,
+	                           final double oldY,
+	                           final double oldZ,
 	                           final double newX,
 	                           final double newY,
 	                           final double newZ) {
-		for (int off = 0; off < simulatorFrame.keepOutSpheresSharedArrayMaxUsedIdx; off += nearbySpheresStride) {
-			double dx = newX - simulatorFrame.keepOutSpheresSharedArray[off+0];
-			double dy = newY - simulatorFrame.keepOutSpheresSharedArray[off+1];
-			double dz = newZ - simulatorFrame.keepOutSpheresSharedArray[off+2];
-			double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			double dist = simulatorFrame.keepOutSpheresSharedArray[off+3] - dLen;
+		double dx = oldX - spheres[off+0]; //NB: direction doesn't matter now
+		double dy = oldY - spheres[off+1];
+		double dz = oldZ - spheres[off+2];
+		double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (dLen < spheres[off+3]) {
+			//old pos was inside this hinting sphere, then: make sure the new pos is not outside
+			dx = spheres[off+0] - newX;
+			dy = spheres[off+1] - newY;
+			dz = spheres[off+2] - newZ;
+			dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			double dist = dLen - spheres[off+3];
 			if (dist > 0) {
-				dist = Math.min(dist, this.usualStepSize);
+				//new pos is outside
+				dist = Math.min(1.1 * dist, this.usualStepSize);
 				dispHintingSpheres[0] += dx * dist / dLen;
 				dispHintingSpheres[1] += dy * dist / dLen;
 				dispHintingSpheres[2] += dz * dist / dLen;
@@ -661,6 +688,38 @@ public class Agent {
 		}
 	}
 
+	protected void suggestMoveBasedOnKeepOutSpheres(
+	                           final double newX,
+	                           final double newY,
+	                           final double newZ) {
+		//only the spheres around the new pos are relevant
+		final HintingSpheres hs = simulatorFrame.keepOutSpheres;
+		final int cell = hs.cellOf(newX,newY,newZ);
+		for (int k = hs.cellFrom(cell); k < hs.cellTill(cell); ++k)
+			suggestMoveBasedOnKeepOutSphere(hs.spheres, 4*hs.cellMembers[k], newX,newY,newZ);
+		for (int k = 0; k < hs.hugeCnt; ++k)
+			suggestMoveBasedOnKeepOutSphere(hs.spheres, 4*hs.hugeMembers[k], newX,newY,newZ);
+	}
+
+	private void suggestMoveBasedOnKeepOutSphere(
+	                           final double[] spheres, final int off,
+	                           final double newX,
+	                           final double newY,
+	                           final double newZ) {
+		double dx = newX - spheres[off+0];
+		double dy = newY - spheres[off+1];
+		double dz = newZ - spheres[off+2];
+		double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		double dist = spheres[off+3] - dLen;
+		if (dist > 0) {
+			dist = Math.min(dist, this.usualStepSize);
+			dispHintingSpheres[0] += dx * dist / dLen;
+			dispHintingSpheres[1] += dy * dist / dLen;
+			dispHintingSpheres[2] += dz * dist / dLen;
+			dispHintingCnt++;
+		}
+	}
+
 	protected void suggestMoveBasedOnHoldPositionSpheres(
 	                           final double oldX,
 	                           final double oldY,
@@ -669,28 +728,42 @@ public class Agent {
 	                           final double newY,
 	                           final double newZ) {
 		/*
-		for (int off = 0; off < simulatorFrame.holdPositionSpheresSharedArrayMaxUsedIdx; off += nearbySpheresStride) {
-			double dx = oldX - simulatorFrame.holdPositionSpheresSharedArray[off+0]; //NB: direction doesn't matter now
-			double dy = oldY - simulatorFrame.holdPositionSpheresSharedArray[off+1];
-			double dz = oldZ - simulatorFrame.holdPositionSpheresSharedArray[off+2];
-			double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
-			if (simulatorFrame.holdPositionSpheresSharedArray[off+3] > dLen) {
-				//old pos was inside this hinting sphere, then: make sure the new pos is not outside
-				dx = simulatorFrame.holdPositionSpheresSharedArray[off+0] - newX;
-				dy = simulatorFrame.holdPositionSpheresSharedArray[off+1] - newY;
-				dz = simulatorFrame.holdPositionSpheresSharedArray[off+2] - newZ;
-				dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
-				double dist = dLen - simulatorFrame.holdPositionSpheresSharedArray[off+3];
-				if (dist > 0) {
-					//new pos is outside
-					dist = Math.min(dist, this.usualStepSize);
-					dispHintingSpheres[0] += dx * dist / dLen;
-					dispHintingSpheres[1] += dy * dist / dLen;
-					dispHintingSpheres[2] += dz * dist / dLen;
-					dispHintingCnt++;
-				}
+		final HintingSpheres hs = simulatorFrame.holdPositionSpheres;
+		final int cell = hs.cellOf(oldX,oldY,oldZ);
+		for (int k = hs.cellFrom(cell); k < hs.cellTill(cell); ++k)
+			suggestMoveBasedOnHoldPositionSphere(hs.spheres, 4*hs.cellMembers[k], oldX,oldY,oldZ, newX,newY,newZ);
+		for (int k = 0; k < hs.hugeCnt; ++k)
+			suggestMoveBasedOnHoldPositionSphere(hs.spheres, 4*hs.hugeMembers[k], oldX,oldY,oldZ, newX,newY,newZ);
+		*/
+	}
+
+	private void suggestMoveBasedOnHoldPositionSphere(
+	                           final double[] spheres, final int off,
+	                           final double oldX,
+	                           final double oldY,
+	                           final double oldZ,
+	                           final double newX,
+	                           final double newY,
+	                           final double newZ) {
+		double dx = oldX - spheres[off+0]; //NB: direction doesn't matter now
+		double dy = oldY - spheres[off+1];
+		double dz = oldZ - spheres[off+2];
+		double dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (spheres[off+3] > dLen) {
+			//old pos was inside this hinting sphere, then: make sure the new pos is not outside
+			dx = spheres[off+0] - newX;
+			dy = spheres[off+1] - newY;
+			dz = spheres[off+2] - newZ;
+			dLen = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			double dist = dLen - spheres[off+3];
+			if (dist > 0) {
+				//new pos is outside
+				dist = Math.min(dist, this.usualStepSize);
+				dispHintingSpheres[0] += dx * dist / dLen;
+				dispHintingSpheres[1] += dy * dist / dLen;
+				dispHintingSpheres[2] += dz * dist / dLen;
+				dispHintingCnt++;
 			}
 		}
-		*/
 	}
 }
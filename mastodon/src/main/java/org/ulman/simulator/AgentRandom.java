@@ -0,0 +1,59 @@
+package org.ulman.simulator;
+
+/** Counter-based random generator: its sequence is fully determined by the (seed, agent ID,
+ *  time point, stream) key it was last reset to. Agents therefore draw the same numbers
+ *  no matter which thread advances them and in what order, and no generator is shared
+ *  between threads. The numbers come from the SplitMix64 mixing function. */
+class AgentRandom {
+	static final int STREAM_MOVES = 1;
+	static final int STREAM_LIFESPAN = 2;
+	static final int STREAM_POPULATE = 3;
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long state;
+	private double nextNextGaussian;
+	private boolean haveNextNextGaussian = false;
+
+	AgentRandom reset(final long seed, final int agentId, final int time, final int stream) {
+		long key = mix64(seed + GOLDEN_GAMMA * stream);
+		key = mix64(key ^ (((long)agentId << 32) | (time & 0xFFFFFFFFL)));
+		state = key;
+		haveNextNextGaussian = false;
+		return this;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix64(state);
+	}
+
+	/** uniformly from the interval [0,1) */
+	double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/** normally distributed with zero mean and unit variance, the same algorithm as in java.util.Random */
+	double nextGaussian() {
+		if (haveNextNextGaussian) {
+			haveNextNextGaussian = false;
+			return nextNextGaussian;
+		}
+		double v1, v2, s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		final double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		nextNextGaussian = v2 * multiplier;
+		haveNextNextGaussian = true;
+		return v1 * multiplier;
+	}
+}
@@ -0,0 +1,276 @@
+package org.ulman.simulator;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** Uniform grid (aka cell list) over the current positions of all agents. The grid is rebuilt
+ *  once per time point (before the agents are advanced) and then it answers the "who is around"
+ *  queries of the agents without consulting the Mastodon's graph and its spatial index. */
+class AgentsGrid {
+	//geometry of the grid
+	private double cellSize = 1.0;
+	private double minX, minY, minZ;
+	private int sizeX = 1, sizeY = 1, sizeZ = 1;
+	private double maxR = 0.0;
+
+	//agents of the cell 'c' are at indices [cellStart[c], cellStart[c+1]) of the arrays below
+	private int[] cellStart = new int[2];
+	private int[] slots = new int[0];
+	//x,y,z,R of the agents from the 'slots', the same order and stride 4
+	private double[] spheres = new double[0];
+	private int agentsCnt = 0;
+
+	//the same agents as in 'slots' but grouped into tiles (cubes of tileSize^3 cells), and the tiles follow
+	//one another along the Morton (Z-order) curve, so that spatially close tiles are mostly close also here;
+	//agents of the k-th tile are at indices [tileStart[k], tileStart[k+1]) of the tiledSlots
+	int[] tiledSlots = new int[0];
+	int[] tileStart = new int[2];
+	int tilesCnt = 0;
+	int tiledCnt = 0;
+
+	//x,y,z,R (stride 4) of agents that are not in the store but shall be seen by the store's agents,
+	//e.g. agents of the neighboring slabs in the distributed simulation; they are in the 'slots' as negative ~idx
+	private double[] halo = new double[0];
+	private int haloCnt = 0;
+	private long[] keys = new long[0];
+
+	/** the grid will never have more cells than this multiple of the number of agents */
+	private static final int MAX_CELLS_PER_AGENT = 8;
+	private static final int MIN_CELLS_LIMIT = 1 << 16;
+
+	int size() {
+		return agentsCnt;
+	}
+
+	int haloSize() {
+		return haloCnt;
+	}
+
+	/** the given halo agents will be considered in all subsequent rebuild()s */
+	void setHalo(final double[] spheres, final int count) {
+		halo = spheres;
+		haloCnt = count;
+	}
+
+	//value (k: 0=x,1=y,2=z,3=R) of the agent in the store's 'slot' or, if 'slot' is negative, of the halo agent ~slot
+	private double valueOf(final AgentsStore store, final int slot, final int k) {
+		if (slot < 0) return halo[4*~slot + k];
+		switch (k) {
+		case 0: return store.x[slot];
+		case 1: return store.y[slot];
+		case 2: return store.z[slot];
+		default: return store.R[slot];
+		}
+	}
+
+	void rebuild(final AgentsStore store, final double lookAroundDistance, final int tileSize) {
+		final int[] input = new int[store.size() + haloCnt];
+		agentsCnt = 0;
+		for (int slot = 0; slot < store.slotsBound(); ++slot) {
+			if (store.isAlive(slot)) input[agentsCnt++] = slot;
+		}
+		for (int h = 0; h < haloCnt; ++h) input[agentsCnt++] = ~h;
+
+		//bounding box (and the largest radius) of the input, in parallel chunks
+		final int chunks = Math.max(1, Math.min(agentsCnt / 4096, 4 * Runtime.getRuntime().availableProcessors()));
+		final double[] partialBounds = new double[7 * chunks];
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			double[] b = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+			               -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, 0.0 };
+			for (int i = chunkFrom(c, chunks); i < chunkFrom(c + 1, chunks); ++i) {
+				final int slot = input[i];
+				for (int k = 0; k < 3; ++k) {
+					b[k]   = Math.min(b[k],   valueOf(store, slot, k));
+					b[k+3] = Math.max(b[k+3], valueOf(store, slot, k));
+				}
+				b[6] = Math.max(b[6], valueOf(store, slot, 3));
+			}
+			System.arraycopy(b, 0, partialBounds, 7 * c, 7);
+		});
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+		minX = Double.MAX_VALUE; minY = Double.MAX_VALUE; minZ = Double.MAX_VALUE;
+		maxR = 0.0;
+		for (int c = 0; c < chunks; ++c) {
+			minX = Math.min(minX, partialBounds[7*c+0]); maxX = Math.max(maxX, partialBounds[7*c+3]);
+			minY = Math.min(minY, partialBounds[7*c+1]); maxY = Math.max(maxY, partialBounds[7*c+4]);
+			minZ = Math.min(minZ, partialBounds[7*c+2]); maxZ = Math.max(maxZ, partialBounds[7*c+5]);
+			maxR = Math.max(maxR, partialBounds[7*c+6]);
+		}
+		if (agentsCnt == 0) {
+			minX = minY = minZ = maxX = maxY = maxZ = 0.0;
+		}
+
+		//NB: the usual query (look around distance from agent's surface to neighbor's surface)
+		//    is then answered by visiting only the 3x3x3 cells around the agent
+		cellSize = Math.max(lookAroundDistance + 2.0*maxR, 0.001);
+		computeGridSize(maxX, maxY, maxZ);
+		final long cellsLimit = Math.max((long)MAX_CELLS_PER_AGENT * agentsCnt, MIN_CELLS_LIMIT);
+		while ((long)sizeX * sizeY * sizeZ > cellsLimit) {
+			//too sparse data for the fine grid, prefer more agents per cell over huge memory
+			cellSize *= 1.5;
+			computeGridSize(maxX, maxY, maxZ);
+		}
+		final int cellsCnt = sizeX * sizeY * sizeZ;
+
+		//sort agents by their cells: (cell index, input index) pairs packed into longs
+		if (keys.length < agentsCnt) keys = new long[agentsCnt];
+		IntStream.range(0, agentsCnt).parallel().forEach(i -> {
+			final int slot = input[i];
+			keys[i] = ((long)cellIndex(valueOf(store, slot, 0), valueOf(store, slot, 1), valueOf(store, slot, 2)) << 32) | i;
+		});
+		Arrays.parallelSort(keys, 0, agentsCnt);
+
+		if (slots.length < agentsCnt) {
+			slots = new int[agentsCnt];
+			spheres = new double[4 * agentsCnt];
+		}
+		IntStream.range(0, agentsCnt).parallel().forEach(j -> {
+			final int slot = input[(int)keys[j]];
+			slots[j] = slot;
+			for (int k = 0; k < 4; ++k) spheres[4*j+k] = valueOf(store, slot, k);
+		});
+
+		if (cellStart.length < cellsCnt+1) cellStart = new int[cellsCnt+1];
+		Arrays.fill(cellStart, 0, cellsCnt+1, 0);
+		for (int j = 0; j < agentsCnt; ++j) cellStart[(int)(keys[j] >>> 32) + 1]++;
+		for (int c = 0; c < cellsCnt; ++c) cellStart[c+1] += cellStart[c];
+
+		buildTiles(Math.max(tileSize, 1));
+	}
+
+	private void buildTiles(final int tileSize) {
+		final int tilesX = (sizeX + tileSize-1) / tileSize;
+		final int tilesY = (sizeY + tileSize-1) / tileSize;
+		final int tilesZ = (sizeZ + tileSize-1) / tileSize;
+		//NB: Morton code of the tile must fit into 32 bits, otherwise tiles are simply ordered row by row
+		final boolean useMorton = Math.max(Math.max(tilesX, tilesY), tilesZ) <= 1024;
+
+		//the 'keys' hold (cell index, input index) sorted, replace the cell with the tile, and sort again
+		IntStream.range(0, agentsCnt).parallel().forEach(j -> {
+			final int cell = (int)(keys[j] >>> 32);
+			final int tx = (cell % sizeX) / tileSize;
+			final int ty = ((cell / sizeX) % sizeY) / tileSize;
+			final int tz = (cell / sizeX / sizeY) / tileSize;
+			final long tile = useMorton ? mortonCode(tx, ty, tz) : ((long)tz * tilesY + ty) * tilesX + tx;
+			keys[j] = (tile << 32) | j;
+		});
+		Arrays.parallelSort(keys, 0, agentsCnt);
+
+		if (tiledSlots.length < agentsCnt) tiledSlots = new int[agentsCnt];
+		if (tileStart.length < agentsCnt+1) tileStart = new int[agentsCnt+1];
+		tilesCnt = 0;
+		tiledCnt = 0;
+		long lastTile = -1;
+		for (int j = 0; j < agentsCnt; ++j) {
+			final int slot = slots[(int)keys[j]];
+			if (slot < 0) continue; //halo agents are not advanced
+			final long tile = keys[j] >>> 32;
+			if (tile != lastTile) {
+				tileStart[tilesCnt++] = tiledCnt;
+				lastTile = tile;
+			}
+			tiledSlots[tiledCnt++] = slot;
+		}
+		tileStart[tilesCnt] = tiledCnt;
+	}
+
+	/** interleaves bits of the three (at most 10-bits) coordinates */
+	static long mortonCode(final int x, final int y, final int z) {
+		return spreadBits(x) | (spreadBits(y) << 1) | (spreadBits(z) << 2);
+	}
+
+	private static long spreadBits(final int v) {
+		long x = v & 0x3FF;
+		x = (x | (x << 16)) & 0x030000FFL;
+		x = (x | (x <<  8)) & 0x0300F00FL;
+		x = (x | (x <<  4)) & 0x030C30C3L;
+		x = (x | (x <<  2)) & 0x09249249L;
+		return x;
+	}
+
+	private int chunkFrom(final int chunk, final int chunks) {
+		return (int)((long)chunk * agentsCnt / chunks);
+	}
+
+	private void computeGridSize(final double maxX, final double maxY, final double maxZ) {
+		sizeX = (int)((maxX - minX) / cellSize) + 1;
+		sizeY = (int)((maxY - minY) / cellSize) + 1;
+		sizeZ = (int)((maxZ - minZ) / cellSize) + 1;
+	}
+
+	private int cellCoord(final double pos, final double min, final int size) {
+		final int c = (int)Math.floor((pos - min) / cellSize);
+		return Math.max(0, Math.min(c, size - 1));
+	}
+
+	private int cellIndex(final double x, final double y, final double z) {
+		return (cellCoord(z, minZ, sizeZ) * sizeY + cellCoord(y, minY, sizeY)) * sizeX + cellCoord(x, minX, sizeX);
+	}
+
+	/** slots of the agents (no halo agents) whose surface is not further than 'searchDistance' from the surface
+	 *  of the given agent, and that is not the agent itself; returns the number of slots in the 'neighborSlots',
+	 *  or -1 if the 'neighborSlots' is too short */
+	int getNeighborSlots(final AgentsStore store, final int thisSlot, final double searchDistance, final int[] neighborSlots) {
+		final double x = store.x[thisSlot];
+		final double y = store.y[thisSlot];
+		final double z = store.z[thisSlot];
+		final double radiusPlusSearchDistance = store.R[thisSlot] + searchDistance;
+		final double reach = radiusPlusSearchDistance + maxR;
+		if (reach < 0.0 || agentsCnt == 0) return 0;
+
+		final int fromX = cellCoord(x - reach, minX, sizeX), tillX = cellCoord(x + reach, minX, sizeX);
+		final int fromY = cellCoord(y - reach, minY, sizeY), tillY = cellCoord(y + reach, minY, sizeY);
+		final int fromZ = cellCoord(z - reach, minZ, sizeZ), tillZ = cellCoord(z + reach, minZ, sizeZ);
+
+		int cnt = 0;
+		for (int cz = fromZ; cz <= tillZ; ++cz)
+		for (int cy = fromY; cy <= tillY; ++cy) {
+			final int rowStart = (cz * sizeY + cy) * sizeX;
+			for (int j = cellStart[rowStart + fromX]; j < cellStart[rowStart + tillX + 1]; ++j) {
+				if (slots[j] == thisSlot || slots[j] < 0) continue;
+
+				final double dx = spheres[4*j+0] - x;
+				final double dy = spheres[4*j+1] - y;
+				final double dz = spheres[4*j+2] - z;
+				if ( Math.sqrt(dx*dx + dy*dy + dz*dz) > (radiusPlusSearchDistance+spheres[4*j+3]) ) continue;
+
+				if (cnt == neighborSlots.length) return -1;
+				neighborSlots[cnt++] = slots[j];
+			}
+		}
+		return cnt;
+	}
+
+	/** the same contract as {@link Simulator#getListOfOccupiedCoords(Agent, double, NeighborSpheres)} */
+	int getListOfOccupiedCoords(final Agent fromThisAgent, final double searchDistance, final NeighborSpheres nearbySpheres) {
+		final double x = fromThisAgent.getX();
+		final double y = fromThisAgent.getY();
+		final double z = fromThisAgent.getZ();
+		final int thisSlot = fromThisAgent.getSlot();
+		final double radiusPlusSearchDistance = fromThisAgent.getR() + searchDistance;
+		final double reach = radiusPlusSearchDistance + maxR;
+		if (reach < 0.0 || agentsCnt == 0) return 0;
+
+		final int fromX = cellCoord(x - reach, minX, sizeX), tillX = cellCoord(x + reach, minX, sizeX);
+		final int fromY = cellCoord(y - reach, minY, sizeY), tillY = cellCoord(y + reach, minY, sizeY);
+		final int fromZ = cellCoord(z - reach, minZ, sizeZ), tillZ = cellCoord(z + reach, minZ, sizeZ);
+
+		for (int cz = fromZ; cz <= tillZ; ++cz)
+		for (int cy = fromY; cy <= tillY; ++cy) {
+			final int rowStart = (cz * sizeY + cy) * sizeX;
+			//NB: cells of one row are consecutive, so are their agents
+			for (int j = cellStart[rowStart + fromX]; j < cellStart[rowStart + tillX + 1]; ++j) {
+				if (slots[j] == thisSlot) continue;
+
+				final double dx = spheres[4*j+0] - x;
+				final double dy = spheres[4*j+1] - y;
+				final double dz = spheres[4*j+2] - z;
+				final double neighborR = spheres[4*j+3];
+				if ( Math.sqrt(dx*dx + dy*dy + dz*dz) > (radiusPlusSearchDistance+neighborR) ) continue;
+
+				nearbySpheres.add(spheres[4*j+0], spheres[4*j+1], spheres[4*j+2], neighborR);
+			}
+		}
+		return nearbySpheres.cnt;
+	}
+}
@@ -0,0 +1,273 @@
+package org.ulman.simulator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** All agents of the simulation kept as "structure of arrays": the state of one agent
+ *  is spread over the arrays below at one common index (a slot). Slots of removed agents
+ *  are recycled for new agents. The {@link Agent} class is then only a working copy
+ *  that is loaded from a slot, advanced, and saved back into the slot. */
+class AgentsStore {
+	//NB: package protected... so, directly accessible from Agent and Simulator
+	int[] id;             //0 means the slot is not used
+	int[] parentId;
+	int[] t;
+	double[] x, y, z, R;
+	double[] nextX, nextY, nextZ, nextR;
+	double[] divBuldozerDx, divBuldozerDy, divBuldozerDz;
+	int[] divBuldozerStopTP;
+	int[] dontDivideBefore;
+	int[] dontLiveBeyond;
+	String[] labelRoot;   //see LineageLabel
+	long[] labelPath;
+	byte[] nameState;
+
+	//slots [0,usedSlots) have been used at least once
+	private int usedSlots = 0;
+	private int[] freeSlots = new int[1024];
+	private int freeSlotsCnt = 0;
+	private int aliveCnt = 0;
+
+	AgentsStore(final int initialCapacity) {
+		allocateArrays(Math.max(initialCapacity, 16));
+	}
+
+	private AgentsStore() {
+	}
+
+	/** a copy of all agents, incl. the used and free slots, e.g. to be written away while the simulation goes on */
+	AgentsStore copy() {
+		final AgentsStore c = new AgentsStore();
+		c.id = Arrays.copyOf(id, usedSlots);
+		c.parentId = Arrays.copyOf(parentId, usedSlots);
+		c.t = Arrays.copyOf(t, usedSlots);
+		c.x = Arrays.copyOf(x, usedSlots);
+		c.y = Arrays.copyOf(y, usedSlots);
+		c.z = Arrays.copyOf(z, usedSlots);
+		c.R = Arrays.copyOf(R, usedSlots);
+		c.nextX = Arrays.copyOf(nextX, usedSlots);
+		c.nextY = Arrays.copyOf(nextY, usedSlots);
+		c.nextZ = Arrays.copyOf(nextZ, usedSlots);
+		c.nextR = Arrays.copyOf(nextR, usedSlots);
+		c.divBuldozerDx = Arrays.copyOf(divBuldozerDx, usedSlots);
+		c.divBuldozerDy = Arrays.copyOf(divBuldozerDy, usedSlots);
+		c.divBuldozerDz = Arrays.copyOf(divBuldozerDz, usedSlots);
+		c.divBuldozerStopTP = Arrays.copyOf(divBuldozerStopTP, usedSlots);
+		c.dontDivideBefore = Arrays.copyOf(dontDivideBefore, usedSlots);
+		c.dontLiveBeyond = Arrays.copyOf(dontLiveBeyond, usedSlots);
+		c.labelRoot = Arrays.copyOf(labelRoot, usedSlots);
+		c.labelPath = Arrays.copyOf(labelPath, usedSlots);
+		c.nameState = Arrays.copyOf(nameState, usedSlots);
+		c.usedSlots = usedSlots;
+		c.freeSlots = Arrays.copyOf(freeSlots, freeSlotsCnt);
+		c.freeSlotsCnt = freeSlotsCnt;
+		c.aliveCnt = aliveCnt;
+		return c;
+	}
+
+	/** number of agents */
+	int size() {
+		return aliveCnt;
+	}
+
+	/** upper bound (exclusive) on slots that may hold an agent */
+	int slotsBound() {
+		return usedSlots;
+	}
+
+	boolean isAlive(final int slot) {
+		return id[slot] != 0;
+	}
+
+	int capacity() {
+		return id.length;
+	}
+
+	/** returns a slot for a new agent, it is up to the caller to fill it */
+	int allocateSlot() {
+		++aliveCnt;
+		if (freeSlotsCnt > 0) return freeSlots[--freeSlotsCnt];
+		if (usedSlots == capacity()) allocateArrays(capacity() + capacity()/2);
+		return usedSlots++;
+	}
+
+	void releaseSlot(final int slot) {
+		id[slot] = 0;
+		labelRoot[slot] = null;
+		if (freeSlotsCnt == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, 2*freeSlots.length);
+		freeSlots[freeSlotsCnt++] = slot;
+		--aliveCnt;
+	}
+
+	/** the second phase of the agent's progress: the next position becomes the current one */
+	void progressFinish(final int slot) {
+		x[slot] = nextX[slot];
+		y[slot] = nextY[slot];
+		z[slot] = nextZ[slot];
+		R[slot] = nextR[slot];
+	}
+
+	/** writes the agent from the given slot */
+	void writeAgent(final int slot, final DataOutput out) throws IOException {
+		out.writeInt(id[slot]);
+		out.writeInt(parentId[slot]);
+		out.writeInt(t[slot]);
+		out.writeDouble(x[slot]);
+		out.writeDouble(y[slot]);
+		out.writeDouble(z[slot]);
+		out.writeDouble(R[slot]);
+		out.writeDouble(nextX[slot]);
+		out.writeDouble(nextY[slot]);
+		out.writeDouble(nextZ[slot]);
+		out.writeDouble(nextR[slot]);
+		out.writeDouble(divBuldozerDx[slot]);
+		out.writeDouble(divBuldozerDy[slot]);
+		out.writeDouble(divBuldozerDz[slot]);
+		out.writeInt(divBuldozerStopTP[slot]);
+		out.writeInt(dontDivideBefore[slot]);
+		out.writeInt(dontLiveBeyond[slot]);
+		out.writeUTF(labelRoot[slot]);
+		out.writeLong(labelPath[slot]);
+		out.writeByte(nameState[slot]);
+	}
+
+	/** reads one agent, as written with writeAgent(), into a newly allocated slot, returns the slot */
+	int readAgent(final DataInput in) throws IOException {
+		final int slot = allocateSlot();
+		id[slot] = in.readInt();
+		parentId[slot] = in.readInt();
+		t[slot] = in.readInt();
+		x[slot] = in.readDouble();
+		y[slot] = in.readDouble();
+		z[slot] = in.readDouble();
+		R[slot] = in.readDouble();
+		nextX[slot] = in.readDouble();
+		nextY[slot] = in.readDouble();
+		nextZ[slot] = in.readDouble();
+		nextR[slot] = in.readDouble();
+		divBuldozerDx[slot] = in.readDouble();
+		divBuldozerDy[slot] = in.readDouble();
+		divBuldozerDz[slot] = in.readDouble();
+		divBuldozerStopTP[slot] = in.readInt();
+		dontDivideBefore[slot] = in.readInt();
+		dontLiveBeyond[slot] = in.readInt();
+		labelRoot[slot] = in.readUTF();
+		labelPath[slot] = in.readLong();
+		nameState[slot] = in.readByte();
+		return slot;
+	}
+
+	//6 ints, 11 doubles, 1 long and 1 byte per slot, see writeAllTo()
+	private static final int SLOT_BYTES = 6*4 + 11*8 + 8 + 1;
+
+	/** the number of bytes that writeAllTo() writes */
+	long bytesOfAll() {
+		long bytes = 3*4 + 4L*freeSlotsCnt + (long)SLOT_BYTES * usedSlots;
+		for (int slot = 0; slot < usedSlots; ++slot) {
+			if (id[slot] != 0) bytes += 4 + 2L*labelRoot[slot].length();
+		}
+		return bytes;
+	}
+
+	/** writes all slots such that readAllFrom() restores exactly the same
+	 *  slots, incl. the free ones: used slots int, agents int, free slots int, the free slots int[];
+	 *  then column after column over all used slots: id, parentId, t int[]; x, y, z, R, nextX, nextY,
+	 *  nextZ, nextR, divBuldozerDx, divBuldozerDy, divBuldozerDz double[]; divBuldozerStopTP,
+	 *  dontDivideBefore, dontLiveBeyond int[]; labelPath long[]; nameState byte[]; and finally
+	 *  the labelRoot of every agent as its length int and chars */
+	void writeAllTo(final MappedRegions b) throws IOException {
+		b.putInt(usedSlots).putInt(aliveCnt).putInt(freeSlotsCnt);
+		b.put(freeSlots, 0, freeSlotsCnt);
+		for (int[] column : new int[][] {id, parentId, t}) b.put(column, 0, usedSlots);
+		for (double[] column : new double[][] {x, y, z, R, nextX, nextY, nextZ, nextR,
+				divBuldozerDx, divBuldozerDy, divBuldozerDz}) {
+			b.put(column, 0, usedSlots);
+		}
+		for (int[] column : new int[][] {divBuldozerStopTP, dontDivideBefore, dontLiveBeyond}) b.put(column, 0, usedSlots);
+		b.put(labelPath, 0, usedSlots);
+		b.put(nameState, 0, usedSlots);
+		for (int slot = 0; slot < usedSlots; ++slot) {
+			if (id[slot] == 0) continue;
+			final String label = labelRoot[slot];
+			b.putInt(label.length());
+			for (int i = 0; i < label.length(); ++i) b.putChar(label.charAt(i));
+		}
+	}
+
+	/** replaces all agents with the ones written with writeAllTo() */
+	void readAllFrom(final MappedRegions b) throws IOException {
+		final int used = b.getInt();
+		aliveCnt = b.getInt();
+		freeSlotsCnt = b.getInt();
+		freeSlots = new int[Math.max(freeSlotsCnt, 1024)];
+		b.get(freeSlots, 0, freeSlotsCnt);
+
+		id = null;
+		allocateArrays(Math.max(used + used/2, 16));
+		usedSlots = used;
+		for (int[] column : new int[][] {id, parentId, t}) b.get(column, 0, usedSlots);
+		for (double[] column : new double[][] {x, y, z, R, nextX, nextY, nextZ, nextR,
+				divBuldozerDx, divBuldozerDy, divBuldozerDz}) {
+			b.get(column, 0, usedSlots);
+		}
+		for (int[] column : new int[][] {divBuldozerStopTP, dontDivideBefore, dontLiveBeyond}) b.get(column, 0, usedSlots);
+		b.get(labelPath, 0, usedSlots);
+		b.get(nameState, 0, usedSlots);
+		final StringBuilder label = new StringBuilder();
+		for (int slot = 0; slot < usedSlots; ++slot) {
+			if (id[slot] == 0) continue;
+			label.setLength(0);
+			for (int i = b.getInt(); i > 0; --i) label.append(b.getChar());
+			labelRoot[slot] = label.toString();
+		}
+	}
+
+	private void allocateArrays(final int newCapacity) {
+		if (id == null) {
+			id = new int[newCapacity];
+			parentId = new int[newCapacity];
+			t = new int[newCapacity];
+			x = new double[newCapacity];
+			y = new double[newCapacity];
+			z = new double[newCapacity];
+			R = new double[newCapacity];
+			nextX = new double[newCapacity];
+			nextY = new double[newCapacity];
+			nextZ = new double[newCapacity];
+			nextR = new double[newCapacity];
+			divBuldozerDx = new double[newCapacity];
+			divBuldozerDy = new double[newCapacity];
+			divBuldozerDz = new double[newCapacity];
+			divBuldozerStopTP = new int[newCapacity];
+			dontDivideBefore = new int[newCapacity];
+			dontLiveBeyond = new int[newCapacity];
+			labelRoot = new String[newCapacity];
+			labelPath = new long[newCapacity];
+			nameState = new byte[newCapacity];
+			return;
+		}
+
+		id = Arrays.copyOf(id, newCapacity);
+		parentId = Arrays.copyOf(parentId, newCapacity);
+		t = Arrays.copyOf(t, newCapacity);
+		x = Arrays.copyOf(x, newCapacity);
+		y = Arrays.copyOf(y, newCapacity);
+		z = Arrays.copyOf(z, newCapacity);
+		R = Arrays.copyOf(R, newCapacity);
+		nextX = Arrays.copyOf(nextX, newCapacity);
+		nextY = Arrays.copyOf(nextY, newCapacity);
+		nextZ = Arrays.copyOf(nextZ, newCapacity);
+		nextR = Arrays.copyOf(nextR, newCapacity);
+		divBuldozerDx = Arrays.copyOf(divBuldozerDx, newCapacity);
+		divBuldozerDy = Arrays.copyOf(divBuldozerDy, newCapacity);
+		divBuldozerDz = Arrays.copyOf(divBuldozerDz, newCapacity);
+		divBuldozerStopTP = Arrays.copyOf(divBuldozerStopTP, newCapacity);
+		dontDivideBefore = Arrays.copyOf(dontDivideBefore, newCapacity);
+		dontLiveBeyond = Arrays.copyOf(dontLiveBeyond, newCapacity);
+		labelRoot = Arrays.copyOf(labelRoot, newCapacity);
+		labelPath = Arrays.copyOf(labelPath, newCapacity);
+		nameState = Arrays.copyOf(nameState, newCapacity);
+	}
+}
@@ -0,0 +1,176 @@
+package org.ulman.simulator;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Traces the decisions of only a few chosen agents, see {@link Simulator#TRACE_EVERY_NTH_AGENT} and
+ *  {@link Simulator#TRACE_AGENTS_IN_ROI}, while the simulation runs as usual (incl. in parallel). The traced
+ *  agents record their decision data (displacements, weights, attempts, division outcomes) as small numeric
+ *  entries into their thread's buffer, and the entries of all threads are printed, grouped by agents, only
+ *  after the time point is over, see {@link AgentsTracer#dump(PrintStream)}. */
+class AgentsTracer {
+	//kinds of the entries, and what their four values are
+	static final int START = 0;      //x,y,z, neighbors count
+	static final int NEIGHBOR = 1;   //away displacement x,y,z, its weight
+	static final int AWAY = 2;       //the final away displacement x,y,z, sum of weights
+	static final int ATTEMPT = 3;    //random displacement x,y,z, slow down factor
+	static final int HINTED = 4;     //displacement x,y,z from the hinting spheres, their count
+	static final int TRIED = 5;      //tried position x,y,z, 1 if too close
+	static final int MOVED = 6;      //established position x,y,z, attempts count
+	static final int BULDOZER = 7;   //established position x,y,z, overlapping neighbors count
+	static final int DIVISION = 8;   //division vector x,y,z, collisions count
+	static final int DIVIDED = 9;    //1 if divided, attempts count, neighbors count, next possible division time
+	static final int DIED = 10;      //position x,y,z, the end of the life span
+
+	private static final String[] KIND_FORMATS = {
+		"start from [%f,%f,%f] with %.0f neighbors",
+		"  neighbor pushes away (%f,%f,%f) with weight %f",
+		"  away displacement (%f,%f,%f), sum of weights %f",
+		"  random displacement (%f,%f,%f), slow down factor %f",
+		"  hinted displacement (%f,%f,%f) from %.0f hinting spheres",
+		"  tried [%f,%f,%f], too close %.0f",
+		"  moved to [%f,%f,%f] after %.0f attempts",
+		"  buldozered to [%f,%f,%f] from %.0f overlapping neighbors",
+		"  division vector (%f,%f,%f) gives %.0f collisions",
+		"  divided %.0f (1 = yes) after %.0f attempts with %.0f neighbors, next division not before %.0f",
+		"  died at [%f,%f,%f] as the life span has ended at %.0f"
+	};
+
+	/** one thread's entries */
+	static class Buffer {
+		private final TIntArrayList ids = new TIntArrayList(1000);
+		private final TIntArrayList times = new TIntArrayList(1000);
+		private final TIntArrayList kinds = new TIntArrayList(1000);
+		private final TDoubleArrayList values = new TDoubleArrayList(4000);
+		private int currentId, currentTime;
+
+		/** the subsequent entries are about this agent */
+		void begin(final int agentId, final int time) {
+			currentId = agentId;
+			currentTime = time;
+		}
+
+		void add(final int kind, final double a, final double b, final double c, final double d) {
+			ids.add(currentId);
+			times.add(currentTime);
+			kinds.add(kind);
+			values.add(a);
+			values.add(b);
+			values.add(c);
+			values.add(d);
+		}
+
+		private void clear() {
+			ids.resetQuick();
+			times.resetQuick();
+			kinds.resetQuick();
+			values.resetQuick();
+		}
+	}
+
+	//NB: in the order the threads have started tracing, buffers are added only while sweeping and read only after it
+	private final List<Buffer> allBuffers = new ArrayList<>(64);
+	//tracing thread -> its buffer; NB: not a ThreadLocal, so that the threads (which outlive the simulator) don't keep it
+	private final Map<Thread,Buffer> buffers = new ConcurrentHashMap<>(64);
+
+	private Buffer buffer() {
+		final Thread t = Thread.currentThread();
+		final Buffer b = buffers.get(t);
+		return b != null ? b : buffers.computeIfAbsent(t, k -> {
+			final Buffer nb = new Buffer();
+			synchronized (allBuffers) { allBuffers.add(nb); }
+			return nb;
+		});
+	}
+
+	/** forgets all buffers (of all threads) */
+	void close() {
+		synchronized (allBuffers) {
+			buffers.clear();
+			allBuffers.clear();
+		}
+	}
+
+	//what is traced, see update()
+	private int everyNth = 0;
+	private double[] roi = null;
+
+	/** re-reads the simulator's settings, returns true if anything is to be traced at all */
+	boolean update(final SimulationParams params) {
+		everyNth = params.TRACE_EVERY_NTH_AGENT;
+		roi = parseRoi(params.TRACE_AGENTS_IN_ROI);
+		return isActive();
+	}
+
+	boolean isActive() {
+		return everyNth > 0 || roi != null;
+	}
+
+	/** "minX,minY,minZ,maxX,maxY,maxZ", or null if the string is empty or not understood */
+	static double[] parseRoi(final String roiStr) {
+		if (roiStr == null || roiStr.trim().isEmpty()) return null;
+		final String[] parts = roiStr.split(",");
+		if (parts.length != 6) {
+			System.out.println("========== SIM: ignoring tracing ROI, expected minX,minY,minZ,maxX,maxY,maxZ: " + roiStr);
+			return null;
+		}
+		try {
+			final double[] roi = new double[6];
+			for (int i = 0; i < 6; ++i) roi[i] = Double.parseDouble(parts[i].trim());
+			return roi;
+		} catch (NumberFormatException e) {
+			System.out.println("========== SIM: ignoring tracing ROI, " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** returns the calling thread's buffer if the agent is to be traced, null otherwise */
+	Buffer bufferFor(final int agentId, final int time, final double x, final double y, final double z) {
+		final boolean sampled = everyNth > 0 && agentId % everyNth == 0;
+		final boolean inRoi = roi != null
+				&& x >= roi[0] && y >= roi[1] && z >= roi[2]
+				&& x <= roi[3] && y <= roi[4] && z <= roi[5];
+		if (!sampled && !inRoi) return null;
+		final Buffer b = buffer();
+		b.begin(agentId, time);
+		return b;
+	}
+
+	/** prints all entries (of all threads) grouped by agents, and forgets them;
+	 *  must not be called while some agents are still being advanced */
+	void dump(final PrintStream out) {
+		synchronized (allBuffers) {
+			//NB: entries of one agent are consecutive within one buffer (as the agent is advanced by one thread),
+			//    so only the starts of the agents' runs need to be sorted
+			final List<long[]> runs = new ArrayList<>(1000); //agentId, time, buffer index, from, till
+			for (int bi = 0; bi < allBuffers.size(); ++bi) {
+				final Buffer b = allBuffers.get(bi);
+				int from = 0;
+				for (int i = 1; i <= b.ids.size(); ++i) {
+					if (i == b.ids.size() || b.ids.get(i) != b.ids.get(from) || b.times.get(i) != b.times.get(from)) {
+						runs.add(new long[] { b.ids.get(from), b.times.get(from), bi, from, i });
+						from = i;
+					}
+				}
+			}
+			runs.sort((r1, r2) -> r1[0] != r2[0] ? Long.compare(r1[0], r2[0]) : Long.compare(r1[1], r2[1]));
+
+			for (long[] run : runs) {
+				final Buffer b = allBuffers.get((int)run[2]);
+				for (int i = (int)run[3]; i < (int)run[4]; ++i) {
+					out.printf(Locale.ROOT, "TRACE id %d @ %d: " + KIND_FORMATS[b.kinds.get(i)] + "%n",
+							b.ids.get(i), b.times.get(i),
+							b.values.get(4*i), b.values.get(4*i+1), b.values.get(4*i+2), b.values.get(4*i+3));
+				}
+			}
+			for (Buffer b : allBuffers) b.clear();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package org.ulman.simulator;
+
+import gnu.trove.set.hash.TIntHashSet;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.project.MamutProject;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.views.bdv.SharedBigDataViewerData;
+import org.scijava.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Runs the simulation with several {@link DistributedWorker}s, each owning one slab (along the x axis)
+ *  of the space, so that more agents can be simulated than what one JVM could hold. The coordinator
+ *  populates the simulation (the same way as the {@link org.ulman.simulator.ui.Runner} would), splits
+ *  the agents into the slabs of similar agents counts, and then only collects the workers' records
+ *  of every time point, merges them, and writes them into its Mastodon project.
+ *  <p>
+ *  Agents IDs are unique across the workers as every worker draws its new IDs from its own
+ *  arithmetic sequence; and since the IDs travel with the agents when they move between slabs,
+ *  the lineages are linked in the project irrespective of which worker has created which spot.
+ *  The slabs stay the same during the whole simulation. Workers see no hinting spheres. They see the agents
+ *  of the neighboring slabs (the halo) as they were at the beginning of every sub-step, just like they see their
+ *  own agents, but only those up to the look-around distance plus the largest diameter plus one usual step
+ *  from the slab borders (see {@link DistributedWorker}). */
+public class DistributedCoordinator {
+	private final ProjectModel projectModel;
+	private final int workersCnt;
+
+	private int publishingInterval = 1;
+
+	public DistributedCoordinator(final ProjectModel projectModel, final int workersCnt) {
+		this.projectModel = projectModel;
+		this.workersCnt = Math.max(workersCnt, 1);
+	}
+
+	/** write spots into Mastodon after every N-th time point, 0 means only at the end */
+	public void setPublishingInterval(final int publishingInterval) {
+		this.publishingInterval = publishingInterval;
+	}
+
+	private boolean checking = false;
+	private int problemsCnt = 0;
+
+	/** makes the run to check that no agent ID repeats within a time point, and that every spot after
+	 *  the first time point continues from exactly one spot (and into at most two); this assumes that
+	 *  all agents are published, see {@link Simulator#PUBLISH_ONLY_IN_ROI} */
+	public void setChecking(final boolean checking) {
+		this.checking = checking;
+	}
+
+	/** how many problems the check has found in the last run, see setChecking() */
+	public int getProblemsCount() {
+		return problemsCnt;
+	}
+
+	/** all workers are threads of this JVM, 'initialNumberOfCells' of -1 means to start
+	 *  from the spots of the 'timeFrom' time point of the project */
+	public void runInProcess(final int initialNumberOfCells, final int timeFrom, final int timeTill) {
+		final InProcessTransport transport = new InProcessTransport(workersCnt+1);
+		final List<Thread> workers = new ArrayList<>(workersCnt);
+		for (int w = 0; w < workersCnt; ++w) {
+			final Thread t = new Thread(new DistributedWorker(w, workersCnt, transport.endpoint(w)), "simulator-worker-" + w);
+			t.start();
+			workers.add(t);
+		}
+		run(transport.endpoint(workersCnt), initialNumberOfCells, timeFrom, timeTill);
+		for (Thread t : workers) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/** the workers are started separately, e.g. in their own JVMs, see {@link DistributedWorker#main(String[])},
+	 *  and all of them connect to each other and to this coordinator via sockets on the ports basePort + node number,
+	 *  where the coordinator is the node number 'workersCnt' */
+	public void runWithSocketWorkers(final String host, final int basePort,
+	                                 final int initialNumberOfCells, final int timeFrom, final int timeTill) {
+		try {
+			run(SocketTransport.connect(workersCnt, workersCnt+1, host, basePort), initialNumberOfCells, timeFrom, timeTill);
+		} catch (IOException e) {
+			System.out.println("SIMULATOR ERROR: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	void run(final DistributedTransport transport, final int initialNumberOfCells, final int timeFrom, final int timeTill) {
+		final Simulator s = new Simulator(projectModel);
+		System.out.println(s);
+		try {
+			System.out.println("SIMULATOR STARTED on "+java.time.LocalTime.now()+" with "+workersCnt+" workers");
+			s.open();
+
+			if (initialNumberOfCells == -1) {
+				s.populate(projectModel, timeFrom);
+				s.updateStats();
+			} else {
+				s.populate(initialNumberOfCells, timeFrom);
+				s.pushToMastodonGraphAndUpdateStats();
+			}
+
+			//slabs with (initially) the same number of agents
+			final double[] xs = s.getAgentsXCoords();
+			Arrays.sort(xs);
+			final double[] slabBorders = new double[workersCnt+1];
+			slabBorders[0] = Double.NEGATIVE_INFINITY;
+			slabBorders[workersCnt] = Double.POSITIVE_INFINITY;
+			for (int w = 1; w < workersCnt; ++w) slabBorders[w] = xs.length > 0 ? xs[w * xs.length / workersCnt] : 0.0;
+
+			final int lastUsedId = s.getLastUsedId();
+			//NB: the workers simulate with the coordinator's parameters
+			final SimulationConfig config = s.getParams().toConfig();
+			for (int w = 0; w < workersCnt; ++w) {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+				final DataOutputStream out = new DataOutputStream(bytes);
+				config.writeTo(out);
+				out.writeLong(s.getSeed());
+				out.writeInt(timeFrom);
+				out.writeInt(timeTill);
+				out.writeDouble(slabBorders[w]);
+				out.writeDouble(slabBorders[w+1]);
+				//worker 'w' creates IDs lastUsedId + w+1 + k*workersCnt, for k = 0,1,2...
+				out.writeInt(lastUsedId + w+1 - workersCnt);
+				s.moveAgentsOut(slabBorders[w], slabBorders[w+1], out);
+				transport.send(w, bytes.toByteArray());
+			}
+
+			problemsCnt = 0;
+			final List<TimepointRecord> records = new ArrayList<>(workersCnt);
+			for (int time = timeFrom+1; time <= timeTill; ++time) {
+				records.clear();
+				for (int w = 0; w < workersCnt; ++w) {
+					records.add(TimepointRecord.readFrom(new DataInputStream(new ByteArrayInputStream(transport.receive(w)))));
+				}
+				final TimepointRecord merged = TimepointRecord.merge(records);
+				if (checking) problemsCnt += countRepeatedIds(merged);
+				s.recordTimepoint(merged);
+				if (publishingInterval > 0 && (time-timeFrom) % publishingInterval == 0) {
+					s.flushToMastodonGraph();
+				}
+			}
+			s.flushToMastodonGraph();
+			if (checking) {
+				problemsCnt += countBadlyLinkedSpots(timeFrom, timeTill);
+				System.out.println("SIMULATOR CHECK found "+problemsCnt+" problems");
+			}
+			if (s.getParams().CREATE_MASTODON_CENTER_SPOT) {
+				System.out.println("SIMULATOR ADDING CENTRE SPOTS");
+				s.pushCenterSpotsToMastodonGraph(timeFrom, timeTill);
+			}
+		} catch (Exception e) {
+			System.out.println("SIMULATOR ERROR: "+e.getMessage());
+			e.printStackTrace();
+			//NB: a run that has not finished is a problem in itself
+			++problemsCnt;
+		} finally {
+			s.close();
+			try {
+				transport.close();
+			} catch (IOException e) {
+				//nothing to be done about it anyway
+			}
+			System.out.println("SIMULATOR FINISHED on "+java.time.LocalTime.now());
+		}
+	}
+
+	private static int countRepeatedIds(final TimepointRecord record) {
+		final TIntHashSet ids = new TIntHashSet();
+		int repeated = 0;
+		for (int i = 0; i < record.size; ++i) {
+			if (!ids.add(record.ids[i])) {
+				System.out.println("SIMULATOR CHECK: agent ID "+record.ids[i]+" repeats in time point "+record.time);
+				++repeated;
+			}
+		}
+		return repeated;
+	}
+
+	private int countBadlyLinkedSpots(final int timeFrom, final int timeTill) {
+		int badlyLinked = 0;
+		projectModel.getModel().getGraph().getLock().readLock().lock();
+		try {
+			for (int time = timeFrom+1; time <= timeTill; ++time) {
+				for (Spot spot : projectModel.getModel().getSpatioTemporalIndex().getSpatialIndex(time)) {
+					if (Simulator.isHintingSphere(spot)) continue;
+					final int in = spot.incomingEdges().size();
+					final int out = spot.outgoingEdges().size();
+					if (in != 1 || out > 2) {
+						System.out.println("SIMULATOR CHECK: spot "+spot.getLabel()+" in time point "+time
+								+" has "+in+" incoming and "+out+" outgoing links");
+						++badlyLinked;
+					}
+				}
+			}
+		} finally {
+			projectModel.getModel().getGraph().getLock().readLock().unlock();
+		}
+		return badlyLinked;
+	}
+
+	/** runs a small simulation with the workers in this JVM, and checks it (see {@link #setChecking(boolean)}),
+	 *  the parameters are: numberOfCells timepoints workersCnt */
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.out.println("Parameters: numberOfCells timepoints workersCnt");
+			return;
+		}
+		final Context context = new Context();
+		try {
+			final int timepoints = Integer.parseInt(args[1]);
+			final String DUMMYXML="DUMMY x=100 y=100 z=100 t="+(timepoints+1)+".dummy";
+			final ProjectModel projectModel = ProjectModel.create(context,
+					new Model(),
+					SharedBigDataViewerData.fromDummyFilename(DUMMYXML),
+					new MamutProject("distributed_check.mastodon"));
+
+			final DistributedCoordinator coordinator = new DistributedCoordinator(projectModel, Integer.parseInt(args[2]));
+			coordinator.setChecking(true);
+			coordinator.runInProcess(Integer.parseInt(args[0]), 0, timepoints);
+			System.out.println(coordinator.getProblemsCount() == 0 ? "DISTRIBUTED CHECK PASSED"
+					: "DISTRIBUTED CHECK FAILED with "+coordinator.getProblemsCount()+" problems");
+		} catch (NumberFormatException e) {
+			System.out.println("SIMULATOR ERROR: " + e.getMessage());
+		} finally {
+			context.dispose();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package org.ulman.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Point-to-point messaging among the nodes of the distributed simulation: the workers are
+ *  the nodes 0,1,...,workersCnt-1 and the coordinator is the node workersCnt. Messages between
+ *  any two nodes are delivered in the order they were sent, and sending never waits for the receiver. */
+interface DistributedTransport extends Closeable {
+	void send(int toNode, byte[] message) throws IOException;
+
+	/** waits for the next message from the given node */
+	byte[] receive(int fromNode) throws IOException;
+}
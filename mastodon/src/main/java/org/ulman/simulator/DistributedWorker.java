@@ -0,0 +1,161 @@
+package org.ulman.simulator;
+
+import gnu.trove.list.array.TDoubleArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/** One worker of the distributed simulation: it owns all agents whose x coordinate is within its slab
+ *  [slabFrom,slabTill) of the space, and advances them with its own {@link Simulator}. Before every sub-step
+ *  (see {@link Simulator#SIMULATION_SUBSTEPS_PER_TIMEPOINT}), the worker exchanges the halo (agents near the slab
+ *  borders) with the workers of the neighboring slabs; after the whole time point, it hands over agents that have
+ *  left its slab, and finally sends its {@link TimepointRecord} to the coordinator. See {@link DistributedCoordinator} for the setup. */
+public class DistributedWorker implements Runnable {
+	private final int workerIdx;
+	private final int workersCnt;
+	private final DistributedTransport transport;
+
+	public DistributedWorker(final int workerIdx, final int workersCnt, final DistributedTransport transport) {
+		this.workerIdx = workerIdx;
+		this.workersCnt = workersCnt;
+		this.transport = transport;
+	}
+
+	private int coordinator() {
+		return workersCnt;
+	}
+
+	private boolean hasLeftNeighbor() {
+		return workerIdx > 0;
+	}
+
+	private boolean hasRightNeighbor() {
+		return workerIdx+1 < workersCnt;
+	}
+
+	@Override
+	public void run() {
+		try {
+			//setup
+			final DataInputStream setup = new DataInputStream(new ByteArrayInputStream(transport.receive(coordinator())));
+			final SimulationConfig config = SimulationConfig.readFrom(setup);
+			final long seed = setup.readLong();
+			final int timeFrom = setup.readInt();
+			final int timeTill = setup.readInt();
+			final double slabFrom = setup.readDouble();
+			final double slabTill = setup.readDouble();
+			final int idsOffset = setup.readInt();
+
+			final Simulator s = new Simulator(config);
+			s.startAt(timeFrom, seed);
+			s.setIdsAllocation(idsOffset, workersCnt);
+			s.moveAgentsIn(setup);
+			System.out.println("========== SIM: worker " + workerIdx + " owns [" + slabFrom + "," + slabTill
+					+ ") with " + s.getAgentsXCoords().length + " agents");
+
+			//halo: agents of the neighbors that our agents could possibly see, exchanged before every sub-step
+			final TDoubleArrayList spheres = new TDoubleArrayList(10000);
+			s.setBeforeEachSubstep(() -> {
+				try {
+					exchangeHalo(s, slabFrom, slabTill, spheres);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			for (int time = timeFrom+1; time <= timeTill; ++time) {
+				s.doOneTime();
+
+				//migration: agents that are no longer in our slab go to the neighbors
+				//NB: those that went even further will be passed on by the neighbors in the next time point
+				if (hasLeftNeighbor()) {
+					transport.send(workerIdx-1, agentsMessage(s, Double.NEGATIVE_INFINITY, slabFrom));
+				}
+				if (hasRightNeighbor()) {
+					transport.send(workerIdx+1, agentsMessage(s, slabTill, Double.POSITIVE_INFINITY));
+				}
+				if (hasLeftNeighbor()) s.moveAgentsIn(new DataInputStream(new ByteArrayInputStream(transport.receive(workerIdx-1))));
+				if (hasRightNeighbor()) s.moveAgentsIn(new DataInputStream(new ByteArrayInputStream(transport.receive(workerIdx+1))));
+
+				s.recordCurrentTimepoint();
+				for (TimepointRecord r : s.takeRecords()) {
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+					r.writeTo(new DataOutputStream(bytes));
+					transport.send(coordinator(), bytes.toByteArray());
+				}
+			}
+		} catch (IOException | UncheckedIOException e) {
+			System.out.println("SIMULATOR WORKER " + workerIdx + " ERROR: " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			try {
+				transport.close();
+			} catch (IOException e) {
+				//nothing to be done about it anyway
+			}
+		}
+	}
+
+	private void exchangeHalo(final Simulator s, final double slabFrom, final double slabTill,
+	                          final TDoubleArrayList spheres) throws IOException {
+		//NB: assumes agents of the neighbors are not (much) bigger than ours; and since the agents migrate
+		//    only after the whole time point, ours may be up to about one usual step over the slab borders
+		final double haloWidth = s.params.AGENT_LOOK_AROUND_DISTANCE
+				+ 2.0 * Math.max(s.getMaxAgentRadius(), s.params.AGENT_INITIAL_RADIUS)
+				+ s.params.AGENT_USUAL_STEP_SIZE;
+		//NB: also those of ours that are over the borders, the neighbors see them as theirs
+		if (hasLeftNeighbor()) {
+			s.collectAgentsSpheres(Double.NEGATIVE_INFINITY, slabFrom + haloWidth, spheres);
+			transport.send(workerIdx-1, spheresMessage(spheres));
+		}
+		if (hasRightNeighbor()) {
+			s.collectAgentsSpheres(slabTill - haloWidth, Double.POSITIVE_INFINITY, spheres);
+			transport.send(workerIdx+1, spheresMessage(spheres));
+		}
+		spheres.resetQuick();
+		if (hasLeftNeighbor()) readSpheres(transport.receive(workerIdx-1), spheres);
+		if (hasRightNeighbor()) readSpheres(transport.receive(workerIdx+1), spheres);
+		s.setHaloAgents(spheres.toArray(), spheres.size() / 4);
+	}
+
+	private static byte[] spheresMessage(final TDoubleArrayList spheres) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * spheres.size() + 4);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(spheres.size());
+		for (int i = 0; i < spheres.size(); ++i) out.writeDouble(spheres.get(i));
+		return bytes.toByteArray();
+	}
+
+	private static void readSpheres(final byte[] message, final TDoubleArrayList spheres) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+		final int cnt = in.readInt();
+		for (int i = 0; i < cnt; ++i) spheres.add(in.readDouble());
+	}
+
+	private static byte[] agentsMessage(final Simulator s, final double fromX, final double tillX) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+		s.moveAgentsOut(fromX, tillX, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	/** starts a worker in its own JVM, the parameters are: workerIdx workersCnt host basePort,
+	 *  see {@link DistributedCoordinator#runWithSocketWorkers(String, int, int, int, int)} */
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			System.out.println("Parameters: workerIdx workersCnt host basePort");
+			return;
+		}
+		final int workerIdx = Integer.parseInt(args[0]);
+		final int workersCnt = Integer.parseInt(args[1]);
+		try {
+			final DistributedTransport t = SocketTransport.connect(workerIdx, workersCnt+1, args[2], Integer.parseInt(args[3]));
+			new DistributedWorker(workerIdx, workersCnt, t).run();
+		} catch (IOException e) {
+			System.out.println("SIMULATOR WORKER " + workerIdx + " ERROR: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** The internal data of the agents (see {@link Simulator#COLLECT_INTERNAL_DATA}) as a stream of fixed-size
+ *  binary records. Every thread writes into its own ring of a few off-heap buffers, a full buffer is handed
+ *  over to a background thread that copies it into a memory-mapped file, and returns it to its ring.
+ *  The records of different threads are thus interleaved in the file, use {@link EventLog#toCsv(Path, Path)}
+ *  (or {@link EventLog#main(String[])}) to turn the file into a CSV table.
+ *  <p>
+ *  The file starts with a header: magic int, record size int, records count long; then the records follow:
+ *  t, id, parentId int; x, y, z, R double; neighbors count, move attempts int; name state byte; 3 bytes padding. */
+public class EventLog {
+	static final int MAGIC = 0x53494D45; //"SIME"
+	static final int HEADER_BYTES = 16;
+	static final int RECORD_BYTES = 56;
+
+	/** records per buffer, and buffers per one thread's ring */
+	static final int RECORDS_PER_BUFFER = 4096;
+	static final int BUFFERS_PER_RING = 4;
+	/** the file is mapped (and grows) in regions of this size */
+	static final int MAPPED_REGION_BYTES = RECORD_BYTES * (1 << 20);
+
+	private final Path file;
+	private final FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long recordsCnt = 0;
+
+	//full buffers on their way to the file, together with the ring they belong to
+	private static class Flush {
+		final ByteBuffer buffer;
+		final Ring ring;
+		Flush(final ByteBuffer buffer, final Ring ring) {
+			this.buffer = buffer;
+			this.ring = ring;
+		}
+	}
+	private final BlockingQueue<Flush> toBeFlushed = new LinkedBlockingQueue<>();
+	private static final Flush NO_MORE_FLUSHES = new Flush(null, null);
+	private final Thread flusher;
+	private volatile IOException failure = null;
+
+	//one thread's buffers, only that thread writes into them
+	private class Ring {
+		final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS_PER_RING);
+		ByteBuffer current;
+
+		Ring() {
+			for (int i = 0; i < BUFFERS_PER_RING; ++i) {
+				free.add(ByteBuffer.allocateDirect(RECORDS_PER_BUFFER * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+			}
+			current = free.poll();
+		}
+
+		ByteBuffer room() {
+			if (current.remaining() < RECORD_BYTES) {
+				toBeFlushed.add(new Flush(current, this));
+				try {
+					//NB: waits only if the flusher is behind with all buffers of this ring,
+					//    or if it has failed, and then no buffer will ever come back
+					ByteBuffer b;
+					while ((b = free.poll(1, TimeUnit.SECONDS)) == null) {
+						if (failure != null) throw new IllegalStateException("Collecting of the internal data has failed: "
+								+ failure.getMessage(), failure);
+					}
+					current = b;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for a free events buffer", e);
+				}
+			}
+			return current;
+		}
+	}
+	//recording thread -> its ring; NB: not a ThreadLocal, so that the threads (which outlive this log) don't keep the rings
+	private final Map<Thread,Ring> rings = new ConcurrentHashMap<>(64);
+
+	private Ring ring() {
+		final Thread t = Thread.currentThread();
+		final Ring r = rings.get(t);
+		return r != null ? r : rings.computeIfAbsent(t, k -> new Ring());
+	}
+
+	EventLog(final Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		mapRegion(0);
+		region.putInt(MAGIC);
+		region.putInt(RECORD_BYTES);
+		region.putLong(0);
+		this.flusher = new Thread(this::flushLoop, "simulator-events-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	/** the agent's state after it has been advanced (or created) */
+	void record(final int t, final int id, final int parentId,
+	            final double x, final double y, final double z, final double R,
+	            final int neighborsCnt, final int moveAttempts, final byte nameState) {
+		final ByteBuffer b = ring().room();
+		b.putInt(t).putInt(id).putInt(parentId);
+		b.putDouble(x).putDouble(y).putDouble(z).putDouble(R);
+		b.putInt(neighborsCnt).putInt(moveAttempts);
+		b.put(nameState).put((byte)0).put((byte)0).put((byte)0);
+	}
+
+	private void mapRegion(final long start) throws IOException {
+		regionStart = start;
+		region = channel.map(FileChannel.MapMode.READ_WRITE, start, MAPPED_REGION_BYTES);
+		region.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void flushLoop() {
+		try {
+			Flush f;
+			while ((f = toBeFlushed.take()) != NO_MORE_FLUSHES) {
+				f.buffer.flip();
+				while (f.buffer.hasRemaining()) {
+					if (!region.hasRemaining()) mapRegion(regionStart + MAPPED_REGION_BYTES);
+					//NB: a record may be split between two regions, the file is contiguous anyway
+					final int n = Math.min(f.buffer.remaining(), region.remaining());
+					final ByteBuffer part = f.buffer.duplicate();
+					part.limit(part.position() + n);
+					region.put(part);
+					f.buffer.position(f.buffer.position() + n);
+				}
+				recordsCnt += f.buffer.limit() / RECORD_BYTES;
+				f.buffer.clear();
+				f.ring.free.add(f.buffer);
+			}
+		} catch (InterruptedException e) {
+			failure = new IOException("Writing of the events was interrupted", e);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/** flushes everything, and closes the file; must not be called while some thread is still recording */
+	void close() throws IOException {
+		for (Ring r : rings.values()) {
+			if (r.current.position() > 0) toBeFlushed.add(new Flush(r.current, r));
+		}
+		toBeFlushed.add(NO_MORE_FLUSHES);
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		rings.clear();
+
+		final long bytes = HEADER_BYTES + recordsCnt * RECORD_BYTES;
+		mapRegion(0);
+		region.putLong(8, recordsCnt);
+		region.force();
+		region = null;
+		try {
+			channel.truncate(bytes);
+		} catch (IOException e) {
+			//NB: some systems don't allow to truncate mapped files, the header tells the true length anyway
+		}
+		channel.close();
+		if (failure != null) throw failure;
+	}
+
+	// ------------- reading -------------
+	/** the CSV columns are: t,id,parentId,x,y,z,R,name,neighbors,moveAttempts where the name
+	 *  is the hint of the name state (e.g. B, W, BW, DZ), returns the number of records */
+	public static long toCsv(final Path eventsFile, final Path csvFile) throws IOException {
+		try (FileChannel in = FileChannel.open(eventsFile, StandardOpenOption.READ);
+		     PrintWriter out = new PrintWriter(Files.newBufferedWriter(csvFile))) {
+			final MappedByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) throw new IOException("Not a simulator events file: " + eventsFile);
+			final int recordBytes = header.getInt();
+			final long recordsCnt = header.getLong();
+
+			out.println("t,id,parentId,x,y,z,R,name,neighbors,moveAttempts");
+			final long recordsPerChunk = MAPPED_REGION_BYTES / recordBytes;
+			for (long first = 0; first < recordsCnt; first += recordsPerChunk) {
+				final long cnt = Math.min(recordsPerChunk, recordsCnt - first);
+				final MappedByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY,
+						HEADER_BYTES + first * recordBytes, cnt * recordBytes);
+				b.order(ByteOrder.LITTLE_ENDIAN);
+				for (long i = 0; i < cnt; ++i) {
+					b.position((int)(i * recordBytes));
+					final int t = b.getInt(), id = b.getInt(), parentId = b.getInt();
+					final double x = b.getDouble(), y = b.getDouble(), z = b.getDouble(), R = b.getDouble();
+					final int neighbors = b.getInt(), attempts = b.getInt();
+					final byte state = b.get();
+					out.printf(Locale.ROOT, "%d,%d,%d,%f,%f,%f,%f,%s,%d,%d%n", t, id, parentId, x, y, z, R,
+							nameStateHint(state), neighbors, attempts);
+				}
+			}
+			return recordsCnt;
+		}
+	}
+
+	static String nameStateHint(final byte nameState) {
+		switch (nameState) {
+		case Agent.NAME_BLOCKED: return "B";
+		case Agent.NAME_WANT_DIVIDE: return "W";
+		case Agent.NAME_BLOCKED_WANT_DIVIDE: return "BW";
+		case Agent.NAME_BULDOZER: return "DZ";
+		default: return "";
+		}
+	}
+
+	/** converts the events file into CSV, the parameters are: eventsFile csvFile */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("Parameters: eventsFile csvFile");
+			return;
+		}
+		try {
+			final long cnt = toCsv(Paths.get(args[0]), Paths.get(args[1]));
+			System.out.println("Written " + cnt + " events into " + args[1]);
+		} catch (IOException e) {
+			System.out.println("EVENTS ERROR: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package org.ulman.simulator;
+
+import java.util.Arrays;
+
+/** One kind of hinting spheres (e.g., all "keep out" spheres) of one time point, together with a coarse
+ *  grid to quickly find which of them may contain a given point. The spheres are collected with add(),
+ *  and made searchable with build(). Once built, it is only read, and so it can be used from many threads. */
+class HintingSpheres {
+	//x,y,z,R of the spheres, stride 4
+	double[] spheres = new double[64];
+	private int size = 0;
+
+	//geometry of the grid that covers the bounding boxes of all spheres
+	private static final int MAX_CELLS_ALONG_AXIS = 32;
+	private double minX, minY, minZ;
+	private double maxX, maxY, maxZ;
+	private double cellSize = 1.0;
+	private int sizeX = 1, sizeY = 1, sizeZ = 1;
+
+	//spheres that overlap the cell 'c' are at indices [cellStart[c], cellStart[c+1]) of the cellMembers
+	private int[] cellStart = new int[2];
+	int[] cellMembers = new int[0];
+	//spheres that would overlap too many cells are not in the grid, they are always candidates
+	private static final int MAX_CELLS_PER_SPHERE = 512;
+	int[] hugeMembers = new int[0];
+	int hugeCnt = 0;
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+		hugeCnt = 0;
+		sizeX = sizeY = sizeZ = 1;
+		cellStart[0] = cellStart[1] = 0;
+	}
+
+	void add(final double x, final double y, final double z, final double R) {
+		if (4*size == spheres.length) spheres = Arrays.copyOf(spheres, 2*spheres.length);
+		spheres[4*size+0] = x;
+		spheres[4*size+1] = y;
+		spheres[4*size+2] = z;
+		spheres[4*size+3] = R;
+		++size;
+	}
+
+	void build() {
+		if (size == 0) return;
+
+		minX = minY = minZ = Double.MAX_VALUE;
+		maxX = maxY = maxZ = -Double.MAX_VALUE;
+		for (int i = 0; i < size; ++i) {
+			final double R = spheres[4*i+3];
+			minX = Math.min(minX, spheres[4*i+0] - R); maxX = Math.max(maxX, spheres[4*i+0] + R);
+			minY = Math.min(minY, spheres[4*i+1] - R); maxY = Math.max(maxY, spheres[4*i+1] + R);
+			minZ = Math.min(minZ, spheres[4*i+2] - R); maxZ = Math.max(maxZ, spheres[4*i+2] + R);
+		}
+		cellSize = Math.max(Math.max(maxX-minX, maxY-minY), maxZ-minZ) / MAX_CELLS_ALONG_AXIS;
+		cellSize = Math.max(cellSize, 0.001);
+		sizeX = (int)((maxX - minX) / cellSize) + 1;
+		sizeY = (int)((maxY - minY) / cellSize) + 1;
+		sizeZ = (int)((maxZ - minZ) / cellSize) + 1;
+		final int cellsCnt = sizeX * sizeY * sizeZ;
+
+		//two passes: count the members of every cell, then place them
+		if (cellStart.length < cellsCnt+1) cellStart = new int[cellsCnt+1];
+		Arrays.fill(cellStart, 0, cellsCnt+1, 0);
+		if (hugeMembers.length < size) hugeMembers = new int[size];
+		hugeCnt = 0;
+		for (int i = 0; i < size; ++i) {
+			if (cellsOverlappedBy(i) > MAX_CELLS_PER_SPHERE) {
+				hugeMembers[hugeCnt++] = i;
+				continue;
+			}
+			forEachCellOf(i, c -> cellStart[c+1]++);
+		}
+		for (int c = 0; c < cellsCnt; ++c) cellStart[c+1] += cellStart[c];
+
+		if (cellMembers.length < cellStart[cellsCnt]) cellMembers = new int[cellStart[cellsCnt]];
+		final int[] fill = Arrays.copyOf(cellStart, cellsCnt);
+		int h = 0;
+		for (int i = 0; i < size; ++i) {
+			if (h < hugeCnt && hugeMembers[h] == i) {
+				++h;
+				continue;
+			}
+			final int sphereIdx = i;
+			forEachCellOf(i, c -> cellMembers[fill[c]++] = sphereIdx);
+		}
+	}
+
+	private interface CellVisitor {
+		void visit(int cell);
+	}
+
+	private long cellsOverlappedBy(final int i) {
+		final double R = spheres[4*i+3];
+		final long cx = cellCoord(spheres[4*i+0] + R, minX, sizeX) - cellCoord(spheres[4*i+0] - R, minX, sizeX) + 1;
+		final long cy = cellCoord(spheres[4*i+1] + R, minY, sizeY) - cellCoord(spheres[4*i+1] - R, minY, sizeY) + 1;
+		final long cz = cellCoord(spheres[4*i+2] + R, minZ, sizeZ) - cellCoord(spheres[4*i+2] - R, minZ, sizeZ) + 1;
+		return cx * cy * cz;
+	}
+
+	private void forEachCellOf(final int i, final CellVisitor visitor) {
+		final double R = spheres[4*i+3];
+		final int fromX = cellCoord(spheres[4*i+0] - R, minX, sizeX), tillX = cellCoord(spheres[4*i+0] + R, minX, sizeX);
+		final int fromY = cellCoord(spheres[4*i+1] - R, minY, sizeY), tillY = cellCoord(spheres[4*i+1] + R, minY, sizeY);
+		final int fromZ = cellCoord(spheres[4*i+2] - R, minZ, sizeZ), tillZ = cellCoord(spheres[4*i+2] + R, minZ, sizeZ);
+		for (int cz = fromZ; cz <= tillZ; ++cz)
+		for (int cy = fromY; cy <= tillY; ++cy)
+		for (int cx = fromX; cx <= tillX; ++cx)
+			visitor.visit((cz * sizeY + cy) * sizeX + cx);
+	}
+
+	private int cellCoord(final double pos, final double min, final int size) {
+		final int c = (int)Math.floor((pos - min) / cellSize);
+		return Math.max(0, Math.min(c, size - 1));
+	}
+
+	/** returns the cell with the given position, or -1 if no sphere (except the huge ones) can contain the position */
+	int cellOf(final double x, final double y, final double z) {
+		if (size == 0) return -1;
+		if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) return -1;
+		return (cellCoord(z, minZ, sizeZ) * sizeY + cellCoord(y, minY, sizeY)) * sizeX + cellCoord(x, minX, sizeX);
+	}
+
+	/** spheres that may contain a position from the given cell are listed at cellMembers[cellFrom(c) ... cellTill(c)-1] */
+	int cellFrom(final int cell) {
+		return cell < 0 ? 0 : cellStart[cell];
+	}
+
+	int cellTill(final int cell) {
+		return cell < 0 ? 0 : cellStart[cell+1];
+	}
+}
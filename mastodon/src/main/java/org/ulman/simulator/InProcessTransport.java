@@ -0,0 +1,49 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** All nodes of the distributed simulation run in this JVM (e.g., as threads), and messages are
+ *  handed over via queues. Intended for testing and for running the distributed simulation on one machine. */
+class InProcessTransport {
+	private final int nodesCnt;
+	//messages from the node 'i' to the node 'j' are in queues[i*nodesCnt + j]
+	private final BlockingQueue<byte[]>[] queues;
+
+	//this marks that the sending node has closed its endpoint
+	private static final byte[] CLOSED = new byte[0];
+
+	@SuppressWarnings("unchecked")
+	InProcessTransport(final int nodesCnt) {
+		this.nodesCnt = nodesCnt;
+		this.queues = new BlockingQueue[nodesCnt * nodesCnt];
+		for (int i = 0; i < queues.length; ++i) queues[i] = new LinkedBlockingQueue<>();
+	}
+
+	DistributedTransport endpoint(final int node) {
+		return new DistributedTransport() {
+			@Override
+			public void send(final int toNode, final byte[] message) {
+				queues[node*nodesCnt + toNode].add(message);
+			}
+
+			@Override
+			public byte[] receive(final int fromNode) throws IOException {
+				final byte[] message;
+				try {
+					message = queues[fromNode*nodesCnt + node].take();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the node " + fromNode, e);
+				}
+				if (message == CLOSED) throw new IOException("The node " + fromNode + " has closed the connection");
+				return message;
+			}
+
+			@Override
+			public void close() {
+				for (int toNode = 0; toNode < nodesCnt; ++toNode) queues[node*nodesCnt + toNode].add(CLOSED);
+			}
+		};
+	}
+}
@@ -0,0 +1,36 @@
+package org.ulman.simulator;
+
+/** Agents' labels that encode the lineage (e.g. "1aabba") are kept compactly as a root label (which
+ *  is the same String object for the whole lineage) and a 'path' of the 'a'/'b' divisions since the root.
+ *  The path is a long: the highest set bit marks the beginning, the bits after it are the divisions
+ *  in their order, 0 for 'a' and 1 for 'b'. The label String is built only when it is really needed. */
+final class LineageLabel {
+	/** the path of the root itself, i.e. no divisions yet */
+	static final long ROOT = 1L;
+
+	//longer paths are folded into a new root, see daughterRoot()
+	private static final long PATH_FULL = 1L << 62;
+
+	private LineageLabel() {}
+
+	/** the path of the daughter 'a' (or 'b' if 'secondDaughter' is true) of the given mother */
+	static long daughterPath(final long motherPath, final boolean secondDaughter) {
+		final long path = motherPath >= PATH_FULL ? ROOT : motherPath;
+		return (path << 1) | (secondDaughter ? 1L : 0L);
+	}
+
+	/** the root label of the daughter, which is the mother's root unless the mother's path is full */
+	static String daughterRoot(final String motherRoot, final long motherPath) {
+		//NB: happens once every 62 generations, the new root is then shared by the whole sub-lineage
+		return motherPath >= PATH_FULL ? toString(motherRoot, motherPath) : motherRoot;
+	}
+
+	static String toString(final String root, final long path) {
+		if (path == ROOT) return root;
+		final int depth = 63 - Long.numberOfLeadingZeros(path);
+		final StringBuilder sb = new StringBuilder(root.length() + depth);
+		sb.append(root);
+		for (int bit = depth-1; bit >= 0; --bit) sb.append((path >>> bit & 1L) == 0 ? 'a' : 'b');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,185 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A part of a file of any size that is read (or written) front to back through memory-mapped regions of
+ *  a fixed size, all numbers are little-endian. One region can't be over 2GB, so the next region is mapped
+ *  whenever the current one has not enough bytes left; the next region starts exactly where the current one
+ *  was left, so no number is split between two regions (arrays may be), and the file is contiguous anyway. */
+class MappedRegions {
+	private final FileChannel channel;
+	private final FileChannel.MapMode mode;
+	private final long end;
+	private final int regionBytes;
+
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	/** maps the bytes [start,end) of the file, 'regionBytes' must be at least 8 */
+	MappedRegions(final FileChannel channel, final FileChannel.MapMode mode,
+	              final long start, final long end, final int regionBytes) throws IOException {
+		this.channel = channel;
+		this.mode = mode;
+		this.end = end;
+		this.regionBytes = regionBytes;
+		mapRegion(start);
+	}
+
+	private void mapRegion(final long start) throws IOException {
+		if (region != null && mode == FileChannel.MapMode.READ_WRITE) region.force();
+		regionStart = start;
+		region = channel.map(mode, start, Math.min(regionBytes, end - start));
+		region.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** the position in the file */
+	long position() {
+		return regionStart + region.position();
+	}
+
+	/** makes sure that the current region has at least 'bytes' left */
+	private void ensure(final int bytes) throws IOException {
+		if (region.remaining() >= bytes) return;
+		mapRegion(position());
+		if (region.remaining() < bytes) throw new IOException("Cannot access " + bytes + " bytes at " + position()
+				+ ", the mapped part of the file ends at " + end);
+	}
+
+	/** how many elements of 'elemBytes' each, of the 'len' ones, can go into the current region (at least one) */
+	private int fitting(final int len, final int elemBytes) throws IOException {
+		ensure(elemBytes);
+		return Math.min(len, region.remaining() / elemBytes);
+	}
+
+	/** writes the last region to the disk, the previous ones were written when they were left */
+	void force() {
+		region.force();
+	}
+
+	// ------------- writing -------------
+	MappedRegions putInt(final int v) throws IOException {
+		ensure(4);
+		region.putInt(v);
+		return this;
+	}
+
+	MappedRegions putLong(final long v) throws IOException {
+		ensure(8);
+		region.putLong(v);
+		return this;
+	}
+
+	MappedRegions putDouble(final double v) throws IOException {
+		ensure(8);
+		region.putDouble(v);
+		return this;
+	}
+
+	MappedRegions putChar(final char v) throws IOException {
+		ensure(2);
+		region.putChar(v);
+		return this;
+	}
+
+	void put(final int[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 4);
+			region.asIntBuffer().put(a, off, n);
+			region.position(region.position() + 4*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void put(final long[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 8);
+			region.asLongBuffer().put(a, off, n);
+			region.position(region.position() + 8*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void put(final double[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 8);
+			region.asDoubleBuffer().put(a, off, n);
+			region.position(region.position() + 8*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void put(final byte[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 1);
+			region.put(a, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	// ------------- reading -------------
+	int getInt() throws IOException {
+		ensure(4);
+		return region.getInt();
+	}
+
+	long getLong() throws IOException {
+		ensure(8);
+		return region.getLong();
+	}
+
+	double getDouble() throws IOException {
+		ensure(8);
+		return region.getDouble();
+	}
+
+	char getChar() throws IOException {
+		ensure(2);
+		return region.getChar();
+	}
+
+	void get(final int[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 4);
+			region.asIntBuffer().get(a, off, n);
+			region.position(region.position() + 4*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void get(final long[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 8);
+			region.asLongBuffer().get(a, off, n);
+			region.position(region.position() + 8*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void get(final double[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 8);
+			region.asDoubleBuffer().get(a, off, n);
+			region.position(region.position() + 8*n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void get(final byte[] a, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = fitting(len, 1);
+			region.get(a, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package org.ulman.simulator;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+/** Turns the {@link TimepointRecord}s into Mastodon spots and links. It remembers, for every
+ *  living agent, the most recent spot that represents it (or its mother) so that the lineages
+ *  are linked correctly even when the records are written in one go long after they were made.
+ *  The caller is responsible for holding the graph's write lock. */
+class MastodonPublisher {
+	private final ModelGraph graph;
+	private final GraphIdBimap<Spot,Link> graphIds;
+
+	private static final int NO_SPOT = -1;
+	//agent ID -> graph ID of the most recent spot of this agent
+	private final TIntIntHashMap mostRecentSpots = new TIntIntHashMap(100000, 0.5f, 0, NO_SPOT);
+
+	//which agents become spots, null means all
+	private PublishingFilter filter = null;
+
+	//how the spots are labeled
+	private final AgentNamingPolicy namingPolicy;
+
+	//graph IDs of the spots that others (e.g. users in the live mode) have removed since the last write,
+	//their IDs may have been reused for other spots meanwhile; see watchRemovedSpots()
+	private final TIntHashSet removedSpots = new TIntHashSet();
+	private boolean graphRebuilt = false;
+	private final GraphListener<Spot,Link> removalsListener = new GraphListener<Spot,Link>() {
+		@Override
+		public void graphRebuilt() {
+			synchronized (removedSpots) { graphRebuilt = true; }
+		}
+		@Override
+		public void vertexRemoved(final Spot vertex) {
+			synchronized (removedSpots) { removedSpots.add(graphIds.getVertexId(vertex)); }
+		}
+		@Override
+		public void vertexAdded(final Spot vertex) {}
+		@Override
+		public void edgeAdded(final Link edge) {}
+		@Override
+		public void edgeRemoved(final Link edge) {}
+	};
+
+	MastodonPublisher(final ModelGraph graph, final AgentNamingPolicy namingPolicy) {
+		this.graph = graph;
+		this.namingPolicy = namingPolicy;
+		this.graphIds = graph.getGraphIdBimap();
+	}
+
+	/** declares that the given agent is represented already with the given spot,
+	 *  which is useful when agents are created from existing Mastodon spots */
+	void seed(final int agentId, final Spot spot) {
+		mostRecentSpots.put(agentId, graphIds.getVertexId(spot));
+	}
+
+	/** when the graph is not locked between the writes, others may remove the spots this publisher remembers;
+	 *  'watch' makes it listen to the graph and forget such spots, so that no new spot is linked to them */
+	void watchRemovedSpots(final boolean watch) {
+		if (watch) graph.addGraphListener(removalsListener);
+		else graph.removeGraphListener(removalsListener);
+	}
+
+	/** the agents whose spots were removed from the graph start over without a previous spot */
+	private void forgetRemovedSpots() {
+		synchronized (removedSpots) {
+			if (graphRebuilt) {
+				//NB: all graph IDs may have changed
+				mostRecentSpots.clear();
+			} else if (!removedSpots.isEmpty()) {
+				for (TIntIntIterator it = mostRecentSpots.iterator(); it.hasNext(); ) {
+					it.advance();
+					if (removedSpots.contains(it.value())) it.remove();
+				}
+			}
+			removedSpots.clear();
+			graphRebuilt = false;
+		}
+	}
+
+	/** agent ID, spot ID and the spot's key (see keyOf(), as two ints: the upper and the lower half)
+	 *  for every remembered agent, see {@link SimulatorCheckpoint} */
+	int[] getMostRecentSpots() {
+		forgetRemovedSpots();
+		final int[] spots = new int[4 * mostRecentSpots.size()];
+		final Spot ref = graph.vertexRef();
+		int i = 0;
+		for (TIntIntIterator it = mostRecentSpots.iterator(); it.hasNext(); ) {
+			it.advance();
+			final long key = keyOf(graphIds.getVertex(it.value(), ref));
+			spots[i++] = it.key();
+			spots[i++] = it.value();
+			spots[i++] = (int)(key >>> 32);
+			spots[i++] = (int)key;
+		}
+		graph.releaseRef(ref);
+		return spots;
+	}
+
+	/** remembers the spots as given by getMostRecentSpots(), but only those that are found in the graph:
+	 *  under their spot IDs if the spots there have their keys, otherwise by their keys only (the spot IDs
+	 *  change, e.g., when the project is saved and loaded again); returns how many were not found (and are
+	 *  thus forgotten) */
+	int setMostRecentSpots(final int[] spots) {
+		final Spot ref = graph.vertexRef();
+		//spot's key -> spot ID, of all spots of the graph, made only when some spot is not under its ID
+		TLongIntHashMap spotsByKeys = null;
+		int notFound = 0;
+		for (int i = 0; i < spots.length; i += 4) {
+			final long key = (long)spots[i+2] << 32 | (spots[i+3] & 0xFFFFFFFFL);
+			int spotId = spots[i+1];
+			if (!isSpotOfKey(spotId, key, ref)) {
+				if (spotsByKeys == null) spotsByKeys = keysOfAllSpots();
+				spotId = spotsByKeys.get(key);
+			}
+			if (spotId != NO_SPOT) mostRecentSpots.put(spots[i], spotId);
+			else ++notFound;
+		}
+		graph.releaseRef(ref);
+		return notFound;
+	}
+
+	private boolean isSpotOfKey(final int spotId, final long key, final Spot ref) {
+		try {
+			return keyOf(graphIds.getVertex(spotId, ref)) == key;
+		} catch (RuntimeException e) {
+			//NB: the spot ID is beyond the graph
+			return false;
+		}
+	}
+
+	private TLongIntHashMap keysOfAllSpots() {
+		final TLongIntHashMap spotsByKeys = new TLongIntHashMap(2 * graph.vertices().size(), 0.5f, 0, NO_SPOT);
+		for (Spot s : graph.vertices()) {
+			final long key = keyOf(s);
+			//NB: spots of the same key cannot be told apart, so none of them is taken
+			spotsByKeys.put(key, spotsByKeys.containsKey(key) ? NO_SPOT : graphIds.getVertexId(s));
+		}
+		return spotsByKeys;
+	}
+
+	/** the spot's time point, label and position hashed together, which (unlike its spot ID) stay
+	 *  the same when the project is saved and loaded again */
+	static long keyOf(final Spot spot) {
+		long key = spot.getTimepoint();
+		key = 0x9E3779B97F4A7C15L * key + spot.getLabel().hashCode();
+		for (int d = 0; d < 3; ++d) key = 0x9E3779B97F4A7C15L * key + Double.doubleToLongBits(spot.getDoublePosition(d));
+		return key;
+	}
+
+	void setFilter(final PublishingFilter filter) {
+		this.filter = filter;
+	}
+
+	/** returns the number of spots added */
+	int write(final TimepointRecord record) {
+		forgetRemovedSpots();
+		//daughters continue from where their mothers have stopped...
+		for (int i = 0; i < record.bornIds.length; ++i) {
+			if (record.bornFromIds[i] == 0) continue;
+			final int motherSpotId = mostRecentSpots.get(record.bornFromIds[i]);
+			if (motherSpotId != NO_SPOT) mostRecentSpots.put(record.bornIds[i], motherSpotId);
+		}
+		//...and only then the mothers can be forgotten
+		for (int id : record.diedIds) mostRecentSpots.remove(id);
+
+		final Spot auxSpot = graph.vertexRef();
+		final Spot prevSpot = graph.vertexRef();
+		final Link auxLink = graph.edgeRef();
+		final double[] coords = new double[3];
+
+		int added = 0;
+		for (int i = 0; i < record.size; ++i) {
+			//NB: the filtered-out agents keep their (or their ancestors') most recent spots,
+			//    so that their next published spot is linked to it
+			if (filter != null && !filter.accepts(record, i)) continue;
+			coords[0] = record.x[i];
+			coords[1] = record.y[i];
+			coords[2] = record.z[i];
+			graph.addVertex(auxSpot).init(record.time, coords, record.R[i]);
+			auxSpot.setLabel(record.labelOf(i, namingPolicy));
+
+			final int prevSpotId = mostRecentSpots.put(record.ids[i], graphIds.getVertexId(auxSpot));
+			if (prevSpotId != NO_SPOT) {
+				graph.addEdge(graphIds.getVertex(prevSpotId, prevSpot), auxSpot, auxLink).init();
+			}
+			++added;
+		}
+
+		graph.releaseRef(auxLink);
+		graph.releaseRef(prevSpot);
+		graph.releaseRef(auxSpot);
+		return added;
+	}
+}
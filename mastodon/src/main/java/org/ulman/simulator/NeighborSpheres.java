@@ -0,0 +1,259 @@
+package org.ulman.simulator;
+
+import java.util.Arrays;
+
+/** The nearby agents of one agent, stored as separate arrays of their coordinates and radii, and
+ *  the kernels that evaluate all of them against one sphere. Every kernel exists in two variants
+ *  that give bit-for-bit identical results, see {@link Simulator#SIMULATION_BATCHED_KERNELS}:
+ *  the scalar one, which is the original per-neighbor loop, and the batched one, which computes
+ *  the distances to all neighbors first in plain loops over the arrays (that the JIT compiler
+ *  can vectorize, sqrt included) and only then walks the neighbors one by one where the order
+ *  matters (sums) or where branching is necessary. */
+final class NeighborSpheres {
+	//which variant of the kernels, and whether to report about them, as given by the simulator's parameters
+	private final boolean batched;
+	private final boolean verbose;
+
+	NeighborSpheres(final boolean batched, final boolean verbose) {
+		this.batched = batched;
+		this.verbose = verbose;
+	}
+
+	//NB: the buffers only grow, and stay as big as the most crowded neighborhood seen so far
+	double[] x = new double[64];
+	double[] y = new double[64];
+	double[] z = new double[64];
+	double[] R = new double[64];
+	int cnt = 0;
+
+	//scratch space of the batched kernels
+	private double[] dx = new double[64];
+	private double[] dy = new double[64];
+	private double[] dz = new double[64];
+	private double[] dist = new double[64];
+	private double[] dist2 = new double[64];
+
+	//the displacement computed by the last repulsionFrom() or overlapsPushFrom()
+	double dispX, dispY, dispZ;
+
+	//where the repulsionFrom() reports the individual neighbors, if the agent is traced
+	AgentsTracer.Buffer trace = null;
+
+	void clear() {
+		cnt = 0;
+	}
+
+	void add(final double x, final double y, final double z, final double R) {
+		if (cnt == this.x.length) grow();
+		this.x[cnt] = x;
+		this.y[cnt] = y;
+		this.z[cnt] = z;
+		this.R[cnt] = R;
+		++cnt;
+	}
+
+	private void grow() {
+		final int capacity = 2 * x.length;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		z = Arrays.copyOf(z, capacity);
+		R = Arrays.copyOf(R, capacity);
+		dx = new double[capacity];
+		dy = new double[capacity];
+		dz = new double[capacity];
+		dist = new double[capacity];
+		dist2 = new double[capacity];
+	}
+
+	// ------------- batched building blocks -------------
+	/** fills dx,dy,dz with the vectors from the neighbors towards [px,py,pz], and dist with their lengths */
+	private void centreDistancesTo(final double px, final double py, final double pz) {
+		for (int i = 0; i < cnt; ++i) {
+			dx[i] = px - x[i];
+			dy[i] = py - y[i];
+			dz[i] = pz - z[i];
+		}
+		for (int i = 0; i < cnt; ++i) {
+			dist[i] = Math.sqrt(dx[i]*dx[i] + dy[i]*dy[i] + dz[i]*dz[i]);
+		}
+	}
+
+	// ------------- kernels -------------
+	/** the "dominant" way for the sphere [px,py,pz,pR] to get away from the neighbors that are closer than
+	 *  'minDistance' (surface to surface), the (weights-normalized) displacement is left in dispX,dispY,dispZ,
+	 *  and the sum of the weights is returned, see {@link Agent#doOneTime(boolean)} */
+	double repulsionFrom(final double px, final double py, final double pz, final double pR, final double minDistance) {
+		double dispAwayX = 0,dispAwayY = 0,dispAwayZ = 0;
+		double sumOfWeights = 0;
+		if (batched) centreDistancesTo(px,py,pz);
+		for (int i = 0; i < cnt; ++i) {
+			double dx, dy, dz, dist;
+			if (batched) {
+				dist = this.dist[i];
+				//NB: the cheap test first, the far neighbors need not be normalized at all
+				if (dist - (pR + R[i]) > minDistance) continue;
+				dx = this.dx[i] / dist;
+				dy = this.dy[i] / dist;
+				dz = this.dz[i] / dist;
+				dist -= pR + R[i];
+			} else {
+				dx = px - x[i];
+				dy = py - y[i];
+				dz = pz - z[i];
+				dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+				dx /= dist; dy /= dist; dz /= dist;  //displacement vector is now normalized
+
+				dist -= pR + R[i]; //the actual (surface) distance to the nearby agent
+				if (dist > minDistance) continue; //too far to care...
+			}
+
+			//how much to move to get surfaces exactly "minDistance" far from each other
+			dist = minDistance - dist;
+			dist = Math.min(0.7 * dist, 0.5*pR);
+			//NB:
+			//half (0.5) should be taken because the other agent will do the same move;
+			//but since agents jump chaotically, we better displace a little more (0.7);
+			//and yet don't move more than a quarter of agent's own size
+
+			dx *= dist; //displacement vector now of the appropriate size
+			dy *= dist;
+			dz *= dist;
+
+			dist = Math.min(dist,minDistance); //NB: agents' overlap is not worse
+			                                   //than just touching surfaces
+			double weight = dist / minDistance; //NB: [0:1] scale
+			weight *= weight;                   //quadratic -> longer moves get more attention
+
+			dispAwayX += weight * dx;
+			dispAwayY += weight * dy;
+			dispAwayZ += weight * dz;
+			sumOfWeights += weight;
+
+			if (verbose) {
+				System.out.printf("  detected away displacement = (%f,%f,%f) of weight = %f%n",dx,dy,dz,weight);
+			}
+			if (trace != null) trace.add(AgentsTracer.NEIGHBOR, dx,dy,dz, weight);
+		}
+		if (sumOfWeights > 0) {
+			dispAwayX /= sumOfWeights;
+			dispAwayY /= sumOfWeights;
+			dispAwayZ /= sumOfWeights;
+		}
+		dispX = dispAwayX;
+		dispY = dispAwayY;
+		dispZ = dispAwayZ;
+		return sumOfWeights;
+	}
+
+	/** the (averaged) displacement for the sphere [px,py,pz,pR] to get out of the neighbors it overlaps with
+	 *  is left in dispX,dispY,dispZ, and the number of such neighbors is returned, see {@link Agent#doBuldozering(double, double, double, double)} */
+	int overlapsPushFrom(final double px, final double py, final double pz, final double pR) {
+		double dispAwayX = 0,dispAwayY = 0,dispAwayZ = 0;
+		int dispAwayCnt = 0;
+		if (batched) centreDistancesTo(px,py,pz);
+		for (int i = 0; i < cnt; ++i) {
+			double dx, dy, dz, dist;
+			if (batched) {
+				dist = this.dist[i];
+				if (dist - (pR + R[i]) >= 0.0) continue;
+				dx = this.dx[i] / dist;
+				dy = this.dy[i] / dist;
+				dz = this.dz[i] / dist;
+				dist -= pR + R[i];
+			} else {
+				dx = px - x[i];
+				dy = py - y[i];
+				dz = pz - z[i];
+				dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+				dx /= dist; dy /= dist; dz /= dist;  //displacement vector is now normalized
+
+				dist -= pR + R[i]; //the actual (surface) distance to get outside the current overlapping constellation
+				//NB: dist should be non-positive, but just in case....
+				if (dist >= 0.0) continue;
+			}
+
+			dist *= -0.7;
+			//half (0.5) should be taken because the other agent will do the same move;
+			//but since agents jump chaotically, we better displace a little more (0.7);
+			dispAwayX += dist * dx;
+			dispAwayY += dist * dy;
+			dispAwayZ += dist * dz;
+			dispAwayCnt++;
+		}
+		if (dispAwayCnt > 0) {
+			dispAwayX /= (double)dispAwayCnt;
+			dispAwayY /= (double)dispAwayCnt;
+			dispAwayZ /= (double)dispAwayCnt;
+		}
+		dispX = dispAwayX;
+		dispY = dispAwayY;
+		dispZ = dispAwayZ;
+		return dispAwayCnt;
+	}
+
+	/** returns true if the sphere [px,py,pz,pR] is (surface to surface) closer than 'minDistance' to any neighbor */
+	boolean isAnyCloserThan(final double px, final double py, final double pz, final double pR, final double minDistance) {
+		if (batched) {
+			for (int i = 0; i < cnt; ++i) {
+				final double dx = x[i] - px;
+				final double dy = y[i] - py;
+				final double dz = z[i] - pz;
+				dist[i] = Math.sqrt(dx*dx + dy*dy + dz*dz) - pR - R[i];
+			}
+			boolean tooClose = false;
+			for (int i = 0; i < cnt; ++i) tooClose |= dist[i] < minDistance;
+			return tooClose;
+		}
+
+		for (int i = 0; i < cnt; ++i) {
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+			double dz = z[i] - pz;
+			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz) - pR - R[i];
+			if (dist < minDistance) return true;
+		}
+		return false;
+	}
+
+	/** returns how many times the spheres [p1x,p1y,p1z,p1R] and [p2x,p2y,p2z,p2R] are
+	 *  (surface to surface) closer than 'minDistance' to the neighbors, see {@link Agent#divideMe()} */
+	int countCloserThan(final double p1x, final double p1y, final double p1z, final double p1R,
+	                    final double p2x, final double p2y, final double p2z, final double p2R,
+	                    final double minDistance) {
+		int proximityCounter = 0;
+		if (batched) {
+			for (int i = 0; i < cnt; ++i) {
+				final double dx = p1x - x[i];
+				final double dy = p1y - y[i];
+				final double dz = p1z - z[i];
+				dist[i] = Math.sqrt(dx*dx + dy*dy + dz*dz) - (p1R + R[i]);
+			}
+			for (int i = 0; i < cnt; ++i) {
+				final double dx = p2x - x[i];
+				final double dy = p2y - y[i];
+				final double dz = p2z - z[i];
+				dist2[i] = Math.sqrt(dx*dx + dy*dy + dz*dz) - (p2R + R[i]);
+			}
+			for (int i = 0; i < cnt; ++i) {
+				proximityCounter += (dist[i] < minDistance ? 1 : 0) + (dist2[i] < minDistance ? 1 : 0);
+			}
+			return proximityCounter;
+		}
+
+		for (int i = 0; i < cnt; ++i) {
+			proximityCounter += isCloserThan(p1x,p1y,p1z,p1R, i, minDistance) ? 1 : 0;
+			proximityCounter += isCloserThan(p2x,p2y,p2z,p2R, i, minDistance) ? 1 : 0;
+		}
+		return proximityCounter;
+	}
+
+	private boolean isCloserThan(final double px, final double py, final double pz, final double pR,
+	                             final int i, final double minDistance) {
+		double dx = px - x[i];
+		double dy = py - y[i];
+		double dz = pz - z[i];
+		double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		dist -= pR + R[i]; //the actual (surface) distance to the nearby agent
+		return dist < minDistance;
+	}
+}
@@ -0,0 +1,87 @@
+package org.ulman.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Writes the {@link TimepointRecord}s into the Mastodon graph in its own thread, so that the
+ *  simulation of the next time points can run meanwhile. The records wait in a bounded queue:
+ *  when the publishing falls behind, the simulation is made to wait, and so the memory doesn't grow.
+ *  The graph's write lock is taken only for the time of writing the currently available records. */
+class PipelinedPublisher {
+	private final MastodonPublisher publisher;
+	private final ReentrantReadWriteLock lock;
+	private final BlockingQueue<TimepointRecord> queue;
+	private final Thread thread;
+	//called after every written batch, once the lock is released; or null
+	private final Runnable afterBatch;
+	private final boolean verbose;
+
+	//marks the end of the records
+	private static final TimepointRecord NO_MORE_RECORDS = TimepointRecord.empty(-1);
+	private volatile RuntimeException failure = null;
+
+	PipelinedPublisher(final MastodonPublisher publisher, final ReentrantReadWriteLock lock, final int queueCapacity,
+	                   final Runnable afterBatch, final boolean verbose) {
+		this.publisher = publisher;
+		this.verbose = verbose;
+		this.lock = lock;
+		this.afterBatch = afterBatch;
+		this.queue = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+		this.thread = new Thread(this::publishLoop, "simulator-publisher");
+		this.thread.start();
+	}
+
+	/** waits if too many records are not yet written */
+	void put(final TimepointRecord record) throws InterruptedException {
+		if (failure != null) throw failure;
+		while (!queue.offer(record, 100, TimeUnit.MILLISECONDS)) {
+			if (failure != null) throw failure;
+		}
+	}
+
+	/** waits until all records are written, and stops the publishing thread */
+	void finish() throws InterruptedException {
+		while (thread.isAlive() && !queue.offer(NO_MORE_RECORDS, 100, TimeUnit.MILLISECONDS)) {
+			//NB: just waiting for some space in the queue
+		}
+		thread.join();
+		if (failure != null) throw failure;
+	}
+
+	private void publishLoop() {
+		final List<TimepointRecord> batch = new ArrayList<>(queue.remainingCapacity() + 1);
+		try {
+			boolean moreToCome = true;
+			while (moreToCome) {
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				if (batch.get(batch.size()-1) == NO_MORE_RECORDS) {
+					batch.remove(batch.size()-1);
+					moreToCome = false;
+				}
+
+				lock.writeLock().lock();
+				try {
+					int spots = 0;
+					for (TimepointRecord r : batch) spots += publisher.write(r);
+					if (verbose && !batch.isEmpty()) {
+						System.out.println("========== SIM: publisher wrote " + spots + " spots of time points "
+								+ batch.get(0).time + " to " + batch.get(batch.size()-1).time);
+					}
+				} finally {
+					lock.writeLock().unlock();
+				}
+				if (afterBatch != null && !batch.isEmpty()) afterBatch.run();
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			failure = new IllegalStateException("Publishing into Mastodon was interrupted", e);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.ulman.simulator;
+
+/** Decides which agents become Mastodon spots, see {@link Simulator#PUBLISH_ONLY_IN_ROI},
+ *  {@link Simulator#PUBLISH_ONLY_LINEAGES} and {@link Simulator#PUBLISH_EVERY_NTH_LINEAGE}.
+ *  All agents are simulated regardless, and an agent must pass all the given criteria to be published.
+ *  The links stay consistent because the {@link MastodonPublisher} links every published spot
+ *  to the most recent published spot of the same agent or of its nearest published ancestor. */
+final class PublishingFilter {
+	//box: minX,minY,minZ,maxX,maxY,maxZ; sphere: x,y,z,radius; or null
+	private final double[] roi;
+	//labels of the roots of the published sub-lineages, or null
+	private final String[] lineages;
+	private final int everyNthLineage;
+
+	private PublishingFilter(final double[] roi, final String[] lineages, final int everyNthLineage) {
+		this.roi = roi;
+		this.lineages = lineages;
+		this.everyNthLineage = everyNthLineage;
+	}
+
+	/** the filter as given by the simulator's parameters, or null if all agents are to be published */
+	static PublishingFilter fromParams(final SimulationParams params) {
+		final double[] roi = parseRoi(params.PUBLISH_ONLY_IN_ROI);
+		final String[] lineages = parseLineages(params.PUBLISH_ONLY_LINEAGES);
+		final int everyNth = Math.max(params.PUBLISH_EVERY_NTH_LINEAGE, 1);
+		if (roi == null && lineages == null && everyNth == 1) return null;
+
+		System.out.println("========== SIM: publishing only agents"
+				+ (roi != null ? (roi.length == 6 ? " in the box " : " in the sphere ") + params.PUBLISH_ONLY_IN_ROI : "")
+				+ (lineages != null ? " of the lineages " + params.PUBLISH_ONLY_LINEAGES : "")
+				+ (everyNth > 1 ? " of one in " + everyNth + " lineages" : ""));
+		return new PublishingFilter(roi, lineages, everyNth);
+	}
+
+	/** "minX,minY,minZ,maxX,maxY,maxZ" or "x,y,z,radius", or null if the string is empty or not understood */
+	static double[] parseRoi(final String roiStr) {
+		if (roiStr == null || roiStr.trim().isEmpty()) return null;
+		final String[] parts = roiStr.split(",");
+		if (parts.length != 6 && parts.length != 4) {
+			System.out.println("========== SIM: ignoring publishing ROI, expected minX,minY,minZ,maxX,maxY,maxZ or x,y,z,radius: " + roiStr);
+			return null;
+		}
+		try {
+			final double[] roi = new double[parts.length];
+			for (int i = 0; i < parts.length; ++i) roi[i] = Double.parseDouble(parts[i].trim());
+			return roi;
+		} catch (NumberFormatException e) {
+			System.out.println("========== SIM: ignoring publishing ROI, " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** comma-separated labels, or null if none is given */
+	static String[] parseLineages(final String lineagesStr) {
+		if (lineagesStr == null || lineagesStr.trim().isEmpty()) return null;
+		final String[] lineages = lineagesStr.split(",");
+		for (int i = 0; i < lineages.length; ++i) lineages[i] = lineages[i].trim();
+		return lineages;
+	}
+
+	boolean accepts(final TimepointRecord record, final int i) {
+		if (roi != null && !isInRoi(record.x[i], record.y[i], record.z[i])) return false;
+		if (everyNthLineage > 1 && !isSampledLineage(record.labelRoots[i])) return false;
+		if (lineages != null && !isInLineages(LineageLabel.toString(record.labelRoots[i], record.labelPaths[i]))) return false;
+		return true;
+	}
+
+	private boolean isInRoi(final double x, final double y, final double z) {
+		if (roi.length == 4) {
+			final double dx = x - roi[0], dy = y - roi[1], dz = z - roi[2];
+			return dx*dx + dy*dy + dz*dz <= roi[3]*roi[3];
+		}
+		return x >= roi[0] && y >= roi[1] && z >= roi[2]
+				&& x <= roi[3] && y <= roi[4] && z <= roi[5];
+	}
+
+	/** the whole lineage (i.e. all agents of the same root) is either sampled or not */
+	private boolean isSampledLineage(final String labelRoot) {
+		//NB: the String's hash is the same in every run, mixing makes neighboring labels ("1","2",...) not to cluster
+		int h = labelRoot.hashCode() * 0x9E3779B9;
+		h ^= h >>> 16;
+		return Math.floorMod(h, everyNthLineage) == 0;
+	}
+
+	/** the label is of the given lineage, or of any of its descendants ('a' and 'b' daughters) */
+	private boolean isInLineages(final String label) {
+		for (String l : lineages) {
+			if (!label.startsWith(l)) continue;
+			if (label.length() == l.length()) return true;
+			final char next = label.charAt(l.length());
+			if (next == 'a' || next == 'b') return true;
+		}
+		return false;
+	}
+}
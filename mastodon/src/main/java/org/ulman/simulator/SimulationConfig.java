@@ -1,10 +1,20 @@
 package org.ulman.simulator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
 public class SimulationConfig {
 	public AgentNamingPolicy LABELS_NAMING_POLICY = Simulator.LABELS_NAMING_POLICY;
 	public boolean COLLECT_INTERNAL_DATA = Simulator.COLLECT_INTERNAL_DATA;
+	public String COLLECT_INTERNAL_DATA_FILE = Simulator.COLLECT_INTERNAL_DATA_FILE;
 	public boolean VERBOSE_AGENT_DEBUG = Simulator.VERBOSE_AGENT_DEBUG;
+	public int TRACE_EVERY_NTH_AGENT = Simulator.TRACE_EVERY_NTH_AGENT;
+	public String TRACE_AGENTS_IN_ROI = Simulator.TRACE_AGENTS_IN_ROI;
 	public boolean VERBOSE_SIMULATOR_DEBUG = Simulator.VERBOSE_SIMULATOR_DEBUG;
+	public String SIMULATION_PROFILE_FILE = Simulator.SIMULATION_PROFILE_FILE;
+	public String SIMULATION_STATS_FILE = Simulator.SIMULATION_STATS_FILE;
 	public double AGENT_LOOK_AROUND_DISTANCE = Simulator.AGENT_LOOK_AROUND_DISTANCE;
 	public double AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT = Simulator.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
 	public double AGENT_USUAL_STEP_SIZE = Simulator.AGENT_USUAL_STEP_SIZE;
@@ -19,4 +29,70 @@ public class SimulationConfig {
 	public int AGENT_DAUGHTERS_DOZERING_TIME_PERIOD = Simulator.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
 	public double AGENT_INITIAL_RADIUS = Simulator.AGENT_INITIAL_RADIUS;
 	public boolean CREATE_MASTODON_CENTER_SPOT = Simulator.CREATE_MASTODON_CENTER_SPOT;
+	public String PUBLISH_ONLY_IN_ROI = Simulator.PUBLISH_ONLY_IN_ROI;
+	public String PUBLISH_ONLY_LINEAGES = Simulator.PUBLISH_ONLY_LINEAGES;
+	public int PUBLISH_EVERY_NTH_LINEAGE = Simulator.PUBLISH_EVERY_NTH_LINEAGE;
+	public String EXPORT_TRACKS_FILE = Simulator.EXPORT_TRACKS_FILE;
+	public String EXPORT_CTC_TRACKS_FILE = Simulator.EXPORT_CTC_TRACKS_FILE;
+	public boolean EXPORT_ONLY = Simulator.EXPORT_ONLY;
+	public long RANDOM_SEED = Simulator.RANDOM_SEED;
+	public int SIMULATION_SUBSTEPS_PER_TIMEPOINT = Simulator.SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+	public double AGENT_NEIGHBORS_LIST_SKIN = Simulator.AGENT_NEIGHBORS_LIST_SKIN;
+	public int SIMULATION_PARALLELISM = Simulator.SIMULATION_PARALLELISM;
+	public int SIMULATION_TILE_SIZE = Simulator.SIMULATION_TILE_SIZE;
+	public boolean SIMULATION_BATCHED_KERNELS = Simulator.SIMULATION_BATCHED_KERNELS;
+
+	/** a new configuration with all parameters the same as this one */
+	public SimulationConfig copy() {
+		final SimulationConfig c = new SimulationConfig();
+		try {
+			for (Field f : SimulationConfig.class.getFields()) f.set(c, f.get(this));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		return c;
+	}
+
+	/** writes all parameters as (name, value) pairs of strings */
+	public void writeTo(final DataOutput out) throws IOException {
+		final Field[] fields = SimulationConfig.class.getFields();
+		out.writeInt(fields.length);
+		try {
+			for (Field f : fields) {
+				out.writeUTF(f.getName());
+				out.writeUTF(String.valueOf(f.get(this)));
+			}
+		} catch (IllegalAccessException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/** reads parameters written with writeTo(), parameters not known to this version are ignored */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static SimulationConfig readFrom(final DataInput in) throws IOException {
+		final SimulationConfig c = new SimulationConfig();
+		final int cnt = in.readInt();
+		try {
+			for (int i = 0; i < cnt; ++i) {
+				final String name = in.readUTF();
+				final String value = in.readUTF();
+				final Field f;
+				try {
+					f = SimulationConfig.class.getField(name);
+				} catch (NoSuchFieldException e) {
+					continue;
+				}
+				final Class<?> type = f.getType();
+				if (type == int.class) f.setInt(c, Integer.parseInt(value));
+				else if (type == long.class) f.setLong(c, Long.parseLong(value));
+				else if (type == double.class) f.setDouble(c, Double.parseDouble(value));
+				else if (type == boolean.class) f.setBoolean(c, Boolean.parseBoolean(value));
+				else if (type.isEnum()) f.set(c, Enum.valueOf((Class<Enum>)type, value));
+				else f.set(c, value);
+			}
+		} catch (IllegalAccessException | IllegalArgumentException e) {
+			throw new IOException(e);
+		}
+		return c;
+	}
 }
@@ -0,0 +1,136 @@
+package org.ulman.simulator;
+
+/** The parameters of one {@link Simulator}, taken from a {@link SimulationConfig} when the simulator is created
+ *  and never changed afterwards, so that more simulators with different parameters can run at the same time
+ *  (see {@link org.ulman.simulator.ui.EnsembleRunner}). The meaning of the parameters is given with
+ *  the same-named defaults in the Simulator, e.g. {@link Simulator#AGENT_LOOK_AROUND_DISTANCE}. */
+public final class SimulationParams {
+	public final AgentNamingPolicy LABELS_NAMING_POLICY;
+	public final boolean COLLECT_INTERNAL_DATA;
+	public final String COLLECT_INTERNAL_DATA_FILE;
+	public final boolean VERBOSE_AGENT_DEBUG;
+	public final int TRACE_EVERY_NTH_AGENT;
+	public final String TRACE_AGENTS_IN_ROI;
+	public final boolean VERBOSE_SIMULATOR_DEBUG;
+	public final String SIMULATION_PROFILE_FILE;
+	public final String SIMULATION_STATS_FILE;
+	public final double AGENT_LOOK_AROUND_DISTANCE;
+	public final double AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
+	public final double AGENT_USUAL_STEP_SIZE;
+	public final int AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE;
+	public final Agent2dMovesRestriction AGENT_DO_2D_MOVES_ONLY;
+	public final int AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION;
+	public final int AGENT_MAX_LIFESPAN_AND_DIES_AFTER;
+	public final int AGENT_MAX_DENSITY_TO_ENABLE_DIVISION;
+	public final double AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES;
+	public final double AGENT_DAUGHTERS_INITIAL_DISTANCE;
+	public final double AGENT_DAUGHTERS_DOZERING_DISTANCE;
+	public final int AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
+	public final double AGENT_INITIAL_RADIUS;
+	public final boolean CREATE_MASTODON_CENTER_SPOT;
+	public final String PUBLISH_ONLY_IN_ROI;
+	public final String PUBLISH_ONLY_LINEAGES;
+	public final int PUBLISH_EVERY_NTH_LINEAGE;
+	public final String EXPORT_TRACKS_FILE;
+	public final String EXPORT_CTC_TRACKS_FILE;
+	public final boolean EXPORT_ONLY;
+	public final long RANDOM_SEED;
+	public final int SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+	public final double AGENT_NEIGHBORS_LIST_SKIN;
+	public final int SIMULATION_PARALLELISM;
+	public final int SIMULATION_TILE_SIZE;
+	public final boolean SIMULATION_BATCHED_KERNELS;
+
+	//the configuration the parameters were taken from, see toConfig()
+	private final SimulationConfig config;
+
+	public SimulationParams(final SimulationConfig config) {
+		final SimulationConfig c = config.copy();
+		LABELS_NAMING_POLICY = c.LABELS_NAMING_POLICY;
+		COLLECT_INTERNAL_DATA = c.COLLECT_INTERNAL_DATA;
+		COLLECT_INTERNAL_DATA_FILE = c.COLLECT_INTERNAL_DATA_FILE;
+		VERBOSE_AGENT_DEBUG = c.VERBOSE_AGENT_DEBUG;
+		TRACE_EVERY_NTH_AGENT = c.TRACE_EVERY_NTH_AGENT;
+		TRACE_AGENTS_IN_ROI = c.TRACE_AGENTS_IN_ROI;
+		VERBOSE_SIMULATOR_DEBUG = c.VERBOSE_SIMULATOR_DEBUG;
+		SIMULATION_PROFILE_FILE = c.SIMULATION_PROFILE_FILE;
+		SIMULATION_STATS_FILE = c.SIMULATION_STATS_FILE;
+		AGENT_LOOK_AROUND_DISTANCE = c.AGENT_LOOK_AROUND_DISTANCE;
+		AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT = c.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
+		AGENT_USUAL_STEP_SIZE = c.AGENT_USUAL_STEP_SIZE;
+		AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE = c.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE;
+		AGENT_DO_2D_MOVES_ONLY = c.AGENT_DO_2D_MOVES_ONLY;
+		AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION = c.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION;
+		AGENT_MAX_LIFESPAN_AND_DIES_AFTER = c.AGENT_MAX_LIFESPAN_AND_DIES_AFTER;
+		AGENT_MAX_DENSITY_TO_ENABLE_DIVISION = c.AGENT_MAX_DENSITY_TO_ENABLE_DIVISION;
+		AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES = c.AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES;
+		AGENT_DAUGHTERS_INITIAL_DISTANCE = c.AGENT_DAUGHTERS_INITIAL_DISTANCE;
+		AGENT_DAUGHTERS_DOZERING_DISTANCE = c.AGENT_DAUGHTERS_DOZERING_DISTANCE;
+		AGENT_DAUGHTERS_DOZERING_TIME_PERIOD = c.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
+		AGENT_INITIAL_RADIUS = c.AGENT_INITIAL_RADIUS;
+		CREATE_MASTODON_CENTER_SPOT = c.CREATE_MASTODON_CENTER_SPOT;
+		PUBLISH_ONLY_IN_ROI = c.PUBLISH_ONLY_IN_ROI;
+		PUBLISH_ONLY_LINEAGES = c.PUBLISH_ONLY_LINEAGES;
+		PUBLISH_EVERY_NTH_LINEAGE = c.PUBLISH_EVERY_NTH_LINEAGE;
+		EXPORT_TRACKS_FILE = c.EXPORT_TRACKS_FILE;
+		EXPORT_CTC_TRACKS_FILE = c.EXPORT_CTC_TRACKS_FILE;
+		EXPORT_ONLY = c.EXPORT_ONLY;
+		RANDOM_SEED = c.RANDOM_SEED;
+		SIMULATION_SUBSTEPS_PER_TIMEPOINT = c.SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+		AGENT_NEIGHBORS_LIST_SKIN = c.AGENT_NEIGHBORS_LIST_SKIN;
+		SIMULATION_PARALLELISM = c.SIMULATION_PARALLELISM;
+		SIMULATION_TILE_SIZE = c.SIMULATION_TILE_SIZE;
+		SIMULATION_BATCHED_KERNELS = c.SIMULATION_BATCHED_KERNELS;
+		this.config = c;
+	}
+
+	/** a new configuration with these parameters, e.g. to be changed into the configuration of another simulator */
+	public SimulationConfig toConfig() {
+		return config.copy();
+	}
+
+	/** how many times the agents are advanced per time point, see {@link Simulator#SIMULATION_SUBSTEPS_PER_TIMEPOINT} */
+	public int substeps() {
+		return Math.max(SIMULATION_SUBSTEPS_PER_TIMEPOINT, 1);
+	}
+
+	@Override
+	public String toString() {
+		return "Simulation parameters:" +
+				"\n  LABELS_NAMING_POLICY: " + LABELS_NAMING_POLICY +
+				"\n  COLLECT_INTERNAL_DATA: " + COLLECT_INTERNAL_DATA +
+				"\n  COLLECT_INTERNAL_DATA_FILE: " + COLLECT_INTERNAL_DATA_FILE +
+				"\n  VERBOSE_AGENT_DEBUG: " + VERBOSE_AGENT_DEBUG +
+				"\n  TRACE_EVERY_NTH_AGENT: " + TRACE_EVERY_NTH_AGENT +
+				"\n  TRACE_AGENTS_IN_ROI: " + TRACE_AGENTS_IN_ROI +
+				"\n  VERBOSE_SIMULATOR_DEBUG: " + VERBOSE_SIMULATOR_DEBUG +
+				"\n  SIMULATION_PROFILE_FILE: " + SIMULATION_PROFILE_FILE +
+				"\n  SIMULATION_STATS_FILE: " + SIMULATION_STATS_FILE +
+				"\n  AGENT_LOOK_AROUND_DISTANCE: " + AGENT_LOOK_AROUND_DISTANCE +
+				"\n  AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT: " + AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT +
+				"\n  AGENT_USUAL_STEP_SIZE: " + AGENT_USUAL_STEP_SIZE +
+				"\n  AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE: " + AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE +
+				"\n  AGENT_DO_2D_MOVES_ONLY: " + AGENT_DO_2D_MOVES_ONLY +
+				"\n  AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION: " + AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION +
+				"\n  AGENT_MAX_LIFESPAN_AND_DIES_AFTER: " + AGENT_MAX_LIFESPAN_AND_DIES_AFTER +
+				"\n  AGENT_MAX_DENSITY_TO_ENABLE_DIVISION: " + AGENT_MAX_DENSITY_TO_ENABLE_DIVISION +
+				"\n  AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES: " + AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES +
+				"\n  AGENT_DAUGHTERS_INITIAL_DISTANCE: " + AGENT_DAUGHTERS_INITIAL_DISTANCE +
+				"\n  AGENT_DAUGHTERS_DOZERING_DISTANCE: " + AGENT_DAUGHTERS_DOZERING_DISTANCE +
+				"\n  AGENT_DAUGHTERS_DOZERING_TIME_PERIOD: " + AGENT_DAUGHTERS_DOZERING_TIME_PERIOD +
+				"\n  AGENT_INITIAL_RADIUS: " + AGENT_INITIAL_RADIUS +
+				"\n  CREATE_MASTODON_CENTER_SPOT: " + CREATE_MASTODON_CENTER_SPOT +
+				"\n  PUBLISH_ONLY_IN_ROI: " + PUBLISH_ONLY_IN_ROI +
+				"\n  PUBLISH_ONLY_LINEAGES: " + PUBLISH_ONLY_LINEAGES +
+				"\n  PUBLISH_EVERY_NTH_LINEAGE: " + PUBLISH_EVERY_NTH_LINEAGE +
+				"\n  EXPORT_TRACKS_FILE: " + EXPORT_TRACKS_FILE +
+				"\n  EXPORT_CTC_TRACKS_FILE: " + EXPORT_CTC_TRACKS_FILE +
+				"\n  EXPORT_ONLY: " + EXPORT_ONLY +
+				"\n  RANDOM_SEED: " + RANDOM_SEED +
+				"\n  SIMULATION_SUBSTEPS_PER_TIMEPOINT: " + SIMULATION_SUBSTEPS_PER_TIMEPOINT +
+				"\n  AGENT_NEIGHBORS_LIST_SKIN: " + AGENT_NEIGHBORS_LIST_SKIN +
+				"\n  SIMULATION_PARALLELISM: " + SIMULATION_PARALLELISM +
+				"\n  SIMULATION_TILE_SIZE: " + SIMULATION_TILE_SIZE +
+				"\n  SIMULATION_BATCHED_KERNELS: " + SIMULATION_BATCHED_KERNELS;
+	}
+}
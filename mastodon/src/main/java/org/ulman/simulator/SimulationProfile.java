@@ -0,0 +1,150 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** The timeline of the simulation: per every time point, how long (in nanoseconds) the individual
+ *  phases of the simulation took, and how many times the agents did what, see {@link Phase} and
+ *  {@link Counter}. Export it with {@link SimulationProfile#exportTo(String)}. */
+public class SimulationProfile {
+	public enum Phase {
+		/** rebuilding the neighbors grid (and the neighbors lists) */
+		NEIGHBORS,
+		/** refreshing the hinting spheres */
+		HINTS,
+		/** advancing the agents */
+		PROGRESS,
+		/** making the agents' next positions the current ones */
+		FINISH,
+		/** registering the new and the dead agents */
+		COMMIT,
+		/** taking the record of the time point */
+		RECORD,
+		/** writing (or handing over) the records into Mastodon */
+		PUBLISH
+	}
+
+	public enum Counter {
+		AGENTS,
+		NEIGHBOR_QUERIES,
+		NEIGHBORS_FOUND,
+		MOVE_ATTEMPTS,
+		BLOCKED_MOVES,
+		DIVISION_ATTEMPTS,
+		DIVISIONS,
+		BIRTHS,
+		DEATHS
+	}
+
+	private static final int PHASES = Phase.values().length;
+	private static final int COLUMNS = PHASES + Counter.values().length;
+
+	/** counters of one thread that advances agents, see {@link SimulationProfile#add(int, AgentCounters)} */
+	static final class AgentCounters {
+		long neighborQueries, neighborsFound;
+		long moveAttempts, blockedMoves;
+		long divisionAttempts, divisions;
+	}
+
+	//time -> phases' nanoseconds followed by the counters
+	private final Map<Integer,long[]> timeline = new LinkedHashMap<>();
+
+	private long[] row(final int time) {
+		return timeline.computeIfAbsent(time, t -> new long[COLUMNS]);
+	}
+
+	/** the phase is over now, it started at 'startNanos' (as given by System.nanoTime()) */
+	void phaseDone(final int time, final Phase phase, final long startNanos) {
+		row(time)[phase.ordinal()] += System.nanoTime() - startNanos;
+	}
+
+	void count(final int time, final Counter counter, final long value) {
+		row(time)[PHASES + counter.ordinal()] += value;
+	}
+
+	void set(final int time, final Counter counter, final long value) {
+		row(time)[PHASES + counter.ordinal()] = value;
+	}
+
+	/** adds, and resets, the counters of one thread */
+	void add(final int time, final AgentCounters c) {
+		final long[] r = row(time);
+		r[PHASES + Counter.NEIGHBOR_QUERIES.ordinal()] += c.neighborQueries;
+		r[PHASES + Counter.NEIGHBORS_FOUND.ordinal()] += c.neighborsFound;
+		r[PHASES + Counter.MOVE_ATTEMPTS.ordinal()] += c.moveAttempts;
+		r[PHASES + Counter.BLOCKED_MOVES.ordinal()] += c.blockedMoves;
+		r[PHASES + Counter.DIVISION_ATTEMPTS.ordinal()] += c.divisionAttempts;
+		r[PHASES + Counter.DIVISIONS.ordinal()] += c.divisions;
+		c.neighborQueries = 0;
+		c.neighborsFound = 0;
+		c.moveAttempts = 0;
+		c.blockedMoves = 0;
+		c.divisionAttempts = 0;
+		c.divisions = 0;
+	}
+
+	public long getNanos(final int time, final Phase phase) {
+		final long[] r = timeline.get(time);
+		return r != null ? r[phase.ordinal()] : 0;
+	}
+
+	public long getCount(final int time, final Counter counter) {
+		final long[] r = timeline.get(time);
+		return r != null ? r[PHASES + counter.ordinal()] : 0;
+	}
+
+	private static double neighborsPerQuery(final long[] r) {
+		final long queries = r[PHASES + Counter.NEIGHBOR_QUERIES.ordinal()];
+		return queries > 0 ? (double)r[PHASES + Counter.NEIGHBORS_FOUND.ordinal()] / (double)queries : 0.0;
+	}
+
+	/** writes JSON if the file name ends with ".json", CSV otherwise */
+	public void exportTo(final String filename) throws IOException {
+		if (filename.toLowerCase(Locale.ROOT).endsWith(".json")) writeJson(Paths.get(filename));
+		else writeCsv(Paths.get(filename));
+	}
+
+	/** one row per time point, the phases are in nanoseconds */
+	public void writeCsv(final Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			final StringBuilder header = new StringBuilder("time");
+			for (Phase p : Phase.values()) header.append(',').append(p.name().toLowerCase(Locale.ROOT)).append("_ns");
+			for (Counter c : Counter.values()) header.append(',').append(c.name().toLowerCase(Locale.ROOT));
+			header.append(",neighbors_per_query");
+			out.println(header);
+
+			for (Map.Entry<Integer,long[]> e : timeline.entrySet()) {
+				out.print(e.getKey());
+				for (long v : e.getValue()) out.print("," + v);
+				out.printf(Locale.ROOT, ",%.3f%n", neighborsPerQuery(e.getValue()));
+			}
+		}
+	}
+
+	/** an array of objects, one per time point, the phases are in nanoseconds */
+	public void writeJson(final Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			out.println("[");
+			int rowsLeft = timeline.size();
+			for (Map.Entry<Integer,long[]> e : timeline.entrySet()) {
+				final long[] r = e.getValue();
+				out.print("  {\"time\": " + e.getKey());
+				for (Phase p : Phase.values()) {
+					out.print(", \"" + p.name().toLowerCase(Locale.ROOT) + "_ns\": " + r[p.ordinal()]);
+				}
+				for (Counter c : Counter.values()) {
+					out.print(", \"" + c.name().toLowerCase(Locale.ROOT) + "\": " + r[PHASES + c.ordinal()]);
+				}
+				out.printf(Locale.ROOT, ", \"neighbors_per_query\": %.3f}", neighborsPerQuery(r));
+				out.println(--rowsLeft > 0 ? "," : "");
+			}
+			out.println("]");
+		}
+	}
+}
@@ -1,8 +1,9 @@
 package org.ulman.simulator;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.util.Util;
-import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
 import org.mastodon.mamut.ProjectModel;
 import org.mastodon.mamut.model.ModelGraph;
 import org.mastodon.mamut.model.Spot;
@@ -10,24 +11,47 @@ import org.mastodon.mamut.model.Link;
 import org.mastodon.spatial.SpatialIndex;
 import org.mastodon.model.SelectionModel;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.LinkedHashMap;
-import java.util.Random;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 
 
 public class Simulator {
+	//NB: the static parameters below are only the defaults of new SimulationConfigs,
+	//    every simulator takes its own SimulationParams when it is created, see getParams()
 	/** Spots labels can be either 'M' or can be encoding the lineage history, also optionally with debug hints _B,_W,_BW. */
 	public static AgentNamingPolicy LABELS_NAMING_POLICY = AgentNamingPolicy.ENCODING_LABELS;
 	/** Collect internal status info per every Agent. If not, may speed up the simulation as no extra data will be stored. */
 	public static boolean COLLECT_INTERNAL_DATA = false;
+	/** Where the internal data are collected into, convert this file to CSV with {@link EventLog#main(String[])}. */
+	public static String COLLECT_INTERNAL_DATA_FILE = "simulator_events.bin";
 	/** Prints a lot of data to understand decisions making of the agents. */
 	public static boolean VERBOSE_AGENT_DEBUG = false;
+	/** Traces decisions of every N-th agent (by its ID) without slowing down the others, 0 means none. */
+	public static int TRACE_EVERY_NTH_AGENT = 0;
+	/** Traces decisions of agents within this box "minX,minY,minZ,maxX,maxY,maxZ", empty means none. */
+	public static String TRACE_AGENTS_IN_ROI = "";
 	/** Prints relative little reports about what the simulation framework was asked to do. */
 	public static boolean VERBOSE_SIMULATOR_DEBUG = false;
+	/** Where the per-time-point durations of the simulation phases and counts of agents' actions are exported
+	 *  when the simulation is closed, as JSON if it ends with ".json" or CSV otherwise; empty means nowhere. */
+	public static String SIMULATION_PROFILE_FILE = "";
+	/** Where the per-time-point statistics of the agents (their count, centroid, bounding box, divisions, deaths and
+	 *  density) are exported as CSV when the simulation is closed, see {@link TimepointStats}; empty means nowhere. */
+	public static String SIMULATION_STATS_FILE = "";
 
 	/** How far around shall an agent look for "nearby" agents to consider their positions for its own development. */
 	public static double AGENT_LOOK_AROUND_DISTANCE = 4.2;
@@ -66,16 +90,57 @@ public class Simulator {
 
 	/** Using this radius the new spots are introduced into the simulation. */
 	public static double AGENT_INITIAL_RADIUS = 1.5;
+	/** Seed of the random generators, the same seed gives the same simulation regardless of the number of threads.
+	 *  Zero means that some seed is chosen (and reported) when the simulation starts. */
+	public static long RANDOM_SEED = 0;
+	/** Agents are advanced this many times between two time points, each time with a proportionally shorter step
+	 *  and with proportionally longer (in these sub-steps) life spans and dozering; only the last sub-step before
+	 *  every time point is recorded into Mastodon; 1 means that agents are advanced once per time point. */
+	public static int SIMULATION_SUBSTEPS_PER_TIMEPOINT = 1;
+
+	/** Agents remember their neighbors within the look around distance enlarged by this skin, and re-search
+	 *  for them only after some agent has moved more than half of the skin; 0 means to search every time point. */
+	public static double AGENT_NEIGHBORS_LIST_SKIN = 0.0;
+	/** How many threads advance the agents, 0 means as many as there are available cores. */
+	public static int SIMULATION_PARALLELISM = 0;
+	/** Agents are advanced in tiles: cubes of this many neighbor-search cells along every axis,
+	 *  agents of one tile are typically advanced by the same thread. */
+	public static int SIMULATION_TILE_SIZE = 4;
+	/** Agents evaluate their neighbors in batches, which the JIT compiler can vectorize; the results are
+	 *  bit-for-bit the same as when every neighbor is evaluated on its own (when false). */
+	public static boolean SIMULATION_BATCHED_KERNELS = true;
+
 	/** Produce a \"lineage\" that stays in the geometric centre of the generated data. */
 	public static boolean CREATE_MASTODON_CENTER_SPOT = false;
+	/** Only agents within this box "minX,minY,minZ,maxX,maxY,maxZ" or sphere "x,y,z,radius" become spots,
+	 *  while all agents are simulated; empty means everywhere. */
+	public static String PUBLISH_ONLY_IN_ROI = "";
+	/** Only agents of these comma-separated lineages (e.g. "1a,3") and their descendants become spots,
+	 *  while all agents are simulated; empty means all lineages. */
+	public static String PUBLISH_ONLY_LINEAGES = "";
+	/** Only agents of every N-th lineage (chosen by the label of the lineage's root, the same in every run)
+	 *  become spots, while all agents are simulated; 1 means all lineages. */
+	public static int PUBLISH_EVERY_NTH_LINEAGE = 1;
+	/** Stream all agents of every time point into this columnar binary file, see {@link TracksExport}; empty means don't. */
+	public static String EXPORT_TRACKS_FILE = "";
+	/** Stream the tracks into this Cell Tracking Challenge res_track.txt file; empty means don't. */
+	public static String EXPORT_CTC_TRACKS_FILE = "";
+	/** Don't create any Mastodon spots when the time points are exported into the files above. */
+	public static boolean EXPORT_ONLY = false;
 
 	public final static String MASTODON_CENTER_SPOT_NAME = "centre";
 
+	/** sets the defaults, the simulators created afterwards (without their own configuration) take them */
 	public static void setParamsFromConfig(final SimulationConfig c) {
 		LABELS_NAMING_POLICY = c.LABELS_NAMING_POLICY;
 		COLLECT_INTERNAL_DATA = c.COLLECT_INTERNAL_DATA;
+		COLLECT_INTERNAL_DATA_FILE = c.COLLECT_INTERNAL_DATA_FILE;
 		VERBOSE_AGENT_DEBUG = c.VERBOSE_AGENT_DEBUG;
+		TRACE_EVERY_NTH_AGENT = c.TRACE_EVERY_NTH_AGENT;
+		TRACE_AGENTS_IN_ROI = c.TRACE_AGENTS_IN_ROI;
 		VERBOSE_SIMULATOR_DEBUG = c.VERBOSE_SIMULATOR_DEBUG;
+		SIMULATION_PROFILE_FILE = c.SIMULATION_PROFILE_FILE;
+		SIMULATION_STATS_FILE = c.SIMULATION_STATS_FILE;
 		AGENT_LOOK_AROUND_DISTANCE = c.AGENT_LOOK_AROUND_DISTANCE;
 		AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT = c.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
 		AGENT_USUAL_STEP_SIZE = c.AGENT_USUAL_STEP_SIZE;
@@ -90,116 +155,253 @@ public class Simulator {
 		AGENT_DAUGHTERS_DOZERING_TIME_PERIOD = c.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
 		AGENT_INITIAL_RADIUS = c.AGENT_INITIAL_RADIUS;
 		CREATE_MASTODON_CENTER_SPOT = c.CREATE_MASTODON_CENTER_SPOT;
+		PUBLISH_ONLY_IN_ROI = c.PUBLISH_ONLY_IN_ROI;
+		PUBLISH_ONLY_LINEAGES = c.PUBLISH_ONLY_LINEAGES;
+		PUBLISH_EVERY_NTH_LINEAGE = c.PUBLISH_EVERY_NTH_LINEAGE;
+		EXPORT_TRACKS_FILE = c.EXPORT_TRACKS_FILE;
+		EXPORT_CTC_TRACKS_FILE = c.EXPORT_CTC_TRACKS_FILE;
+		EXPORT_ONLY = c.EXPORT_ONLY;
+		RANDOM_SEED = c.RANDOM_SEED;
+		SIMULATION_SUBSTEPS_PER_TIMEPOINT = c.SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+		AGENT_NEIGHBORS_LIST_SKIN = c.AGENT_NEIGHBORS_LIST_SKIN;
+		SIMULATION_PARALLELISM = c.SIMULATION_PARALLELISM;
+		SIMULATION_TILE_SIZE = c.SIMULATION_TILE_SIZE;
+		SIMULATION_BATCHED_KERNELS = c.SIMULATION_BATCHED_KERNELS;
 	}
 
 	@Override
 	public String toString() {
-		return "Simulation parameters:\n" + "  LABELS_NAMING_POLICY: " + LABELS_NAMING_POLICY +
-				"\n  AGENT_LOOK_AROUND_DISTANCE: " + AGENT_LOOK_AROUND_DISTANCE +
-				"\n  AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT: " + AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT +
-				"\n  AGENT_USUAL_STEP_SIZE: " + AGENT_USUAL_STEP_SIZE +
-				"\n  AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE: " + AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE +
-				"\n  AGENT_DO_2D_MOVES_ONLY: " + AGENT_DO_2D_MOVES_ONLY +
-				"\n  AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION: " + AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION +
-				"\n  AGENT_MAX_LIFESPAN_AND_DIES_AFTER: " + AGENT_MAX_LIFESPAN_AND_DIES_AFTER +
-				"\n  AGENT_MAX_DENSITY_TO_ENABLE_DIVISION: " + AGENT_MAX_DENSITY_TO_ENABLE_DIVISION +
-				"\n  AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES: " + AGENT_MAX_VARIABILITY_OF_DIVISION_PLANES +
-				"\n  AGENT_DAUGHTERS_INITIAL_DISTANCE: " + AGENT_DAUGHTERS_INITIAL_DISTANCE +
-				"\n  AGENT_DAUGHTERS_DOZERING_DISTANCE: " + AGENT_DAUGHTERS_DOZERING_DISTANCE +
-				"\n  AGENT_DAUGHTERS_DOZERING_TIME_PERIOD: " + AGENT_DAUGHTERS_DOZERING_TIME_PERIOD +
-				"\n  AGENT_INITIAL_RADIUS: " + AGENT_INITIAL_RADIUS +
-				"\n  CREATE_MASTODON_CENTER_SPOT: " + CREATE_MASTODON_CENTER_SPOT;
+		return params.toString();
 	}
 
 
 	private int assignedIds = 0;
 	private int time = 0;
 	private long spotsInTotal = 0;
-	private final Map<Integer,Agent> agentsContainer = new LinkedHashMap<>(5000000);
+	private final AgentsStore agentsContainer = new AgentsStore(1 << 16);
+
+	/** all current agents, e.g. for the benchmarks to load their working copies from */
+	AgentsStore getAgentsStore() {
+		return agentsContainer;
+	}
 	private final List<Agent> newAgentsContainer = new ArrayList<>(2000000);
-	private final List<Agent> deadAgentsContainer = new ArrayList<>(2000000);
+	//slots (in the agentsContainer) of the agents to be removed
+	private final TIntArrayList deadAgentsContainer = new TIntArrayList(2000000);
+
+	//agents register and deregister into their thread's own buffers, which are
+	//merged into the two containers above only in commitNewAndDeadAgents()
+	private static class RegistrationsBuffer {
+		final List<Agent> newAgents = new ArrayList<>(1000);
+		final TIntArrayList deadAgents = new TIntArrayList(1000);
+		void clear() {
+			newAgents.clear();
+			deadAgents.clear();
+		}
+	}
+	private final List<RegistrationsBuffer> allRegistrationsBuffers = new ArrayList<>(64);
+	private final ThreadLocal<RegistrationsBuffer> registrationsBuffers = ThreadLocal.withInitial(() -> {
+		final RegistrationsBuffer b = new RegistrationsBuffer();
+		synchronized (allRegistrationsBuffers) { allRegistrationsBuffers.add(b); }
+		return b;
+	});
 
 	private final ProjectModel projectModel;
 	private final ReentrantReadWriteLock lock;
 
+	//this simulator's own parameters
+	final SimulationParams params;
+
+	public SimulationParams getParams() {
+		return params;
+	}
+
+	/** simulator with the parameters as they are currently set in the static fields, see setParamsFromConfig() */
 	public Simulator(final ProjectModel projectModel) {
+		this(projectModel, new SimulationConfig());
+	}
+
+	/** simulator with its own parameters, later changes of the 'config' are not seen by it */
+	public Simulator(final ProjectModel projectModel, final SimulationConfig config) {
+		this.params = new SimulationParams(config);
 		this.projectModel = projectModel;
 		this.lock = projectModel.getModel().getGraph().getLock();
+		this.publisher = new MastodonPublisher(projectModel.getModel().getGraph(), params.LABELS_NAMING_POLICY);
 	}
 
+	/** simulator without any Mastodon project, it can only record its time points,
+	 *  and it sees no hinting spheres (e.g. a worker of the {@link DistributedCoordinator}) */
+	Simulator(final SimulationConfig config) {
+		this.params = new SimulationParams(config);
+		this.projectModel = null;
+		this.lock = null;
+		this.publisher = null;
+	}
+
+	//new IDs are idsOffset + k*idsStride, for k = 1,2,3...
+	private int idsOffset = 0;
+	private int idsStride = 1;
+
 	synchronized
 	public int getNewId() {
 		this.assignedIds += 1;
-		return this.assignedIds;
+		return idsOffset + this.assignedIds * idsStride;
+	}
+
+	/** makes this simulator to draw its new IDs only from idsOffset + k*idsStride, k = 1,2,3...,
+	 *  so that more simulators can create agents without any two ever having the same ID */
+	void setIdsAllocation(final int idsOffset, final int idsStride) {
+		this.idsOffset = idsOffset;
+		this.idsStride = idsStride;
+		this.assignedIds = 0;
+	}
+
+	int getLastUsedId() {
+		return idsOffset + this.assignedIds * idsStride;
 	}
 
 	public int getTime() {
 		return time;
 	}
 
-	synchronized
+	//the clock of the agents, it ticks substeps() times per one time point
+	private int agentsTime = 0;
+
+	int substeps() {
+		return params.substeps();
+	}
+
+	private void setTime(final int timePoint) {
+		this.time = timePoint;
+		this.agentsTime = timePoint * substeps();
+	}
+
+	private long seed = 0;
+	public long getSeed() {
+		return seed;
+	}
+
+	/** for simulators that are given their agents (and not populate()-ed) */
+	void startAt(final int timePoint, final long seed) {
+		setTime(timePoint);
+		this.seed = seed;
+	}
+
+	private void setupSeed() {
+		if (seed != 0) return;
+		seed = params.RANDOM_SEED != 0 ? params.RANDOM_SEED : System.nanoTime();
+		System.out.println("========== SIM: random seed is " + seed);
+	}
+
 	public void registerAgent(Agent spot) {
-		if (VERBOSE_SIMULATOR_DEBUG) {
-			System.out.println("========== SIM: registering agent " + spot.getId());
+		if (params.VERBOSE_SIMULATOR_DEBUG) {
+			System.out.println("========== SIM: registering agent " + spot.getId() + " of parent " + spot.getParentId());
 		}
-		this.newAgentsContainer.add(spot);
+		registrationsBuffers.get().newAgents.add(spot);
 	}
 
-	synchronized
 	public void deregisterAgent(Agent spot) {
-		if (VERBOSE_SIMULATOR_DEBUG) {
+		if (params.VERBOSE_SIMULATOR_DEBUG) {
 			System.out.println("========== SIM: DEregistering agent " + spot.getId());
 		}
-		this.deadAgentsContainer.add(spot);
+		registrationsBuffers.get().deadAgents.add(spot.getSlot());
+	}
+
+	void clearRegistrations() {
+		newAgentsContainer.clear();
+		deadAgentsContainer.clear();
+		synchronized (allRegistrationsBuffers) {
+			for (RegistrationsBuffer b : allRegistrationsBuffers) b.clear();
+		}
 	}
 
 	public void commitNewAndDeadAgents() {
+		synchronized (allRegistrationsBuffers) {
+			for (RegistrationsBuffer b : allRegistrationsBuffers) {
+				newAgentsContainer.addAll(b.newAgents);
+				deadAgentsContainer.addAll(b.deadAgents);
+				b.clear();
+			}
+		}
+
 		final int expectedSize = agentsContainer.size() - deadAgentsContainer.size() + newAgentsContainer.size();
-		deadAgentsContainer.forEach(a -> agentsContainer.remove(a.getId(),a));
-		newAgentsContainer.forEach(a -> agentsContainer.put(a.getId(),a));
+		//NB: the order of the lists reflects which threads the agents were advanced with,
+		//    make it reproducible first, for the sake of the slots and IDs assignments
+		deadAgentsContainer.sort();
+		newAgentsContainer.sort(Comparator.comparingInt(Agent::getParentId)); //stable, 'a' daughters stay first
+
+		//NB: new agents go first while their mothers are still around, so that they can inherit their neighbors
+		TIntIntHashMap deadSlotsOfIds = null;
+		if (verletLists.isValid() && !newAgentsContainer.isEmpty()) {
+			deadSlotsOfIds = new TIntIntHashMap(2*deadAgentsContainer.size()+1, 0.5f, 0, -1);
+			for (int i = 0; i < deadAgentsContainer.size(); ++i) {
+				deadSlotsOfIds.put(agentsContainer.id[deadAgentsContainer.get(i)], deadAgentsContainer.get(i));
+			}
+		}
+		for (Agent a : newAgentsContainer) {
+			if (a.getId() == 0) a.assignId(getNewId());
+			final int slot = agentsContainer.allocateSlot();
+			a.saveTo(agentsContainer, slot);
+			bornSinceLastRecord.add(a.getId());
+			bornFromSinceLastRecord.add(a.getParentId());
+			if (eventLog != null) a.recordInto(eventLog);
+			if (deadSlotsOfIds != null) {
+				final int motherSlot = deadSlotsOfIds.get(a.getParentId());
+				if (motherSlot != -1) verletLists.agentBorn(agentsContainer, slot, motherSlot);
+				else verletLists.invalidate();
+			}
+		}
+		for (int i = 0; i < deadAgentsContainer.size(); ++i) {
+			final int slot = deadAgentsContainer.get(i);
+			diedSinceLastRecord.add(agentsContainer.id[slot]);
+			verletLists.agentRemoved(slot);
+			agentsContainer.releaseSlot(slot);
+		}
 		if (agentsContainer.size() != expectedSize) {
 			System.out.println("========== SIM: ERROR with updating the main lists of agents");
 		}
+		profile.count(time, SimulationProfile.Counter.BIRTHS, newAgentsContainer.size());
+		profile.count(time, SimulationProfile.Counter.DEATHS, deadAgentsContainer.size());
+		newAgentsContainer.clear();
+		deadAgentsContainer.clear();
 	}
 
 
 	public static final double SKIP_NEIGHBOR_SEARCH_DISTANCE = -10240.0;
 
-	/** returns how many coordinates it has put into the array 'nearbySpheres', and
-	 *  returns the actual last offset (so divide by four to learn how many neighbors are there);
+	/** fills 'nearbySpheres' with the agents around the given one, and returns how many there are;
 	 *  the actual surface-to-surface distance is measured (the 'searchDistance' parameter) and
 	 *  can be even provided negative (e.g. to detect only overlapping neighbors);
 	 *  if Simulator.SKIP_NEIGHBOR_SEARCH_DISTANCE is provided for 'searchDistance',
 	 *  then this function quits immediately, without doing any search */
-	int getListOfOccupiedCoords(final Agent fromThisAgent, final double searchDistance, final double[] nearbySpheres) {
+	int getListOfOccupiedCoords(final Agent fromThisAgent, final double searchDistance, final NeighborSpheres nearbySpheres) {
+		nearbySpheres.clear();
 		//do no searching if the agent actually doesn't care...
 		if (searchDistance == SKIP_NEIGHBOR_SEARCH_DISTANCE) return 0;
-		final double radiusPlusSearchDistance = fromThisAgent.getR() + searchDistance;
 
-		//NB: should exist since this method is always called after this.pushToMastodonGraphAndUpdateStats()
-		final Spot thisSpot = fromThisAgent.getMostRecentMastodonSpotRepre();
-		final SpatialIndex< Spot > spatialIndex
-				= projectModel.getModel().getSpatioTemporalIndex().getSpatialIndex( thisSpot.getTimepoint() );
-		final IncrementalNearestNeighborSearch< Spot > search = spatialIndex.getIncrementalNearestNeighborSearch();
+		//NB: the lists and the grid are valid since they are always updated before agents are asked to progress in doOneTime()
+		if (verletLists.isValid() && searchDistance <= params.AGENT_LOOK_AROUND_DISTANCE) {
+			return verletLists.getListOfOccupiedCoords(agentsContainer, fromThisAgent, searchDistance, nearbySpheres);
+		}
+		return agentsGrid.getListOfOccupiedCoords(fromThisAgent, searchDistance, nearbySpheres);
+	}
+
+	//neighbors of all agents, reused over time points while the agents move little
+	private final VerletLists verletLists = new VerletLists();
 
-		search.search( thisSpot );
-		int off = 0;
-		while ( search.hasNext() && off < nearbySpheres.length )
-		{
-			final Spot neighborSpot = search.next();
-			if (neighborSpot.equals(thisSpot)) continue;
-			if (isHintingSphere(neighborSpot)) continue;
+	/** how many times the neighbors lists were (re)built per time point, see {@link Simulator#AGENT_NEIGHBORS_LIST_SKIN} */
+	public double getNeighborsListsRebuildRate() {
+		return verletLists.getRebuildRate();
+	}
 
-			final double neighborSpotR = Math.sqrt(neighborSpot.getBoundingSphereRadiusSquared());
-			if ( Util.distance(thisSpot,neighborSpot) >
-					(radiusPlusSearchDistance+neighborSpotR) ) break;
+	//positions of all agents as they were at the beginning of the current doOneTime()
+	private final AgentsGrid agentsGrid = new AgentsGrid();
+	//every sweeping thread is handed its own working copy of an agent (that carries the scratch buffers)
+	private final SweepScheduler<Agent> sweepScheduler = new SweepScheduler<>(() -> new Agent(this));
 
-			nearbySpheres[off++] = neighborSpot.getDoublePosition(0);
-			nearbySpheres[off++] = neighborSpot.getDoublePosition(1);
-			nearbySpheres[off++] = neighborSpot.getDoublePosition(2);
-			nearbySpheres[off++] = neighborSpotR;
-		}
-		return off;
+	/** advances the agents with the threads of this pool, which can be shared by more simulators running at the
+	 *  same time, instead of with a pool of {@link Simulator#SIMULATION_PARALLELISM} threads; null means not to */
+	public void setThreadPool(final ForkJoinPool pool) {
+		sweepScheduler.setSharedPool(pool);
 	}
 
 	public static final String STAY_INSIDE_SPHERES_NAME = "stay_inside";
@@ -219,52 +421,53 @@ public class Simulator {
 	int spheresCacheCurrentTimepoint = -1;
 	//
 	//NB: package protected... so, directly accessible from Agent... yeah, "da shortcut"
-	final double[] stayInsideSpheresSharedArray = new double[8192];
-	final double[] keepOutSpheresSharedArray = new double[8192];
-	final double[] holdPositionSpheresSharedArray = new double[8192];
-	int stayInsideSpheresSharedArrayMaxUsedIdx = -1;
-	int keepOutSpheresSharedArrayMaxUsedIdx = -1;
-	int holdPositionSpheresSharedArrayMaxUsedIdx = -1;
+	final HintingSpheres stayInsideSpheres = new HintingSpheres();
+	final HintingSpheres keepOutSpheres = new HintingSpheres();
+	final HintingSpheres holdPositionSpheres = new HintingSpheres();
 
-	synchronized
+	/** not thread-safe, intended to be called before the agents are advanced */
 	protected void updateSphereCaches(final int forThisTimepoint) {
 		//already valid/up-to-date?
-		if (VERBOSE_SIMULATOR_DEBUG) {
+		if (params.VERBOSE_SIMULATOR_DEBUG) {
 			System.out.println("========== SIM: requested hinting spheres for TP " + forThisTimepoint);
 		}
 		if (spheresCacheCurrentTimepoint == forThisTimepoint) return;
 
 		//else, reset cache and start filling it below....
-		stayInsideSpheresSharedArrayMaxUsedIdx = 0;
-		keepOutSpheresSharedArrayMaxUsedIdx = 0;
-		holdPositionSpheresSharedArrayMaxUsedIdx = 0;
-
-		final SpatialIndex< Spot > spatialIndex
-				= projectModel.getModel().getSpatioTemporalIndex().getSpatialIndex( forThisTimepoint );
-
-		for (Spot s : spatialIndex) {
-			if (s.getLabel().startsWith(STAY_INSIDE_SPHERES_NAME)) {
-				stayInsideSpheresSharedArray[stayInsideSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(0);
-				stayInsideSpheresSharedArray[stayInsideSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(1);
-				stayInsideSpheresSharedArray[stayInsideSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(2);
-				stayInsideSpheresSharedArray[stayInsideSpheresSharedArrayMaxUsedIdx++] = Math.sqrt(s.getBoundingSphereRadiusSquared());
-			} else if (s.getLabel().startsWith(KEEP_OUT_SPHERES_NAME)) {
-				keepOutSpheresSharedArray[keepOutSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(0);
-				keepOutSpheresSharedArray[keepOutSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(1);
-				keepOutSpheresSharedArray[keepOutSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(2);
-				keepOutSpheresSharedArray[keepOutSpheresSharedArrayMaxUsedIdx++] = Math.sqrt(s.getBoundingSphereRadiusSquared());
-			} else if (s.getLabel().startsWith(HOLD_POSITION_SPHERES_NAME)) {
-				holdPositionSpheresSharedArray[holdPositionSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(0);
-				holdPositionSpheresSharedArray[holdPositionSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(1);
-				holdPositionSpheresSharedArray[holdPositionSpheresSharedArrayMaxUsedIdx++] = s.getDoublePosition(2);
-				holdPositionSpheresSharedArray[holdPositionSpheresSharedArrayMaxUsedIdx++] = Math.sqrt(s.getBoundingSphereRadiusSquared());
+		stayInsideSpheres.clear();
+		keepOutSpheres.clear();
+		holdPositionSpheres.clear();
+		if (projectModel == null) return;
+
+		//NB: the graph may be concurrently written by the publishing thread, see startPipelinedPublishing(),
+		//    or by others (e.g. users in Mastodon) in between the live publishings, see open(boolean)
+		final boolean needsReadLock = pipelinedPublisher != null || livePublishing;
+		if (needsReadLock) lock.readLock().lock();
+		try {
+			final SpatialIndex< Spot > spatialIndex
+					= projectModel.getModel().getSpatioTemporalIndex().getSpatialIndex( forThisTimepoint );
+
+			for (Spot s : spatialIndex) {
+				final String label = s.getLabel();
+				final HintingSpheres target;
+				if (label.startsWith(STAY_INSIDE_SPHERES_NAME)) target = stayInsideSpheres;
+				else if (label.startsWith(KEEP_OUT_SPHERES_NAME)) target = keepOutSpheres;
+				else if (label.startsWith(HOLD_POSITION_SPHERES_NAME)) target = holdPositionSpheres;
+				else continue;
+				target.add(s.getDoublePosition(0), s.getDoublePosition(1), s.getDoublePosition(2),
+						Math.sqrt(s.getBoundingSphereRadiusSquared()));
 			}
+		} finally {
+			if (needsReadLock) lock.readLock().unlock();
 		}
+		stayInsideSpheres.build();
+		keepOutSpheres.build();
+		holdPositionSpheres.build();
 		spheresCacheCurrentTimepoint = forThisTimepoint;
 
-		if (VERBOSE_SIMULATOR_DEBUG) {
-			System.out.println("========== SIM: found "+(stayInsideSpheresSharedArrayMaxUsedIdx/4)
-				+", "+(keepOutSpheresSharedArrayMaxUsedIdx/4)+", "+(holdPositionSpheresSharedArrayMaxUsedIdx/4)
+		if (params.VERBOSE_SIMULATOR_DEBUG) {
+			System.out.println("========== SIM: found "+stayInsideSpheres.size()
+				+", "+keepOutSpheres.size()+", "+holdPositionSpheres.size()
 				+" stay,keep,hold hinting spheres");
 		}
 	}
@@ -272,91 +475,350 @@ public class Simulator {
 
 	public void doOneTime() {
 		System.out.println("========== SIM: clearing out...");
-		newAgentsContainer.clear();
-		deadAgentsContainer.clear();
+		clearRegistrations();
 
 		time += 1;
+		tracing = agentsTracer.update(params);
 		System.out.println("========== SIM: creating time point " + time
 				+ " from " + agentsContainer.size() + " agents ("
 				+ spotsInTotal + " in total, time is "
 				+ java.time.LocalTime.now() + ")");
-		if (VERBOSE_AGENT_DEBUG) {
-			agentsContainer.values().stream().forEach(s -> s.progress(time));
+		long phaseStart = System.nanoTime();
+		updateSphereCaches(time);
+		profile.phaseDone(time, SimulationProfile.Phase.HINTS, phaseStart);
+
+		//NB: the sub-steps see the hinting spheres of the time point they are heading to
+		final int substeps = substeps();
+		for (int substepsLeft = substeps-1; substepsLeft >= 0; --substepsLeft) {
+			agentsTime = time * substeps - substepsLeft;
+			if (substeps > 1 && params.VERBOSE_SIMULATOR_DEBUG) {
+				System.out.println("========== SIM: sub-step " + (substeps-substepsLeft) + "/" + substeps);
+			}
+
+			if (beforeEachSubstep != null) beforeEachSubstep.run();
+			phaseStart = System.nanoTime();
+			rebuildNeighborSearch();
+			profile.phaseDone(time, SimulationProfile.Phase.NEIGHBORS, phaseStart);
+
+			profile.set(time, SimulationProfile.Counter.AGENTS, agentsContainer.size());
+			lastSubstep = substepsLeft == 0;
+			phaseStart = System.nanoTime();
+			if (params.VERBOSE_AGENT_DEBUG) {
+				sweepScheduler.sweepSequentially(agentsContainer.slotsBound(), this::progressAgent);
+			} else {
+				sweepScheduler.sweep(agentsGrid, params.SIMULATION_PARALLELISM, this::progressAgent);
+			}
+			profile.phaseDone(time, SimulationProfile.Phase.PROGRESS, phaseStart);
+			sweepScheduler.forEachWorkerState(a -> {
+				profile.add(time, a.counters);
+				stats.add(time, a.stats, lastSubstep);
+			});
+
+			if (params.VERBOSE_SIMULATOR_DEBUG) {
+				System.out.println("========== SIM: going for progressFinish...");
+			}
+			phaseStart = System.nanoTime();
+			IntStream.range(0, agentsContainer.slotsBound()).parallel().forEach(slot -> {
+				if (!agentsContainer.isAlive(slot)) return;
+				agentsContainer.progressFinish(slot);
+			});
+			profile.phaseDone(time, SimulationProfile.Phase.FINISH, phaseStart);
+
+			if (params.VERBOSE_SIMULATOR_DEBUG) {
+				System.out.println("========== SIM: going to commitNewAndDeadAgents...");
+			}
+			phaseStart = System.nanoTime();
+			commitNewAndDeadAgents();
+			profile.phaseDone(time, SimulationProfile.Phase.COMMIT, phaseStart);
+		}
+		if (tracing) agentsTracer.dump(System.out);
+	}
+
+	/** makes getListOfOccupiedCoords() to see the current positions of the agents */
+	void rebuildNeighborSearch() {
+		agentsGrid.rebuild(agentsContainer, params.AGENT_LOOK_AROUND_DISTANCE, params.SIMULATION_TILE_SIZE);
+		if (params.AGENT_NEIGHBORS_LIST_SKIN > 0 && agentsGrid.haloSize() == 0) {
+			if (verletLists.update(agentsContainer, agentsGrid, params.AGENT_LOOK_AROUND_DISTANCE, params.AGENT_NEIGHBORS_LIST_SKIN)
+					&& params.VERBOSE_SIMULATOR_DEBUG) {
+				System.out.printf("========== SIM: neighbors lists rebuilt, %d times in %d time points so far (rate %.2f)%n",
+						verletLists.getBuildsCount(), time, verletLists.getRebuildRate());
+			}
 		} else {
-			agentsContainer.values().parallelStream().forEach(s -> s.progress(time));
+			//NB: halo agents are not in the lists, and change every time point anyway
+			verletLists.invalidate();
 		}
-		System.out.println("========== SIM: going for progressFinish...");
-		agentsContainer.values().parallelStream().forEach(Agent::progressFinish);
-		System.out.println("========== SIM: going to commitNewAndDeadAgents...");
-		commitNewAndDeadAgents();
+	}
+
+	//durations of the phases and counts of the agents' actions, per time point
+	private final SimulationProfile profile = new SimulationProfile();
+
+	public SimulationProfile getProfile() {
+		return profile;
+	}
+
+	//the agents of every time point in numbers
+	private final TimepointStats stats = new TimepointStats();
+	//the densities are collected only when the agents are advanced into the time point itself
+	private boolean lastSubstep = false;
+
+	public TimepointStats getStats() {
+		return stats;
+	}
+
+	/** sets the population, centroid and bounding box of the current time point from the current agents */
+	private void updateAgentsStats() {
+		stats.setAgents(time, TimepointStats.ofAgents(agentsContainer.slotsBound(), agentsContainer::isAlive,
+				agentsContainer.x, agentsContainer.y, agentsContainer.z));
+	}
+
+	//decisions of the chosen agents, see Simulator.TRACE_EVERY_NTH_AGENT
+	private final AgentsTracer agentsTracer = new AgentsTracer();
+	private boolean tracing = false;
+
+	/** where the agent records its decisions if it is to be traced, null otherwise */
+	AgentsTracer.Buffer getTraceBuffer(final int agentId, final int time, final double x, final double y, final double z) {
+		return tracing ? agentsTracer.bufferFor(agentId, time, x, y, z) : null;
+	}
+
+	//called before the agents are advanced in every sub-step, e.g. to refresh the halo agents, null means nothing
+	private Runnable beforeEachSubstep = null;
+
+	void setBeforeEachSubstep(final Runnable beforeEachSubstep) {
+		this.beforeEachSubstep = beforeEachSubstep;
+	}
+
+	/** agents (not in this simulator) that the agents of this simulator shall be aware of, x,y,z,R with stride 4 */
+	void setHaloAgents(final double[] spheres, final int count) {
+		agentsGrid.setHalo(spheres, count);
+	}
+
+	/** x,y,z,R (with stride 4) of agents with x coordinate in [fromX,tillX), returns the number of agents */
+	int collectAgentsSpheres(final double fromX, final double tillX, final TDoubleArrayList spheres) {
+		spheres.resetQuick();
+		for (int slot = 0; slot < agentsContainer.slotsBound(); ++slot) {
+			if (!agentsContainer.isAlive(slot)) continue;
+			if (agentsContainer.x[slot] < fromX || agentsContainer.x[slot] >= tillX) continue;
+			spheres.add(agentsContainer.x[slot]);
+			spheres.add(agentsContainer.y[slot]);
+			spheres.add(agentsContainer.z[slot]);
+			spheres.add(agentsContainer.R[slot]);
+		}
+		return spheres.size() / 4;
+	}
+
+	double getMaxAgentRadius() {
+		double maxR = 0;
+		for (int slot = 0; slot < agentsContainer.slotsBound(); ++slot) {
+			if (agentsContainer.isAlive(slot)) maxR = Math.max(maxR, agentsContainer.R[slot]);
+		}
+		return maxR;
+	}
+
+	/** x coordinates of all agents */
+	double[] getAgentsXCoords() {
+		final double[] xs = new double[agentsContainer.size()];
+		int i = 0;
+		for (int slot = 0; slot < agentsContainer.slotsBound(); ++slot) {
+			if (agentsContainer.isAlive(slot)) xs[i++] = agentsContainer.x[slot];
+		}
+		return xs;
+	}
+
+	/** writes out and removes (without considering them dead) agents with x coordinate in [fromX,tillX),
+	 *  returns how many agents were moved out */
+	int moveAgentsOut(final double fromX, final double tillX, final DataOutputStream out) throws IOException {
+		verletLists.invalidate();
+		int cnt = 0;
+		for (int slot = 0; slot < agentsContainer.slotsBound(); ++slot) {
+			if (agentsContainer.isAlive(slot) && agentsContainer.x[slot] >= fromX && agentsContainer.x[slot] < tillX) ++cnt;
+		}
+		out.writeInt(cnt);
+		for (int slot = 0; slot < agentsContainer.slotsBound(); ++slot) {
+			if (!agentsContainer.isAlive(slot)) continue;
+			if (agentsContainer.x[slot] < fromX || agentsContainer.x[slot] >= tillX) continue;
+			agentsContainer.writeAgent(slot, out);
+			agentsContainer.releaseSlot(slot);
+		}
+		return cnt;
+	}
+
+	/** reads in agents written with moveAgentsOut(), returns how many agents were added */
+	int moveAgentsIn(final DataInputStream in) throws IOException {
+		verletLists.invalidate();
+		final int cnt = in.readInt();
+		for (int i = 0; i < cnt; ++i) agentsContainer.readAgent(in);
+		return cnt;
+	}
+
+	private void progressAgent(final Agent workingCopy, final int slot) {
+		if (!agentsContainer.isAlive(slot)) return;
+		final Agent agent = workingCopy.loadFrom(agentsContainer, slot);
+		agent.progress(agentsTime);
+		if (lastSubstep) workingCopy.stats.addNeighbors(agent.getLastNeighborsCnt());
+		if (eventLog != null) agent.recordInto(eventLog);
+		agent.saveTo(agentsContainer, slot);
 	}
 
 	final double[] coords = new double[3];
-	final double[] sum_x = new double[5000];
-	final double[] sum_y = new double[5000];
-	final double[] sum_z = new double[5000];
 	Spot auxSpot = null;
 
-	public void pushToMastodonGraphAndUpdateStats() {
-		System.out.println("========== SIM: publishing to Mastodon " + agentsContainer.size() + " agents");
-		sum_x[time] = 0;
-		sum_y[time] = 0;
-		sum_z[time] = 0;
-
-		agentsContainer.values().forEach( agent -> {
-			coords[0] = agent.getX();
-			coords[1] = agent.getY();
-			coords[2] = agent.getZ();
-			sum_x[time] += coords[0];
-			sum_y[time] += coords[1];
-			sum_z[time] += coords[2];
-			projectModel.getModel().getGraph().addVertex(auxSpot)
-					.init(time, coords, agent.getR());
-			auxSpot.setLabel(agent.getName());
+	//agents' states that were not yet written into the Mastodon graph
+	private final List<TimepointRecord> unpublishedRecords = new ArrayList<>(100);
+	//lineage events that were not yet captured in any TimepointRecord
+	private final TIntArrayList bornSinceLastRecord = new TIntArrayList(2000000);
+	private final TIntArrayList bornFromSinceLastRecord = new TIntArrayList(2000000);
+	private final TIntArrayList diedSinceLastRecord = new TIntArrayList(2000000);
+	private final MastodonPublisher publisher;
+
+	/** takes a snapshot of the current agents into simulator's own compact data structures,
+	 *  the Mastodon graph is not touched here, see {@link Simulator#flushToMastodonGraph()} */
+	public void recordCurrentTimepoint() {
+		final long phaseStart = System.nanoTime();
+		updateAgentsStats();
+		spotsInTotal += agentsContainer.size();
 
-			if (agent.isMostRecentMastodonSpotValid()) {
-				projectModel.getModel().getGraph().addEdge(agent.getMostRecentMastodonSpotRepre(), auxSpot).init();
+		addRecord( new TimepointRecord(time, agentsContainer,
+				bornSinceLastRecord, bornFromSinceLastRecord, diedSinceLastRecord) );
+		bornSinceLastRecord.resetQuick();
+		bornFromSinceLastRecord.resetQuick();
+		diedSinceLastRecord.resetQuick();
+		profile.phaseDone(time, SimulationProfile.Phase.RECORD, phaseStart);
+	}
+
+	/** adds the record made elsewhere (e.g. in the distributed simulation) as if it was made by this simulator */
+	void recordTimepoint(final TimepointRecord record) {
+		setTime(record.time);
+		stats.setAgents(time, TimepointStats.ofAgents(record.size, i -> true, record.x, record.y, record.z));
+		//NB: the agents were advanced elsewhere, only their lineage events are known here (and not their densities)
+		final int divisions = record.bornIds.length / 2;
+		stats.count(time, divisions, record.diedIds.length - divisions);
+		spotsInTotal += record.size;
+		addRecord(record);
+	}
+
+	//the recorded time points are streamed also here, or null
+	private TracksExport tracksExport = null;
+
+	private void addRecord(final TimepointRecord record) {
+		if (tracksExport != null) {
+			try {
+				tracksExport.write(record);
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR, not exporting anymore: " + e.getMessage());
+				closeTracksExport();
 			}
-			agent.setMostRecentMastodonSpotRepre(auxSpot);
-		});
-		final int addingCount = agentsContainer.size();
-		spotsInTotal += addingCount;
+		}
+		//NB: only-exported records are not kept at all, so the memory doesn't grow with the time points
+		if (tracksExport == null || !params.EXPORT_ONLY) unpublishedRecords.add(record);
+		if (snapshotDeltas != null) snapshotDeltas.add(record);
+	}
 
-		if (addingCount > 0) {
-			sum_x[time] /= addingCount;
-			sum_y[time] /= addingCount;
-			sum_z[time] /= addingCount;
-		} else {
-			//NB: indicate there's no data for this time point
-			sum_x[time] = Double.NaN;
+	private void openTracksExport() {
+		if (params.EXPORT_TRACKS_FILE.isEmpty() && params.EXPORT_CTC_TRACKS_FILE.isEmpty()) return;
+		try {
+			tracksExport = new TracksExport(params.EXPORT_TRACKS_FILE.isEmpty() ? null : Paths.get(params.EXPORT_TRACKS_FILE),
+					params.EXPORT_CTC_TRACKS_FILE.isEmpty() ? null : Paths.get(params.EXPORT_CTC_TRACKS_FILE),
+					params.LABELS_NAMING_POLICY);
+			System.out.println("========== SIM: exporting the time points"
+					+ (params.EXPORT_TRACKS_FILE.isEmpty() ? "" : " into " + Paths.get(params.EXPORT_TRACKS_FILE).toAbsolutePath())
+					+ (params.EXPORT_CTC_TRACKS_FILE.isEmpty() ? "" : " into " + Paths.get(params.EXPORT_CTC_TRACKS_FILE).toAbsolutePath())
+					+ (params.EXPORT_ONLY ? ", and not creating any Mastodon spots" : ""));
+		} catch (IOException e) {
+			System.out.println("========== SIM: ERROR, not exporting: " + e.getMessage());
 		}
 	}
 
-	public void updateStats() {
-		System.out.println("========== SIM: updateStats - calculating average coord from " + agentsContainer.size() + " agents");
-		sum_x[time] = 0;
-		sum_y[time] = 0;
-		sum_z[time] = 0;
-
-		agentsContainer.values().forEach( agent -> {
-			sum_x[time] += agent.getX();
-			sum_y[time] += agent.getY();
-			sum_z[time] += agent.getZ();
-		});
-		final int addingCount = agentsContainer.size();
-		spotsInTotal += addingCount;
+	private void closeTracksExport() {
+		if (tracksExport == null) return;
+		try {
+			tracksExport.close();
+		} catch (IOException e) {
+			System.out.println("========== SIM: ERROR with exporting: " + e.getMessage());
+		}
+		tracksExport = null;
+	}
+
+	/** returns and forgets all so-far recorded time points */
+	List<TimepointRecord> takeRecords() {
+		final List<TimepointRecord> records = new ArrayList<>(unpublishedRecords);
+		unpublishedRecords.clear();
+		return records;
+	}
 
-		if (addingCount > 0) {
-			sum_x[time] /= addingCount;
-			sum_y[time] /= addingCount;
-			sum_z[time] /= addingCount;
+	/** writes all so-far recorded time points into the Mastodon graph,
+	 *  the caller must make sure the simulator is open(), see {@link Simulator#open()} */
+	public void flushToMastodonGraph() {
+		if (unpublishedRecords.isEmpty()) return;
+		final long phaseStart = System.nanoTime();
+		System.out.println("========== SIM: publishing to Mastodon " + unpublishedRecords.size()
+				+ " time points (" + unpublishedRecords.get(0).time + " to "
+				+ unpublishedRecords.get(unpublishedRecords.size()-1).time + ")");
+		if (pipelinedPublisher != null) {
+			try {
+				for (TimepointRecord r : unpublishedRecords) pipelinedPublisher.put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while handing over the time points for publishing", e);
+			}
+		} else if (livePublishing) {
+			lock.writeLock().lock();
+			try {
+				unpublishedRecords.forEach(publisher::write);
+			} finally {
+				lock.writeLock().unlock();
+			}
+			projectModel.getModel().getGraph().notifyGraphChanged();
 		} else {
-			//NB: indicate there's no data for this time point
-			sum_x[time] = Double.NaN;
+			unpublishedRecords.forEach(publisher::write);
+		}
+		unpublishedRecords.clear();
+		profile.phaseDone(time, SimulationProfile.Phase.PUBLISH, phaseStart);
+	}
+
+	private PipelinedPublisher pipelinedPublisher = null;
+	private int pipelineQueueCapacity = 1;
+
+	/** makes flushToMastodonGraph() only to hand over the records to a publishing thread that writes them
+	 *  into the Mastodon graph while the simulation goes on; at most 'queueCapacity' records can be waiting,
+	 *  after which flushToMastodonGraph() waits; the caller must make sure the simulator is open(), the graph's
+	 *  write lock is released during the pipelining, see {@link Simulator#finishPipelinedPublishing()} */
+	public void startPipelinedPublishing(final int queueCapacity) {
+		if (pipelinedPublisher != null) return;
+		flushToMastodonGraph();
+		pipelineQueueCapacity = queueCapacity;
+		pipelinedPublisher = new PipelinedPublisher(publisher, lock, queueCapacity,
+				livePublishing ? projectModel.getModel().getGraph()::notifyGraphChanged : null, params.VERBOSE_SIMULATOR_DEBUG);
+		if (!livePublishing) lock.writeLock().unlock();
+	}
+
+	/** waits until the publishing thread has written all records handed over to it,
+	 *  and takes the graph's write lock back, see {@link Simulator#startPipelinedPublishing(int)} */
+	public void finishPipelinedPublishing() {
+		if (pipelinedPublisher == null) return;
+		try {
+			pipelinedPublisher.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the publishing to finish", e);
+		} finally {
+			pipelinedPublisher = null;
+			if (!livePublishing) lock.writeLock().lock();
 		}
 	}
 
+	public void pushToMastodonGraphAndUpdateStats() {
+		recordCurrentTimepoint();
+		flushToMastodonGraph();
+	}
+
+	public void updateStats() {
+		System.out.println("========== SIM: updateStats - calculating average coord from " + agentsContainer.size() + " agents");
+		updateAgentsStats();
+		spotsInTotal += agentsContainer.size();
+	}
+
 	public void pushCenterSpotsToMastodonGraph(int timeFrom, int timeTill) {
+		if (livePublishing) lock.writeLock().lock();
 		final Spot prevCentreSpot = projectModel.getModel().getGraph().vertexRef();
 		boolean isPrevCentreValid = false;
 
@@ -373,11 +835,8 @@ public class Simulator {
 		}
 
 		for (int time = timeFrom; time <= timeTill; ++time) {
-			if (sum_x[time] == Double.NaN) continue; //skip over empty frame
+			if (!stats.getCentroid(time, coords)) continue; //skip over empty frame
 
-			coords[0] = sum_x[time];
-			coords[1] = sum_y[time];
-			coords[2] = sum_z[time];
 			projectModel.getModel().getGraph().addVertex(auxSpot)
 					.init(time, coords, 1.5);
 			auxSpot.setLabel(MASTODON_CENTER_SPOT_NAME);
@@ -389,22 +848,28 @@ public class Simulator {
 		}
 
 		projectModel.getModel().getGraph().releaseRef(prevCentreSpot);
+		if (livePublishing) {
+			lock.writeLock().unlock();
+			projectModel.getModel().getGraph().notifyGraphChanged();
+		}
 	}
 
 	public void populate(int numberOfCells, final int timePoint) {
 		//generate a within-xy-plane stripe of quazi-regularly placed agents, at fixed z coordinate and given time point
-		this.time = timePoint;
+		setTime(timePoint);
+		setupSeed();
+		final AgentRandom rnd = new AgentRandom().reset(seed, 0, timePoint, AgentRandom.STREAM_POPULATE);
 		RandomAccessibleInterval<?> pixelSource = projectModel.getSharedBdvData().getSources().get(0).getSpimSource().getSource(0, 0);
 		final double dx = 0.5 * (pixelSource.min(0) + pixelSource.max(0));
 		final double dy = 0.5 * (pixelSource.min(1) + pixelSource.max(1));
 		final double dz = 0.5 * (pixelSource.min(2) + pixelSource.max(2));
 		final int iShift = numberOfCells/2;
-		final double dxStep = Simulator.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT * 1.7;
+		final double dxStep = params.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT * 1.7;
 		for (int i = 0; i < numberOfCells; i++) {
 			Agent agent = new Agent(this, this.getNewId(), 0, String.valueOf(i + 1),
 					dx + (i-iShift) * dxStep,
-					dy + 1.8 * dxStep * (new Random().nextDouble() - 0.5),
-					dz, AGENT_INITIAL_RADIUS, this.time);
+					dy + 1.8 * dxStep * (rnd.nextDouble() - 0.5),
+					dz, params.AGENT_INITIAL_RADIUS, this.agentsTime);
 			this.registerAgent(agent);
 		}
 		this.commitNewAndDeadAgents();
@@ -416,15 +881,16 @@ public class Simulator {
 		//pickup (possibly selected only) agents from the Mastodon project at the given time point
 		final SelectionModel<Spot,Link> currentSpotSelection = projectModel.getSelectionModel();
 		final boolean someSpotsSelected = !currentSpotSelection.isEmpty();
-		this.time = timePoint;
+		setTime(timePoint);
+		setupSeed();
 		for (Spot s : projectModel.getModel().getSpatioTemporalIndex().getSpatialIndex(timePoint)) {
 			if (s.getLabel().equals(Simulator.MASTODON_CENTER_SPOT_NAME)) continue;
 			if (isHintingSphere(s)) continue;
 			if (someSpotsSelected && !currentSpotSelection.isSelected(s)) continue;
 			Agent agent = new Agent(this, this.getNewId(), 0, s.getLabel()+"-",
 					s.getDoublePosition(0), s.getDoublePosition(1), s.getDoublePosition(2),
-					Math.sqrt(s.getBoundingSphereRadiusSquared()), this.time);
-			agent.setMostRecentMastodonSpotRepre(s);
+					Math.sqrt(s.getBoundingSphereRadiusSquared()), this.agentsTime);
+			publisher.seed(agent.getId(), s);
 			this.registerAgent(agent);
 		}
 		this.commitNewAndDeadAgents();
@@ -432,6 +898,142 @@ public class Simulator {
 				+ " with " + agentsContainer.size() + " agents");
 	}
 
+	//the recorded time points go also here, see startSnapshotDeltas()
+	private SnapshotDeltas snapshotDeltas = null;
+
+	/** from now on, every recorded time point is also appended (in the background) into the given file, which
+	 *  together with the Mastodon project as it is now makes up the snapshots, see {@link SnapshotDeltas};
+	 *  the caller must save the project just before, and after all recorded time points were written into it */
+	public void startSnapshotDeltas(final Path deltasFile) throws IOException {
+		if (snapshotDeltas != null) return;
+		snapshotDeltas = new SnapshotDeltas(deltasFile, getMostRecentSpots(), params);
+	}
+
+	/** makes the current time point a snapshot: its record, and the records of all the time points before,
+	 *  will be in the deltas file and synced to the disk (in the background), see startSnapshotDeltas() */
+	public void snapshotDeltas() {
+		if (snapshotDeltas != null) snapshotDeltas.snapshot(time);
+	}
+
+	public boolean isSavingSnapshotDeltas() {
+		return snapshotDeltas != null;
+	}
+
+	//writes the checkpoints in the background, one after another
+	private ExecutorService checkpointsWriter = null;
+	private Future<?> pendingCheckpoint = null;
+
+	/** captures the current state of the simulation, and writes it into the given file in the background,
+	 *  see {@link SimulatorCheckpoint}; all recorded time points are written into Mastodon first, so that
+	 *  the checkpoint and the Mastodon project agree; waits only if the previous checkpoint is still being written */
+	public void writeCheckpoint(final Path file) {
+		flushToMastodonGraph();
+		waitForPendingCheckpoint();
+
+		final SimulatorCheckpoint c = new SimulatorCheckpoint();
+		c.substeps = substeps();
+		c.time = time;
+		c.agentsTime = agentsTime;
+		c.seed = seed;
+		c.idsOffset = idsOffset;
+		c.idsStride = idsStride;
+		c.assignedIds = assignedIds;
+		c.spotsInTotal = spotsInTotal;
+		c.bornIds = bornSinceLastRecord.toArray();
+		c.bornFromIds = bornFromSinceLastRecord.toArray();
+		c.diedIds = diedSinceLastRecord.toArray();
+		c.mostRecentSpots = getMostRecentSpots();
+		c.agents = agentsContainer.copy();
+		c.neighborsLists = verletLists.copy(agentsContainer.slotsBound());
+
+		if (checkpointsWriter == null) {
+			checkpointsWriter = Executors.newSingleThreadExecutor(r -> {
+				final Thread t = new Thread(r, "simulator-checkpoints-writer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		pendingCheckpoint = checkpointsWriter.submit(() -> {
+			try {
+				final long startTime = System.currentTimeMillis();
+				c.writeTo(file);
+				System.out.println("========== SIM: checkpoint of time point " + c.time + " with " + c.agents.size()
+						+ " agents written into " + file.toAbsolutePath()
+						+ " in " + (System.currentTimeMillis() - startTime) + " ms");
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR writing the checkpoint " + file + ": " + e.getMessage());
+			}
+		});
+	}
+
+	/** the publisher's most recent spot of every agent, see {@link MastodonPublisher#getMostRecentSpots()} */
+	private int[] getMostRecentSpots() {
+		if (publisher == null) return new int[0];
+		//NB: the publishing thread must not change the most recent spots while they are read
+		final boolean wasPipelined = pipelinedPublisher != null;
+		if (wasPipelined) finishPipelinedPublishing();
+		if (livePublishing) lock.readLock().lock();
+		try {
+			return publisher.getMostRecentSpots();
+		} finally {
+			if (livePublishing) lock.readLock().unlock();
+			if (wasPipelined) startPipelinedPublishing(pipelineQueueCapacity);
+		}
+	}
+
+	private void waitForPendingCheckpoint() {
+		if (pendingCheckpoint == null) return;
+		try {
+			pendingCheckpoint.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.out.println("========== SIM: ERROR writing the checkpoint: " + e.getCause());
+		}
+		pendingCheckpoint = null;
+	}
+
+	/** continues from the state saved with writeCheckpoint(), instead of populate()-ing; the Mastodon project
+	 *  should be the one the checkpoint was made with (e.g. saved at the same time, the spots are then found by their
+	 *  time points, labels and positions), otherwise the agents' next spots are not linked to their previous ones;
+	 *  the simulator must be open() and without any agents */
+	public void restoreCheckpoint(final Path file) throws IOException {
+		if (agentsContainer.size() > 0) throw new IllegalStateException("Simulator has already some agents");
+		final SimulatorCheckpoint c = SimulatorCheckpoint.readFrom(file, agentsContainer, verletLists, substeps());
+		time = c.time;
+		agentsTime = c.agentsTime;
+		seed = c.seed;
+		idsOffset = c.idsOffset;
+		idsStride = c.idsStride;
+		assignedIds = c.assignedIds;
+		spotsInTotal = c.spotsInTotal;
+		updateAgentsStats();
+		bornSinceLastRecord.add(c.bornIds);
+		bornFromSinceLastRecord.add(c.bornFromIds);
+		diedSinceLastRecord.add(c.diedIds);
+
+		int spotsNotFound = 0;
+		if (publisher != null) {
+			if (livePublishing) lock.readLock().lock();
+			try {
+				spotsNotFound = publisher.setMostRecentSpots(c.mostRecentSpots);
+			} finally {
+				if (livePublishing) lock.readLock().unlock();
+			}
+		}
+		System.out.println("========== SIM: restored at time point " + time + " with " + agentsContainer.size()
+				+ " agents, random seed is " + seed + " (from the checkpoint " + file.toAbsolutePath() + ")");
+		if (spotsNotFound > 0) {
+			System.out.println("========== SIM: " + spotsNotFound + " agents' most recent spots were not found in"
+					+ " the Mastodon project, these agents will not be linked to their previous spots");
+		}
+	}
+
+	/** the time point at which the checkpoint was made, see {@link Simulator#writeCheckpoint(Path)} */
+	public static int getCheckpointTime(final Path file) throws IOException {
+		return SimulatorCheckpoint.readTime(file);
+	}
+
 	class ModelGraphListeners extends ModelGraph {
 		public void pauseListeners() {
 			super.pauseListeners();
@@ -441,15 +1043,99 @@ public class Simulator {
 		}
 	}
 
+	//internal data of the agents, only when Simulator.COLLECT_INTERNAL_DATA
+	private EventLog eventLog = null;
+
+	//the graph's write lock is taken only while writing, see open(boolean)
+	private boolean livePublishing = false;
+
 	public void open() {
-		new ModelGraphListeners().pauseListeners();
-		lock.writeLock().lock();
+		open(false);
+	}
+
+	/** with 'livePublishing' the graph's listeners are not paused and the graph's write lock is not held
+	 *  for the whole simulation, but only for the short time of writing the time points, see
+	 *  {@link Simulator#flushToMastodonGraph()}, after which the listeners are notified; Mastodon views
+	 *  thus show the simulation as it goes (at the pace the time points are written) */
+	public void open(final boolean livePublishing) {
+		this.livePublishing = livePublishing;
+		if (!livePublishing) {
+			new ModelGraphListeners().pauseListeners();
+			lock.writeLock().lock();
+		}
 		auxSpot = projectModel.getModel().getGraph().vertexRef();
+		publisher.setFilter(PublishingFilter.fromParams(params));
+		if (livePublishing) publisher.watchRemovedSpots(true);
+		openTracksExport();
+		if (params.COLLECT_INTERNAL_DATA) {
+			try {
+				eventLog = new EventLog(Paths.get(params.COLLECT_INTERNAL_DATA_FILE));
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR, not collecting internal data: " + e.getMessage());
+			}
+		}
 	}
 	public void close() {
+		waitForPendingCheckpoint();
+		if (checkpointsWriter != null) {
+			checkpointsWriter.shutdown();
+			checkpointsWriter = null;
+		}
+		closeTracksExport();
+		if (snapshotDeltas != null) {
+			try {
+				snapshotDeltas.close();
+				System.out.println("========== SIM: snapshots saved into " + snapshotDeltas.getFile().toAbsolutePath());
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR with saving the snapshots: " + e.getMessage());
+			}
+			snapshotDeltas = null;
+		}
+		if (verletLists.getBuildsCount() > 0) {
+			System.out.printf("========== SIM: neighbors lists were rebuilt %d times, rate %.2f per time point%n",
+					verletLists.getBuildsCount(), verletLists.getRebuildRate());
+		}
+		try {
+			finishPipelinedPublishing();
+		} catch (RuntimeException e) {
+			System.out.println("========== SIM: ERROR with publishing to Mastodon: " + e.getMessage());
+		}
+		if (eventLog != null) {
+			try {
+				eventLog.close();
+				System.out.println("========== SIM: internal data collected into " + eventLog.getFile().toAbsolutePath());
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR with collecting internal data: " + e.getMessage());
+			}
+			eventLog = null;
+		}
+		if (!params.SIMULATION_PROFILE_FILE.isEmpty()) {
+			try {
+				profile.exportTo(params.SIMULATION_PROFILE_FILE);
+				System.out.println("========== SIM: profile exported into " + Paths.get(params.SIMULATION_PROFILE_FILE).toAbsolutePath());
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR with exporting the profile: " + e.getMessage());
+			}
+		}
+		if (!params.SIMULATION_STATS_FILE.isEmpty()) {
+			try {
+				stats.writeCsv(Paths.get(params.SIMULATION_STATS_FILE));
+				System.out.println("========== SIM: statistics exported into " + Paths.get(params.SIMULATION_STATS_FILE).toAbsolutePath());
+			} catch (IOException e) {
+				System.out.println("========== SIM: ERROR with exporting the statistics: " + e.getMessage());
+			}
+		}
+		//NB: the threads (e.g. of the common pool) outlive this simulator, they must not keep it
+		sweepScheduler.close();
+		agentsTracer.close();
 		if (auxSpot != null) projectModel.getModel().getGraph().releaseRef(auxSpot);
-		lock.writeLock().unlock();
-		new ModelGraphListeners().resumeListeners();
+		if (!livePublishing) {
+			lock.writeLock().unlock();
+			new ModelGraphListeners().resumeListeners();
+		} else {
+			publisher.watchRemovedSpots(false);
+		}
+		livePublishing = false;
 		projectModel.getModel().setUndoPoint();
 		projectModel.getModel().getGraph().notifyGraphChanged();
 	}
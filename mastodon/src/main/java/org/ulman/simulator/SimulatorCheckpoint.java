@@ -0,0 +1,136 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** The complete state of the {@link Simulator} in between two time points: all agents incl. their internal
+ *  state (e.g. when they may divide, their dozering), the clocks, the IDs counter, the not-yet-recorded lineage
+ *  events, which Mastodon spots the agents were last published into, and the neighbors lists (see {@link VerletLists}),
+ *  so that the neighbors are visited, and their contributions summed up, in the very same order. The agents draw their
+ *  random numbers from the seed, their IDs and the time (see {@link AgentRandom}), so the seed is all the random state
+ *  there is. A simulator restored from a checkpoint thus continues exactly as the original one would have continued.
+ *  <p>
+ *  The file is memory-mapped in regions (see {@link MappedRegions}), so it can be over 2GB, and all numbers are
+ *  little-endian. The header is: magic int, version int, file size long; then: sub-steps, time, agents' time int;
+ *  seed long; IDs offset, stride, assigned IDs int; spots in total long; born, born-from and died IDs (each as count
+ *  int, IDs int[]); most recent spots (count int, then agent ID, spot ID int and the spot's key long as two ints per
+ *  agent, see {@link MastodonPublisher#keyOf}); the agents, see {@link AgentsStore#writeAllTo(MappedRegions)};
+ *  and the neighbors lists, see {@link VerletLists#writeAllTo(MappedRegions)}. */
+final class SimulatorCheckpoint {
+	static final int MAGIC = 0x53494D43; //"SIMC"
+	//NB: version 2 has no mean x,y,z, the statistics of the time point are taken anew from the agents,
+	//    version 3 has the neighbors lists, version 4 has the keys of the most recent spots
+	static final int VERSION = 4;
+	static final int HEADER_BYTES = 16;
+	/** the file is mapped in regions of this size */
+	static final int MAPPED_REGION_BYTES = 1 << 26;
+
+	int substeps, time, agentsTime;
+	long seed;
+	int idsOffset, idsStride, assignedIds;
+	long spotsInTotal;
+	int[] bornIds, bornFromIds, diedIds;
+	//agent ID, spot ID, spot's key upper and lower half
+	int[] mostRecentSpots;
+	AgentsStore agents;
+	VerletLists neighborsLists;
+
+	long bytes() {
+		return HEADER_BYTES + 3*4 + 8 + 3*4 + 8
+				+ 4 + 4L*bornIds.length + 4 + 4L*bornFromIds.length + 4 + 4L*diedIds.length
+				+ 4 + 4L*mostRecentSpots.length
+				+ agents.bytesOfAll()
+				+ neighborsLists.bytesOfAll();
+	}
+
+	/** the file is written under a temporary name first, and renamed only once it is complete,
+	 *  so that a failed (or interrupted) writing doesn't damage the previous checkpoint */
+	void writeTo(final Path file) throws IOException {
+		final long bytes = bytes();
+		final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final MappedRegions b = new MappedRegions(channel, FileChannel.MapMode.READ_WRITE, 0, bytes, MAPPED_REGION_BYTES);
+			b.putInt(MAGIC).putInt(VERSION).putLong(bytes);
+			b.putInt(substeps).putInt(time).putInt(agentsTime);
+			b.putLong(seed);
+			b.putInt(idsOffset).putInt(idsStride).putInt(assignedIds);
+			b.putLong(spotsInTotal);
+			for (int[] ids : new int[][] {bornIds, bornFromIds, diedIds, mostRecentSpots}) {
+				b.putInt(ids.length);
+				b.put(ids, 0, ids.length);
+			}
+			agents.writeAllTo(b);
+			neighborsLists.writeAllTo(b);
+			b.force();
+		}
+
+		try {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** reads the checkpoint, its agents and neighbors lists are read directly into the given ones; the checkpoint
+	 *  must have been made with the given 'substeps', see {@link Simulator#SIMULATION_SUBSTEPS_PER_TIMEPOINT} */
+	static SimulatorCheckpoint readFrom(final Path file, final AgentsStore agents, final VerletLists neighborsLists,
+	                                    final int substeps) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final MappedRegions b = new MappedRegions(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size(), MAPPED_REGION_BYTES);
+			checkHeader(b, channel.size(), file);
+
+			final SimulatorCheckpoint c = new SimulatorCheckpoint();
+			c.substeps = b.getInt();
+			if (c.substeps != substeps) {
+				throw new IOException("Checkpoint was made with " + c.substeps + " sub-steps per time point, but "
+						+ substeps + " are set now: " + file);
+			}
+			c.time = b.getInt();
+			c.agentsTime = b.getInt();
+			c.seed = b.getLong();
+			c.idsOffset = b.getInt();
+			c.idsStride = b.getInt();
+			c.assignedIds = b.getInt();
+			c.spotsInTotal = b.getLong();
+			c.bornIds = readInts(b);
+			c.bornFromIds = readInts(b);
+			c.diedIds = readInts(b);
+			c.mostRecentSpots = readInts(b);
+			agents.readAllFrom(b);
+			c.agents = agents;
+			neighborsLists.readAllFrom(b, agents);
+			c.neighborsLists = neighborsLists;
+			return c;
+		}
+	}
+
+	/** only the time point of the checkpoint */
+	static int readTime(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final MappedRegions b = new MappedRegions(channel, FileChannel.MapMode.READ_ONLY,
+					0, Math.min(channel.size(), HEADER_BYTES + 8), MAPPED_REGION_BYTES);
+			checkHeader(b, channel.size(), file);
+			b.getInt(); //substeps
+			return b.getInt();
+		}
+	}
+
+	private static void checkHeader(final MappedRegions b, final long fileSize, final Path file) throws IOException {
+		if (fileSize < HEADER_BYTES || b.getInt() != MAGIC) throw new IOException("Not a simulator checkpoint: " + file);
+		final int version = b.getInt();
+		if (version != VERSION) throw new IOException("Unsupported version " + version + " of the simulator checkpoint: " + file);
+		if (b.getLong() != fileSize) throw new IOException("Incomplete simulator checkpoint: " + file);
+	}
+
+	private static int[] readInts(final MappedRegions b) throws IOException {
+		final int[] ids = new int[b.getInt()];
+		b.get(ids, 0, ids.length);
+		return ids;
+	}
+}
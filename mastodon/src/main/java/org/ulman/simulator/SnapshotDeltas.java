@@ -0,0 +1,210 @@
+package org.ulman.simulator;
+
+import mpicbg.spim.data.SpimDataException;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.ProjectLoader;
+import org.mastodon.mamut.io.ProjectSaver;
+import org.mastodon.mamut.model.ModelGraph;
+import org.scijava.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** Snapshots of the simulation made of a base Mastodon project, saved once when the simulation starts,
+ *  and of the {@link TimepointRecord}s of all time points simulated since then, appended into one deltas file
+ *  in the background while the simulation goes on. The records hold the spots with their labels, and the links
+ *  follow from the agents' IDs and their births, just like when the records are written into Mastodon. A snapshot
+ *  at some time point is thus only a request to have the deltas file complete (and synced) up to that time point,
+ *  and a regular .mastodon file of any snapshot can be consolidated later from the base project and the deltas,
+ *  see {@link SnapshotDeltas#consolidate(Path, Path, int, Path, Context)} (or {@link SnapshotDeltas#main(String[])}).
+ *  <p>
+ *  The file starts with a header: magic int, version int; the simulation's labels naming policy UTF, and its publishing
+ *  filter (see {@link PublishingFilter}): publish only in ROI UTF, only lineages UTF, every n-th lineage int; then the count
+ *  int and the agent ID, spot ID int and the spot's key long as two ints (see {@link MastodonPublisher#keyOf}) of every
+ *  agent that is already represented in the base project; then the records follow, see {@link TimepointRecord#writeTo(java.io.DataOutput)}. */
+public class SnapshotDeltas {
+	static final int MAGIC = 0x53494D44; //"SIMD"
+	//NB: version 2 has the parents of the agents in the records, version 3 has the labels and the filter of the simulation,
+	//    version 4 has the keys of the base spots
+	static final int VERSION = 4;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final DataOutputStream out;
+
+	//records to be written, and requests to have the file complete up to some time point
+	private static final class Snapshot {
+		final int time;
+		Snapshot(final int time) {
+			this.time = time;
+		}
+	}
+	private final BlockingQueue<Object> toBeWritten = new LinkedBlockingQueue<>();
+	private static final Object NO_MORE_RECORDS = new Object();
+	private final Thread writer;
+	private volatile IOException failure = null;
+
+	/** the 'baseSpots' are the agents that are represented in the base project, as given by
+	 *  {@link MastodonPublisher#getMostRecentSpots()} just when the base project was saved; the records
+	 *  are (to be) published with the labels and the filter of the given parameters */
+	SnapshotDeltas(final Path file, final int[] baseSpots, final SimulationParams params) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(params.LABELS_NAMING_POLICY.name());
+		out.writeUTF(params.PUBLISH_ONLY_IN_ROI != null ? params.PUBLISH_ONLY_IN_ROI : "");
+		out.writeUTF(params.PUBLISH_ONLY_LINEAGES != null ? params.PUBLISH_ONLY_LINEAGES : "");
+		out.writeInt(params.PUBLISH_EVERY_NTH_LINEAGE);
+		out.writeInt(baseSpots.length);
+		for (int v : baseSpots) out.writeInt(v);
+		this.writer = new Thread(this::writeLoop, "simulator-snapshots-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	/** the record is only read, and not changed, afterwards */
+	void add(final TimepointRecord record) {
+		toBeWritten.add(record);
+	}
+
+	/** all records added so far will be written, and synced to the disk */
+	void snapshot(final int time) {
+		toBeWritten.add(new Snapshot(time));
+	}
+
+	private void writeLoop() {
+		try {
+			int timepoints = 0;
+			Object o;
+			while ((o = toBeWritten.take()) != NO_MORE_RECORDS) {
+				if (o instanceof TimepointRecord) {
+					((TimepointRecord)o).writeTo(out);
+					++timepoints;
+				} else {
+					out.flush();
+					channel.force(false);
+					System.out.println("========== SIM: snapshot of time point " + ((Snapshot)o).time + " saved with "
+							+ timepoints + " new time points into " + file.toAbsolutePath());
+					timepoints = 0;
+				}
+			}
+			out.flush();
+		} catch (InterruptedException e) {
+			failure = new IOException("Writing of the snapshots was interrupted", e);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/** writes all records, and closes the file */
+	void close() throws IOException {
+		toBeWritten.add(NO_MORE_RECORDS);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.close();
+		if (failure != null) throw failure;
+	}
+
+	// ------------- consolidating -------------
+	/** creates the regular Mastodon project of the snapshot at 'tillTime' by writing the deltas up to that time
+	 *  point into the base project (with the labels and the publishing filter the simulation had, see
+	 *  {@link PublishingFilter}), and saving it as 'outputProject'; returns the number of time points written;
+	 *  the agents' spots in the base project are found by their keys, as the loading may have renumbered them */
+	public static int consolidate(final Path baseProject, final Path deltasFile, final int tillTime,
+	                              final Path outputProject, final Context context) throws IOException {
+		final ProjectModel projectModel;
+		try {
+			projectModel = ProjectLoader.open(baseProject.toString(), context);
+		} catch (SpimDataException e) {
+			throw new IOException("Cannot open the base project " + baseProject + ": " + e.getMessage(), e);
+		}
+		final ModelGraph graph = projectModel.getModel().getGraph();
+
+		int timepoints = 0;
+		graph.getLock().writeLock().lock();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(deltasFile), 1 << 20))) {
+			if (in.readInt() != MAGIC) throw new IOException("Not a simulator snapshots file: " + deltasFile);
+			final int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported version " + version + " of the snapshots file: " + deltasFile);
+
+			final SimulationConfig config = new SimulationConfig();
+			try {
+				config.LABELS_NAMING_POLICY = AgentNamingPolicy.valueOf(in.readUTF());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Unknown labels naming policy in the snapshots file: " + deltasFile, e);
+			}
+			config.PUBLISH_ONLY_IN_ROI = in.readUTF();
+			config.PUBLISH_ONLY_LINEAGES = in.readUTF();
+			config.PUBLISH_EVERY_NTH_LINEAGE = in.readInt();
+			final SimulationParams params = new SimulationParams(config);
+			final MastodonPublisher publisher = new MastodonPublisher(graph, params.LABELS_NAMING_POLICY);
+			publisher.setFilter(PublishingFilter.fromParams(params));
+			final int[] baseSpots = new int[in.readInt()];
+			for (int i = 0; i < baseSpots.length; ++i) baseSpots[i] = in.readInt();
+			final int notFound = publisher.setMostRecentSpots(baseSpots);
+			if (notFound > 0) {
+				System.out.println("========== SIM: " + notFound + " agents' spots were not found in the base project "
+						+ baseProject + ", these agents will not be linked to their previous spots");
+			}
+
+			while (true) {
+				final TimepointRecord r;
+				try {
+					r = TimepointRecord.readFrom(in);
+				} catch (EOFException e) {
+					//NB: the end, or the last record is incomplete because the simulation hasn't finished
+					break;
+				}
+				if (r.time > tillTime) break;
+				publisher.write(r);
+				++timepoints;
+			}
+		} finally {
+			graph.getLock().writeLock().unlock();
+		}
+
+		ProjectSaver.saveProject(outputProject.toFile(), projectModel);
+		return timepoints;
+	}
+
+	/** consolidates a snapshot, the parameters are: baseProject deltasFile outputProject [tillTime] */
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4) {
+			System.out.println("Parameters: baseProject deltasFile outputProject [tillTime]");
+			return;
+		}
+		final Context context = new Context();
+		try {
+			final int tillTime = args.length == 4 ? Integer.parseInt(args[3]) : Integer.MAX_VALUE;
+			final int cnt = consolidate(Paths.get(args[0]), Paths.get(args[1]), tillTime, Paths.get(args[2]), context);
+			System.out.println("Written " + cnt + " time points into " + args[2]);
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("SNAPSHOTS ERROR: " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			context.dispose();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package org.ulman.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Every two nodes of the distributed simulation are connected with one TCP connection. The node 'i'
+ *  listens on the port basePort+i, and connects itself to all nodes with lower numbers. Outgoing messages
+ *  are written by a background thread per connection, so two nodes can send large messages to each other
+ *  at the same time without blocking one another. */
+class SocketTransport implements DistributedTransport {
+	private final Socket[] sockets;
+	private final DataInputStream[] ins;
+	private final DataOutputStream[] outs;
+	private final ExecutorService[] writers;
+	private volatile IOException writeError = null;
+
+	/** how long to keep trying to connect to nodes that are not listening yet */
+	static final long CONNECT_TIMEOUT_MILLIS = 120_000;
+
+	private SocketTransport(final int nodesCnt) {
+		sockets = new Socket[nodesCnt];
+		ins = new DataInputStream[nodesCnt];
+		outs = new DataOutputStream[nodesCnt];
+		writers = new ExecutorService[nodesCnt];
+	}
+
+	static SocketTransport connect(final int node, final int nodesCnt, final String host, final int basePort)
+	throws IOException {
+		final SocketTransport t = new SocketTransport(nodesCnt);
+		try (ServerSocket server = new ServerSocket(basePort + node)) {
+			//NB: nodes with lower numbers are listening already (or soon will be)
+			for (int other = 0; other < node; ++other) {
+				final Socket s = connectWithRetries(host, basePort + other);
+				new DataOutputStream(s.getOutputStream()).writeInt(node);
+				t.register(other, s);
+			}
+			//nodes with higher numbers connect to us
+			for (int i = node+1; i < nodesCnt; ++i) {
+				final Socket s = server.accept();
+				t.register(new DataInputStream(s.getInputStream()).readInt(), s);
+			}
+		} catch (IOException e) {
+			t.close();
+			throw e;
+		}
+		System.out.println("========== SIM: node " + node + " connected to all " + (nodesCnt-1) + " other nodes");
+		return t;
+	}
+
+	private static Socket connectWithRetries(final String host, final int port) throws IOException {
+		final long giveUpTime = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				return new Socket(host, port);
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > giveUpTime) throw e;
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException ie) {
+					throw new IOException("Interrupted while connecting to " + host + ":" + port, ie);
+				}
+			}
+		}
+	}
+
+	private void register(final int other, final Socket s) throws IOException {
+		s.setTcpNoDelay(true);
+		sockets[other] = s;
+		ins[other] = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+		outs[other] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+		writers[other] = Executors.newSingleThreadExecutor(r -> {
+			final Thread thread = new Thread(r, "simulator-transport-writer-" + other);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void send(final int toNode, final byte[] message) throws IOException {
+		if (writeError != null) throw writeError;
+		final DataOutputStream out = outs[toNode];
+		writers[toNode].execute(() -> {
+			try {
+				out.writeInt(message.length);
+				out.write(message);
+				out.flush();
+			} catch (IOException e) {
+				writeError = e;
+			}
+		});
+	}
+
+	@Override
+	public byte[] receive(final int fromNode) throws IOException {
+		if (writeError != null) throw writeError;
+		final DataInputStream in = ins[fromNode];
+		final byte[] message = new byte[in.readInt()];
+		in.readFully(message);
+		return message;
+	}
+
+	@Override
+	public void close() {
+		for (int i = 0; i < sockets.length; ++i) {
+			if (writers[i] != null) writers[i].shutdown();
+		}
+		for (int i = 0; i < sockets.length; ++i) {
+			try {
+				//NB: let the pending messages leave first
+				if (writers[i] != null) writers[i].awaitTermination(10, TimeUnit.SECONDS);
+				if (sockets[i] != null) sockets[i].close();
+			} catch (IOException | InterruptedException e) {
+				//nothing to be done about it anyway
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.ulman.simulator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/** Advances the agents tile after tile (see {@link AgentsGrid#tiledSlots}) as ForkJoin tasks. The tiles
+ *  are split among the tasks anew every time point according to the current numbers of agents in them,
+ *  and idle threads steal the remaining halves of busy threads, so unevenly growing colonies
+ *  get balanced by themselves. Neighboring agents are, mostly, advanced by the same thread.
+ *  Every thread is handed its own worker state 'W' (e.g. scratch buffers), which is created
+ *  the first time the thread joins the sweeping and is reused in all subsequent sweeps; the states are held
+ *  by this scheduler (and not by the threads, which may outlive it), and are dropped in {@link SweepScheduler#close()}. */
+class SweepScheduler<W> {
+	private ForkJoinPool pool = null;
+	private int poolParallelism = -1;
+	//pool of more simulators, used instead of the one above, see setSharedPool()
+	private ForkJoinPool sharedPool = null;
+
+	//sweeping thread -> its worker state
+	private final Map<Thread,W> workerStates = new ConcurrentHashMap<>(64);
+	private final Supplier<W> newWorkerState;
+
+	SweepScheduler(final Supplier<W> newWorkerState) {
+		this.newWorkerState = newWorkerState;
+	}
+
+	private W workerState() {
+		final Thread t = Thread.currentThread();
+		final W s = workerStates.get(t);
+		return s != null ? s : workerStates.computeIfAbsent(t, k -> newWorkerState.get());
+	}
+
+	/** visits the states of all threads that have ever swept; must not be called while sweeping */
+	void forEachWorkerState(final Consumer<W> visitor) {
+		for (W s : workerStates.values()) visitor.accept(s);
+	}
+
+	/** drops the states of all threads, and shuts down the own pool (if any); sweeping again starts afresh */
+	void close() {
+		workerStates.clear();
+		if (pool != null) pool.shutdown();
+		pool = null;
+		poolParallelism = -1;
+	}
+
+	/** tasks with fewer agents are not split anymore */
+	private static final int MIN_AGENTS_PER_TASK = 256;
+
+	/** sweeps always in the given pool, regardless of the 'parallelism' of the sweeps; null means own pools again */
+	void setSharedPool(final ForkJoinPool pool) {
+		sharedPool = pool;
+	}
+
+	/** 'parallelism' of 0 means to use the common pool, i.e. all available cores */
+	void sweep(final AgentsGrid grid, final int parallelism, final ObjIntConsumer<W> progressSlot) {
+		final ForkJoinPool p = sharedPool != null ? sharedPool : getPool(parallelism);
+		final int grain = Math.max(MIN_AGENTS_PER_TASK, grid.tiledCnt / (8 * p.getParallelism()));
+		final TilesTask<W> task = new TilesTask<>(grid, 0, grid.tiledCnt, grain, this::workerState, progressSlot);
+		//NB: a simulator that runs itself in the pool (e.g. in an ensemble) sweeps also with its own thread
+		if (ForkJoinTask.getPool() == p) task.invoke();
+		else p.invoke(task);
+	}
+
+	/** all slots in their natural order, in the calling thread */
+	void sweepSequentially(final int slotsBound, final ObjIntConsumer<W> progressSlot) {
+		final W state = workerState();
+		for (int slot = 0; slot < slotsBound; ++slot) progressSlot.accept(state, slot);
+	}
+
+	private ForkJoinPool getPool(final int parallelism) {
+		if (parallelism <= 0) return ForkJoinPool.commonPool();
+		if (parallelism != poolParallelism) {
+			//NB: threads of the old pool are daemons, they are gone once their current work is over
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(parallelism);
+			poolParallelism = parallelism;
+		}
+		return pool;
+	}
+
+	private static class TilesTask<W> extends RecursiveAction {
+		final AgentsGrid grid;
+		final int from, till; //indices into the grid.tiledSlots
+		final int grain;
+		final Supplier<W> workerStates;
+		final ObjIntConsumer<W> progressSlot;
+
+		TilesTask(final AgentsGrid grid, final int from, final int till, final int grain,
+		          final Supplier<W> workerStates, final ObjIntConsumer<W> progressSlot) {
+			this.grid = grid;
+			this.from = from;
+			this.till = till;
+			this.grain = grain;
+			this.workerStates = workerStates;
+			this.progressSlot = progressSlot;
+		}
+
+		@Override
+		protected void compute() {
+			if (till - from <= grain) {
+				final W state = workerStates.get();
+				for (int k = from; k < till; ++k) progressSlot.accept(state, grid.tiledSlots[k]);
+				return;
+			}
+			final int mid = splitPoint();
+			invokeAll(new TilesTask<>(grid, from, mid, grain, workerStates, progressSlot),
+			          new TilesTask<>(grid, mid, till, grain, workerStates, progressSlot));
+		}
+
+		/** the tile border closest to the middle of the range, or the middle itself if no border is inside */
+		private int splitPoint() {
+			final int mid = from + (till - from) / 2;
+			//binary search for the first tile that starts at or after 'mid'
+			int lo = 0, hi = grid.tilesCnt;
+			while (lo < hi) {
+				final int m = (lo + hi) >>> 1;
+				if (grid.tileStart[m] < mid) lo = m+1; else hi = m;
+			}
+			int best = mid;
+			int bestDist = Integer.MAX_VALUE;
+			for (int k = Math.max(lo-1, 0); k <= Math.min(lo, grid.tilesCnt); ++k) {
+				final int border = grid.tileStart[k];
+				if (border <= from || border >= till) continue;
+				if (Math.abs(border - mid) > (till - from) / 4) continue; //prefer balance over tile integrity
+				if (Math.abs(border - mid) < bestDist) {
+					best = border;
+					bestDist = Math.abs(border - mid);
+				}
+			}
+			return best;
+		}
+	}
+}
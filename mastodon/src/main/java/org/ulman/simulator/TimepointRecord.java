@@ -0,0 +1,197 @@
+package org.ulman.simulator;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Compact (and once created, never changing) record of all agents of one time point,
+ *  together with the lineage events (births and deaths) that have happened since the previous
+ *  record. A sequence of these is everything that is needed to create the Mastodon spots and links. */
+class TimepointRecord {
+	final int time;
+	final int size;
+
+	//the agents, their i-th values are at the i-th positions
+	final int[] ids;
+	final int[] parentIds;
+	final double[] x, y, z, R;
+	//the labels are materialized only when the spots are created, see labelOf()
+	final String[] labelRoots;
+	final long[] labelPaths;
+	final byte[] nameStates;
+
+	//daughter bornIds[i] came from the mother bornFromIds[i], 0 if created from nothing
+	final int[] bornIds;
+	final int[] bornFromIds;
+	//agents that were removed from the simulation (incl. mothers that have divided)
+	final int[] diedIds;
+
+	TimepointRecord(final int time,
+	                final AgentsStore agents,
+	                final TIntArrayList bornAgents,
+	                final TIntArrayList bornFromAgents,
+	                final TIntArrayList diedAgents) {
+		this.time = time;
+		this.size = agents.size();
+
+		ids = new int[size];
+		parentIds = new int[size];
+		x = new double[size];
+		y = new double[size];
+		z = new double[size];
+		R = new double[size];
+		labelRoots = new String[size];
+		labelPaths = new long[size];
+		nameStates = new byte[size];
+		int i = 0;
+		for (int slot = 0; slot < agents.slotsBound(); ++slot) {
+			if (!agents.isAlive(slot)) continue;
+			ids[i] = agents.id[slot];
+			parentIds[i] = agents.parentId[slot];
+			x[i] = agents.x[slot];
+			y[i] = agents.y[slot];
+			z[i] = agents.z[slot];
+			R[i] = agents.R[slot];
+			labelRoots[i] = agents.labelRoot[slot];
+			labelPaths[i] = agents.labelPath[slot];
+			nameStates[i] = agents.nameState[slot];
+			++i;
+		}
+
+		bornIds = bornAgents.toArray();
+		bornFromIds = bornFromAgents.toArray();
+		diedIds = diedAgents.toArray();
+	}
+
+	private TimepointRecord(final int time, final int[] ids, final int[] parentIds,
+	                        final double[] x, final double[] y, final double[] z, final double[] R,
+	                        final String[] labelRoots, final long[] labelPaths, final byte[] nameStates,
+	                        final int[] bornIds, final int[] bornFromIds, final int[] diedIds) {
+		this.time = time;
+		this.size = ids.length;
+		this.ids = ids;
+		this.parentIds = parentIds;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.R = R;
+		this.labelRoots = labelRoots;
+		this.labelPaths = labelPaths;
+		this.nameStates = nameStates;
+		this.bornIds = bornIds;
+		this.bornFromIds = bornFromIds;
+		this.diedIds = diedIds;
+	}
+
+	/** record with no agents and no lineage events */
+	static TimepointRecord empty(final int time) {
+		return new TimepointRecord(time, new int[0], new int[0], new double[0], new double[0], new double[0], new double[0],
+				new String[0], new long[0], new byte[0], new int[0], new int[0], new int[0]);
+	}
+
+	/** concatenates records of the same time point, e.g. from more simulators that
+	 *  each had its own part of the agents, into one record */
+	static TimepointRecord merge(final List<TimepointRecord> records) {
+		int size = 0, born = 0, died = 0;
+		for (TimepointRecord r : records) {
+			size += r.size;
+			born += r.bornIds.length;
+			died += r.diedIds.length;
+		}
+		final int[] ids = new int[size];
+		final int[] parentIds = new int[size];
+		final double[] x = new double[size], y = new double[size], z = new double[size], R = new double[size];
+		final String[] labelRoots = new String[size];
+		final long[] labelPaths = new long[size];
+		final byte[] nameStates = new byte[size];
+		final int[] bornIds = new int[born];
+		final int[] bornFromIds = new int[born];
+		final int[] diedIds = new int[died];
+		int i = 0, b = 0, d = 0;
+		for (TimepointRecord r : records) {
+			System.arraycopy(r.ids, 0, ids, i, r.size);
+			System.arraycopy(r.parentIds, 0, parentIds, i, r.size);
+			System.arraycopy(r.x, 0, x, i, r.size);
+			System.arraycopy(r.y, 0, y, i, r.size);
+			System.arraycopy(r.z, 0, z, i, r.size);
+			System.arraycopy(r.R, 0, R, i, r.size);
+			System.arraycopy(r.labelRoots, 0, labelRoots, i, r.size);
+			System.arraycopy(r.labelPaths, 0, labelPaths, i, r.size);
+			System.arraycopy(r.nameStates, 0, nameStates, i, r.size);
+			i += r.size;
+			System.arraycopy(r.bornIds, 0, bornIds, b, r.bornIds.length);
+			System.arraycopy(r.bornFromIds, 0, bornFromIds, b, r.bornIds.length);
+			b += r.bornIds.length;
+			System.arraycopy(r.diedIds, 0, diedIds, d, r.diedIds.length);
+			d += r.diedIds.length;
+		}
+		return new TimepointRecord(records.get(0).time, ids, parentIds, x, y, z, R, labelRoots, labelPaths, nameStates,
+				bornIds, bornFromIds, diedIds);
+	}
+
+	void writeTo(final DataOutput out) throws IOException {
+		out.writeInt(time);
+		out.writeInt(size);
+		for (int i = 0; i < size; ++i) {
+			out.writeInt(ids[i]);
+			out.writeInt(parentIds[i]);
+			out.writeDouble(x[i]);
+			out.writeDouble(y[i]);
+			out.writeDouble(z[i]);
+			out.writeDouble(R[i]);
+			out.writeUTF(labelRoots[i]);
+			out.writeLong(labelPaths[i]);
+			out.writeByte(nameStates[i]);
+		}
+		writeInts(bornIds, out);
+		writeInts(bornFromIds, out);
+		writeInts(diedIds, out);
+	}
+
+	static TimepointRecord readFrom(final DataInput in) throws IOException {
+		final int time = in.readInt();
+		final int size = in.readInt();
+		final int[] ids = new int[size];
+		final int[] parentIds = new int[size];
+		final double[] x = new double[size], y = new double[size], z = new double[size], R = new double[size];
+		final String[] labelRoots = new String[size];
+		final long[] labelPaths = new long[size];
+		final byte[] nameStates = new byte[size];
+		//NB: agents of one lineage should share their root label also after the transfer
+		final Map<String,String> roots = new HashMap<>();
+		for (int i = 0; i < size; ++i) {
+			ids[i] = in.readInt();
+			parentIds[i] = in.readInt();
+			x[i] = in.readDouble();
+			y[i] = in.readDouble();
+			z[i] = in.readDouble();
+			R[i] = in.readDouble();
+			labelRoots[i] = roots.computeIfAbsent(in.readUTF(), r -> r);
+			labelPaths[i] = in.readLong();
+			nameStates[i] = in.readByte();
+		}
+		return new TimepointRecord(time, ids, parentIds, x, y, z, R, labelRoots, labelPaths, nameStates,
+				readInts(in), readInts(in), readInts(in));
+	}
+
+	/** the (decorated) label of the i-th agent */
+	String labelOf(final int i, final AgentNamingPolicy namingPolicy) {
+		return Agent.composeName(namingPolicy, labelRoots[i], labelPaths[i], nameStates[i]);
+	}
+
+	private static void writeInts(final int[] values, final DataOutput out) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values) out.writeInt(v);
+	}
+
+	private static int[] readInts(final DataInput in) throws IOException {
+		final int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; ++i) values[i] = in.readInt();
+		return values;
+	}
+}
@@ -0,0 +1,163 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/** The agents of every time point in numbers: how many there are, their centroid and bounding box, how many
+ *  divisions and deaths led to this time point, and how dense the agents are, as a histogram of how many
+ *  neighbors the agents have seen when they were advanced into this time point (in the last sub-step).
+ *  Time points are kept as long as the simulation runs. Export it with {@link TimepointStats#writeCsv(Path)}. */
+public class TimepointStats {
+	/** the density histogram has bins for 0,1,2... neighbors, the last bin counts the agents with DENSITY_BINS-1 or more */
+	public static final int DENSITY_BINS = 16;
+
+	/** sums of one thread (or of one chunk of agents), and also the sums of one whole time point */
+	static final class Partial {
+		long agents;
+		double sumX, sumY, sumZ;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		long divisions, deaths;
+		final long[] density = new long[DENSITY_BINS];
+
+		void addAgent(final double x, final double y, final double z) {
+			++agents;
+			sumX += x;
+			sumY += y;
+			sumZ += z;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+
+		/** negative counts (i.e. not known) are ignored */
+		void addNeighbors(final int neighborsCnt) {
+			if (neighborsCnt < 0) return;
+			density[Math.min(neighborsCnt, DENSITY_BINS-1)]++;
+		}
+
+		void addAgentsOf(final Partial p) {
+			agents += p.agents;
+			sumX += p.sumX;
+			sumY += p.sumY;
+			sumZ += p.sumZ;
+			minX = Math.min(minX, p.minX);
+			minY = Math.min(minY, p.minY);
+			minZ = Math.min(minZ, p.minZ);
+			maxX = Math.max(maxX, p.maxX);
+			maxY = Math.max(maxY, p.maxY);
+			maxZ = Math.max(maxZ, p.maxZ);
+		}
+
+		void setAgentsOf(final Partial p) {
+			agents = 0;
+			sumX = sumY = sumZ = 0;
+			minX = minY = minZ = Double.POSITIVE_INFINITY;
+			maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+			addAgentsOf(p);
+		}
+	}
+
+	/** agents are summed up in chunks of this many, the chunks in parallel */
+	private static final int CHUNK = 1 << 14;
+
+	/** sums up the agents 'i' (below the 'bound') that are 'isAgent(i)'; NB: the sums are the same
+	 *  regardless of the number of threads because the chunks are always the same, and merged in their order */
+	static Partial ofAgents(final int bound, final IntPredicate isAgent,
+	                        final double[] x, final double[] y, final double[] z) {
+		final Partial[] chunks = IntStream.range(0, (bound + CHUNK-1) / CHUNK).parallel().mapToObj(c -> {
+			final Partial p = new Partial();
+			final int till = Math.min(bound, (c+1) * CHUNK);
+			for (int i = c * CHUNK; i < till; ++i) {
+				if (isAgent.test(i)) p.addAgent(x[i], y[i], z[i]);
+			}
+			return p;
+		}).toArray(Partial[]::new);
+
+		final Partial all = new Partial();
+		for (Partial p : chunks) all.addAgentsOf(p);
+		return all;
+	}
+
+	//time -> its statistics
+	private final Map<Integer,Partial> timeline = new LinkedHashMap<>();
+
+	private Partial row(final int time) {
+		return timeline.computeIfAbsent(time, t -> new Partial());
+	}
+
+	/** the time point consists (now) of the given agents */
+	void setAgents(final int time, final Partial agents) {
+		row(time).setAgentsOf(agents);
+	}
+
+	/** adds, and resets, the divisions and deaths of one thread; its density histogram
+	 *  is added only if 'withDensity', and is reset always */
+	void add(final int time, final Partial p, final boolean withDensity) {
+		final Partial r = row(time);
+		r.divisions += p.divisions;
+		r.deaths += p.deaths;
+		p.divisions = 0;
+		p.deaths = 0;
+		for (int i = 0; i < DENSITY_BINS; ++i) {
+			if (withDensity) r.density[i] += p.density[i];
+			p.density[i] = 0;
+		}
+	}
+
+	void count(final int time, final long divisions, final long deaths) {
+		final Partial r = row(time);
+		r.divisions += divisions;
+		r.deaths += deaths;
+	}
+
+	public long getAgentsCount(final int time) {
+		final Partial r = timeline.get(time);
+		return r != null ? r.agents : 0;
+	}
+
+	/** fills the 'coords' with the centroid of the agents, returns false (and leaves the 'coords') if there are none */
+	public boolean getCentroid(final int time, final double[] coords) {
+		final Partial r = timeline.get(time);
+		if (r == null || r.agents == 0) return false;
+		coords[0] = r.sumX / r.agents;
+		coords[1] = r.sumY / r.agents;
+		coords[2] = r.sumZ / r.agents;
+		return true;
+	}
+
+	/** one row per time point, the centroid and bounding box are NaN if there are no agents */
+	public void writeCsv(final Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			final StringBuilder header = new StringBuilder("time,agents,centroid_x,centroid_y,centroid_z,"
+					+ "min_x,min_y,min_z,max_x,max_y,max_z,divisions,deaths");
+			for (int i = 0; i < DENSITY_BINS-1; ++i) header.append(",neighbors_").append(i);
+			header.append(",neighbors_").append(DENSITY_BINS-1).append("_or_more");
+			out.println(header);
+
+			for (Map.Entry<Integer,Partial> e : timeline.entrySet()) {
+				final Partial r = e.getValue();
+				out.print(e.getKey() + "," + r.agents);
+				if (r.agents > 0) {
+					out.printf(Locale.ROOT, ",%f,%f,%f,%f,%f,%f,%f,%f,%f", r.sumX / r.agents, r.sumY / r.agents, r.sumZ / r.agents,
+							r.minX, r.minY, r.minZ, r.maxX, r.maxY, r.maxZ);
+				} else {
+					out.print(",NaN,NaN,NaN,NaN,NaN,NaN,NaN,NaN,NaN");
+				}
+				out.print("," + r.divisions + "," + r.deaths);
+				for (long v : r.density) out.print("," + v);
+				out.println();
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.ulman.simulator;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Streams the {@link TimepointRecord}s into files as they are made, so that the simulated tracks need not become
+ *  Mastodon spots at all (see {@link Simulator#EXPORT_ONLY}). Only a fixed-size buffer and the currently living
+ *  agents are held in the memory, regardless of how long the simulation runs.
+ *  <p>
+ *  The columnar file (see {@link Simulator#EXPORT_TRACKS_FILE}) starts with a header: magic int, version int;
+ *  then one block per time point follows: time int, agents count int; then the columns over all the agents: id,
+ *  parent id int[]; x, y, z, R double[]; and finally the label of every agent as its length (in bytes) short and
+ *  its UTF-8 bytes. All numbers are little-endian.
+ *  <p>
+ *  The Cell Tracking Challenge file (see {@link Simulator#EXPORT_CTC_TRACKS_FILE}) is the res_track.txt
+ *  with a line "L B E P" per every agent (which is a track from its birth to its division or death): its ID,
+ *  the first and the last time point, and the ID of its mother (or of the nearest exported ancestor), 0 if none. */
+class TracksExport {
+	static final int MAGIC = 0x53494D54; //"SIMT"
+	static final int VERSION = 1;
+	static final int BUFFER_BYTES = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+
+	private final BufferedWriter ctcWriter;
+	private static final int NONE = -1;
+	//agent ID -> the first time point of its track, for the tracks not yet written
+	private final TIntIntHashMap trackBegins = new TIntIntHashMap(100000, 0.5f, 0, NONE);
+	//agent ID -> the ID of its own or of its ancestor's most recent track
+	private final TIntIntHashMap recentTracks = new TIntIntHashMap(100000, 0.5f, 0, NONE);
+	//agent ID -> the parent track of its own track
+	private final TIntIntHashMap parentTracks = new TIntIntHashMap(100000, 0.5f, 0, NONE);
+	private int lastTime = -1;
+
+	private final AgentNamingPolicy namingPolicy;
+
+	/** any of the files may be null */
+	TracksExport(final Path tracksFile, final Path ctcTracksFile, final AgentNamingPolicy namingPolicy) throws IOException {
+		this.namingPolicy = namingPolicy;
+		if (tracksFile != null) {
+			channel = FileChannel.open(tracksFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION);
+		} else {
+			channel = null;
+			buffer = null;
+		}
+		ctcWriter = ctcTracksFile != null ? Files.newBufferedWriter(ctcTracksFile, StandardCharsets.US_ASCII) : null;
+	}
+
+	/** the time points must come in their order */
+	void write(final TimepointRecord record) throws IOException {
+		if (channel != null) writeColumns(record);
+		if (ctcWriter != null) updateTracks(record);
+		lastTime = record.time;
+	}
+
+	private void writeColumns(final TimepointRecord r) throws IOException {
+		room(8);
+		buffer.putInt(r.time).putInt(r.size);
+		for (int[] column : new int[][] {r.ids, r.parentIds}) {
+			for (int i = 0; i < r.size; ++i) {
+				room(4);
+				buffer.putInt(column[i]);
+			}
+		}
+		for (double[] column : new double[][] {r.x, r.y, r.z, r.R}) {
+			for (int i = 0; i < r.size; ++i) {
+				room(8);
+				buffer.putDouble(column[i]);
+			}
+		}
+		for (int i = 0; i < r.size; ++i) {
+			final byte[] label = r.labelOf(i, namingPolicy).getBytes(StandardCharsets.UTF_8);
+			room(2 + label.length);
+			buffer.putShort((short)label.length).put(label);
+		}
+	}
+
+	/** makes sure the buffer can take the given number of bytes, writes it out if not */
+	private void room(final int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) return;
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void updateTracks(final TimepointRecord r) throws IOException {
+		//daughters continue from their mothers' tracks...
+		for (int i = 0; i < r.bornIds.length; ++i) {
+			final int motherTrack = recentTracks.get(r.bornFromIds[i]);
+			if (motherTrack != NONE) recentTracks.put(r.bornIds[i], motherTrack);
+		}
+		//...and only then the mothers' tracks can be closed
+		for (int id : r.diedIds) {
+			final int begin = trackBegins.remove(id);
+			if (begin != NONE) writeTrack(id, begin, lastTime, parentTracks.remove(id));
+			recentTracks.remove(id);
+		}
+		for (int i = 0; i < r.size; ++i) {
+			final int id = r.ids[i];
+			if (trackBegins.containsKey(id)) continue;
+			trackBegins.put(id, r.time);
+			final int parentTrack = recentTracks.put(id, id);
+			parentTracks.put(id, parentTrack != NONE ? parentTrack : 0);
+		}
+	}
+
+	private void writeTrack(final int id, final int begin, final int end, final int parentTrack) throws IOException {
+		ctcWriter.write(id + " " + begin + " " + end + " " + parentTrack);
+		ctcWriter.newLine();
+	}
+
+	/** writes out everything, the tracks of the living agents end with the last time point */
+	void close() throws IOException {
+		if (channel != null) {
+			room(BUFFER_BYTES);
+			channel.close();
+		}
+		if (ctcWriter != null) {
+			//NB: sorted, so that the same simulation gives the same file
+			final int[] ids = trackBegins.keys();
+			Arrays.sort(ids);
+			for (int id : ids) writeTrack(id, trackBegins.get(id), lastTime, parentTracks.get(id));
+			ctcWriter.close();
+		}
+	}
+}
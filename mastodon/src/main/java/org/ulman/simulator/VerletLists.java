@@ -0,0 +1,221 @@
+package org.ulman.simulator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** Per-agent lists of neighbors (aka Verlet lists) that are reused over several time points. The lists
+ *  are built with the look around distance enlarged by a 'skin', and are valid as long as no agent has moved
+ *  (or grown) by more than half of the skin since then. Divisions and deaths are patched into the lists
+ *  as they happen, other changes of the agents (e.g. agents added from elsewhere) require a new build.
+ *  The lists are symmetric: if A is in the list of B, then B is in the list of A. */
+class VerletLists {
+	//slots of the neighbors of the agent in the slot 's' are at lists[s][0 ... counts[s]-1]
+	private int[][] lists = new int[0][];
+	private int[] counts = new int[0];
+	//the agent's position and radius at the time the lists were built
+	private double[] refX = new double[0], refY = new double[0], refZ = new double[0], refR = new double[0];
+
+	private boolean valid = false;
+	private double listsSearchDistance = 0;
+
+	//statistics of how often the lists need to be rebuilt
+	private int buildsCnt = 0;
+	private int checksCnt = 0;
+
+	boolean isValid() {
+		return valid;
+	}
+
+	void invalidate() {
+		valid = false;
+	}
+
+	/** how many times the lists were (re)built per time point, 1.0 means every time point */
+	double getRebuildRate() {
+		return checksCnt > 0 ? (double)buildsCnt / (double)checksCnt : 0.0;
+	}
+
+	int getBuildsCount() {
+		return buildsCnt;
+	}
+
+	/** makes sure the lists are valid for the current positions (and radii) of the agents,
+	 *  returns true if the lists had to be rebuilt */
+	boolean update(final AgentsStore store, final AgentsGrid grid, final double lookAroundDistance, final double skin) {
+		++checksCnt;
+		if (valid && listsSearchDistance == lookAroundDistance + skin
+				&& maxDisplacement(store) <= 0.5 * skin) return false;
+
+		listsSearchDistance = lookAroundDistance + skin;
+		build(store, grid);
+		++buildsCnt;
+		return true;
+	}
+
+	private double maxDisplacement(final AgentsStore store) {
+		return IntStream.range(0, store.slotsBound()).parallel().mapToDouble(slot -> {
+			if (!store.isAlive(slot)) return 0.0;
+			final double dx = store.x[slot] - refX[slot];
+			final double dy = store.y[slot] - refY[slot];
+			final double dz = store.z[slot] - refZ[slot];
+			return Math.sqrt(dx*dx + dy*dy + dz*dz) + Math.max(store.R[slot] - refR[slot], 0.0);
+		}).max().orElse(0.0);
+	}
+
+	private void build(final AgentsStore store, final AgentsGrid grid) {
+		ensureCapacity(store.capacity());
+		IntStream.range(0, store.slotsBound()).parallel().forEach(slot -> {
+			counts[slot] = 0;
+			if (!store.isAlive(slot)) return;
+			refX[slot] = store.x[slot];
+			refY[slot] = store.y[slot];
+			refZ[slot] = store.z[slot];
+			refR[slot] = store.R[slot];
+			if (lists[slot] == null) lists[slot] = new int[16];
+			int cnt;
+			while ((cnt = grid.getNeighborSlots(store, slot, listsSearchDistance, lists[slot])) < 0) {
+				lists[slot] = new int[2 * lists[slot].length];
+			}
+			counts[slot] = cnt;
+		});
+		valid = true;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (counts.length >= capacity) return;
+		lists = Arrays.copyOf(lists, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		refX = Arrays.copyOf(refX, capacity);
+		refY = Arrays.copyOf(refY, capacity);
+		refZ = Arrays.copyOf(refZ, capacity);
+		refR = Arrays.copyOf(refR, capacity);
+	}
+
+	private void add(final int slot, final int neighborSlot) {
+		if (lists[slot] == null) lists[slot] = new int[16];
+		if (counts[slot] == lists[slot].length) lists[slot] = Arrays.copyOf(lists[slot], 2 * counts[slot]);
+		lists[slot][counts[slot]++] = neighborSlot;
+	}
+
+	private void remove(final int slot, final int neighborSlot) {
+		final int[] list = lists[slot];
+		for (int i = 0; i < counts[slot]; ++i) {
+			if (list[i] == neighborSlot) {
+				//NB: keeps the order of the remaining neighbors
+				System.arraycopy(list, i+1, list, i, counts[slot]-i-1);
+				--counts[slot];
+				return;
+			}
+		}
+	}
+
+	/** the new agent in the 'slot' is a daughter of the (still present) agent in the 'motherSlot' */
+	void agentBorn(final AgentsStore store, final int slot, final int motherSlot) {
+		if (!valid) return;
+		ensureCapacity(store.capacity());
+		//NB: the daughter is considered to have been exactly where the mother was when the lists were built,
+		//    and so the mother's neighbors (and the mother itself, and so the sister too) are also hers
+		refX[slot] = refX[motherSlot];
+		refY[slot] = refY[motherSlot];
+		refZ[slot] = refZ[motherSlot];
+		refR[slot] = refR[motherSlot];
+		counts[slot] = 0;
+		for (int i = 0; i < counts[motherSlot]; ++i) {
+			final int n = lists[motherSlot][i];
+			add(slot, n);
+			add(n, slot);
+		}
+		add(slot, motherSlot);
+		add(motherSlot, slot);
+	}
+
+	/** the agent in the 'slot' is about to be removed */
+	void agentRemoved(final int slot) {
+		if (!valid) return;
+		for (int i = 0; i < counts[slot]; ++i) remove(lists[slot][i], slot);
+		counts[slot] = 0;
+	}
+
+	// ------------- checkpoints -------------
+	/** a copy of the lists of the slots below the 'slotsBound' (e.g. for a checkpoint), without the statistics */
+	VerletLists copy(final int slotsBound) {
+		final VerletLists c = new VerletLists();
+		c.listsSearchDistance = listsSearchDistance;
+		if (!valid) return c;
+		c.ensureCapacity(slotsBound);
+		for (int slot = 0; slot < slotsBound; ++slot) {
+			c.counts[slot] = counts[slot];
+			if (counts[slot] > 0) c.lists[slot] = Arrays.copyOf(lists[slot], counts[slot]);
+		}
+		System.arraycopy(refX, 0, c.refX, 0, slotsBound);
+		System.arraycopy(refY, 0, c.refY, 0, slotsBound);
+		System.arraycopy(refZ, 0, c.refZ, 0, slotsBound);
+		System.arraycopy(refR, 0, c.refR, 0, slotsBound);
+		c.valid = true;
+		return c;
+	}
+
+	private int slotsInCopy() {
+		return valid ? counts.length : 0;
+	}
+
+	long bytesOfAll() {
+		long bytes = 4 + 8 + 4 + (4L + 4*8) * slotsInCopy();
+		for (int slot = 0; slot < slotsInCopy(); ++slot) bytes += 4L * counts[slot];
+		return bytes;
+	}
+
+	/** writes a copy(): valid int, search distance double, slots int; then over all the slots: counts int[];
+	 *  ref x, y, z, R double[]; and the lists of all the slots one after another int[] */
+	void writeAllTo(final MappedRegions b) throws IOException {
+		final int slots = slotsInCopy();
+		b.putInt(valid ? 1 : 0).putDouble(listsSearchDistance).putInt(slots);
+		b.put(counts, 0, slots);
+		for (double[] column : new double[][] {refX, refY, refZ, refR}) b.put(column, 0, slots);
+		for (int slot = 0; slot < slots; ++slot) {
+			if (counts[slot] == 0) continue;
+			b.put(lists[slot], 0, counts[slot]);
+		}
+	}
+
+	/** reads what writeAllTo() has written, for the agents of the given store */
+	void readAllFrom(final MappedRegions b, final AgentsStore store) throws IOException {
+		valid = b.getInt() != 0;
+		listsSearchDistance = b.getDouble();
+		final int slots = b.getInt();
+		ensureCapacity(Math.max(store.capacity(), slots));
+		b.get(counts, 0, slots);
+		Arrays.fill(counts, slots, counts.length, 0);
+		for (double[] column : new double[][] {refX, refY, refZ, refR}) b.get(column, 0, slots);
+		for (int slot = 0; slot < slots; ++slot) {
+			if (counts[slot] == 0) continue;
+			lists[slot] = new int[Math.max(16, counts[slot])];
+			b.get(lists[slot], 0, counts[slot]);
+		}
+	}
+
+	/** the same contract as {@link Simulator#getListOfOccupiedCoords(Agent, double, NeighborSpheres)},
+	 *  the 'searchDistance' must not be larger than the look around distance the lists were built for */
+	int getListOfOccupiedCoords(final AgentsStore store, final Agent fromThisAgent,
+	                            final double searchDistance, final NeighborSpheres nearbySpheres) {
+		final int thisSlot = fromThisAgent.getSlot();
+		final double x = fromThisAgent.getX();
+		final double y = fromThisAgent.getY();
+		final double z = fromThisAgent.getZ();
+		final double radiusPlusSearchDistance = fromThisAgent.getR() + searchDistance;
+
+		final int[] list = lists[thisSlot];
+		for (int i = 0; i < counts[thisSlot]; ++i) {
+			final int n = list[i];
+			final double dx = store.x[n] - x;
+			final double dy = store.y[n] - y;
+			final double dz = store.z[n] - z;
+			final double neighborR = store.R[n];
+			if ( Math.sqrt(dx*dx + dy*dy + dz*dz) > (radiusPlusSearchDistance+neighborR) ) continue;
+
+			nearbySpheres.add(store.x[n], store.y[n], store.z[n], neighborR);
+		}
+		return nearbySpheres.cnt;
+	}
+}
@@ -0,0 +1,101 @@
+package org.ulman.simulator.ui;
+
+import org.scijava.Context;
+import org.ulman.simulator.SimulationConfig;
+import org.ulman.simulator.SimulationParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Runs many simulations, e.g. of different seeds or of different parameters, at the same time on one shared
+ *  pool of threads, so that parameter sweeps use the whole machine instead of running one simulation after another.
+ *  Every simulation has its own parameters (see {@link SimulationParams}), starts from the very beginning and
+ *  saves its own project (see {@link Runner#Runner(Context, String, short, int)}). The agents of all simulations
+ *  are advanced as tasks of the shared pool, so threads that are done with one simulation help the others. */
+public class EnsembleRunner {
+	private final Context context;
+	private final List<Runner> runs = new ArrayList<>();
+
+	/** the projects of all simulations are created in this context */
+	public EnsembleRunner(final Context context) {
+		this.context = context;
+	}
+
+	/** adds the simulation with these parameters (later changes of the 'config' are not seen by it), which saves
+	 *  its project into 'outputProjectFileName'; the returned Runner can be set up further, e.g. its snapshots */
+	public Runner add(final SimulationConfig config, final String outputProjectFileName,
+	                  final short numberOfCells, final int timepoints) {
+		final Runner r = new Runner(context, outputProjectFileName, numberOfCells, timepoints);
+		r.changeConfigTo(config.copy());
+		runs.add(r);
+		return r;
+	}
+
+	/** adds one simulation per seed, with otherwise the same parameters; every "%d" in the project's file name,
+	 *  and in the files of the 'config' (e.g. {@link SimulationConfig#SIMULATION_STATS_FILE}), is replaced with the seed */
+	public void addSeeds(final SimulationConfig config, final long[] seeds, final String outputProjectFileName,
+	                     final short numberOfCells, final int timepoints) {
+		for (long seed : seeds) {
+			final SimulationConfig c = config.copy();
+			c.RANDOM_SEED = seed;
+			c.COLLECT_INTERNAL_DATA_FILE = withSeed(c.COLLECT_INTERNAL_DATA_FILE, seed);
+			c.SIMULATION_PROFILE_FILE = withSeed(c.SIMULATION_PROFILE_FILE, seed);
+			c.SIMULATION_STATS_FILE = withSeed(c.SIMULATION_STATS_FILE, seed);
+			c.EXPORT_TRACKS_FILE = withSeed(c.EXPORT_TRACKS_FILE, seed);
+			c.EXPORT_CTC_TRACKS_FILE = withSeed(c.EXPORT_CTC_TRACKS_FILE, seed);
+			add(c, withSeed(outputProjectFileName, seed), numberOfCells, timepoints);
+		}
+	}
+
+	private static String withSeed(final String filename, final long seed) {
+		return filename.replace("%d", String.valueOf(seed));
+	}
+
+	public int size() {
+		return runs.size();
+	}
+
+	/** runs all added simulations, and returns once all of them are over; 'parallelism' is the number
+	 *  of threads of the shared pool, 0 means as many as there are available cores */
+	public void run(final int parallelism) {
+		final ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+		System.out.println("ENSEMBLE STARTED on "+java.time.LocalTime.now()+" with "+runs.size()
+				+" simulations on "+pool.getParallelism()+" threads");
+		try {
+			final List<ForkJoinTask<?>> tasks = new ArrayList<>(runs.size());
+			for (Runner r : runs) {
+				r.setThreadPool(pool);
+				tasks.add(pool.submit(r));
+			}
+			for (ForkJoinTask<?> t : tasks) t.join();
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("ENSEMBLE FINISHED on "+java.time.LocalTime.now());
+	}
+
+	/** simulations of consecutive seeds with the default parameters, the parameters are:
+	 *  outputProject(with %d for the seed) numberOfCells timepoints firstSeed seedsCount [parallelism] */
+	public static void main(String[] args) {
+		if (args.length != 5 && args.length != 6) {
+			System.out.println("Parameters: outputProject(with %d for the seed) numberOfCells timepoints firstSeed seedsCount [parallelism]");
+			return;
+		}
+		final Context context = new Context();
+		try {
+			final long firstSeed = Long.parseLong(args[3]);
+			final long[] seeds = new long[Integer.parseInt(args[4])];
+			for (int i = 0; i < seeds.length; ++i) seeds[i] = firstSeed + i;
+
+			final EnsembleRunner ensemble = new EnsembleRunner(context);
+			ensemble.addSeeds(new SimulationConfig(), seeds, args[0], Short.parseShort(args[1]), Integer.parseInt(args[2]));
+			ensemble.run(args.length == 6 ? Integer.parseInt(args[5]) : 0);
+		} catch (NumberFormatException e) {
+			System.out.println("ENSEMBLE ERROR: " + e.getMessage());
+		} finally {
+			context.dispose();
+		}
+	}
+}
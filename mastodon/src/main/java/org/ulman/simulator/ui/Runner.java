@@ -8,12 +8,16 @@ import org.mastodon.mamut.model.Model;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.spatial.SpatialIndex;
 import org.mastodon.views.bdv.SharedBigDataViewerData;
+import org.scijava.Context;
 import org.ulman.simulator.SimulationConfig;
 import org.ulman.simulator.Simulator;
+import org.ulman.simulator.SnapshotDeltas;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 
 /** This class hosts the main simulation loop. */
 public class Runner implements Runnable {
@@ -21,6 +25,7 @@ public class Runner implements Runnable {
 	private final String outputProjectFilename;
 
 	private final int initialNumberOfCells;
+	private final String checkpointToResumeFrom;
 	private final int timeFrom;
 	private final int timeTill;
 	private SimulationConfig simConfig = null;
@@ -32,6 +37,7 @@ public class Runner implements Runnable {
 		this.projectModel = projectModel;
 		this.outputProjectFilename = null; //save nothing in the end
 		this.initialNumberOfCells = Math.max(numberOfCells,1);
+		this.checkpointToResumeFrom = null;
 		this.timeFrom = projectModel.getMinTimepoint();
 		this.timeTill = Math.min(timeFrom+timepoints, projectModel.getMaxTimepoint());
 	}
@@ -43,6 +49,7 @@ public class Runner implements Runnable {
 		this.projectModel = projectModel;
 		this.outputProjectFilename = null; //save nothing in the end
 		this.initialNumberOfCells = -1;    //indicates to find them in the last time point of the projectModel
+		this.checkpointToResumeFrom = null;
 
 		if (fromThisTimepoint < 0) {
 			//search for the last non-empty time point
@@ -63,14 +70,40 @@ public class Runner implements Runnable {
 		this.timeTill = Math.min(timeFrom+timepoints, projectModel.getMaxTimepoint());
 	}
 
+	/** intended for when full Mastodon is around, continues exactly from where the checkpoint was made,
+	 *  see {@link Runner#setCheckpoints(String, int)}; the Mastodon project should be the one from that time */
+	public Runner(final ProjectModel projectModel,
+	              final String checkpointFile,
+	              final int timepoints) {
+		this.projectModel = projectModel;
+		this.outputProjectFilename = null; //save nothing in the end
+		this.initialNumberOfCells = -1;
+		this.checkpointToResumeFrom = checkpointFile;
+		try {
+			this.timeFrom = Simulator.getCheckpointTime(Paths.get(checkpointFile));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read the checkpoint: " + e.getMessage(), e);
+		}
+		System.out.println("Resuming from the checkpoint of time point "+timeFrom);
+		this.timeTill = Math.min(timeFrom+timepoints, projectModel.getMaxTimepoint());
+	}
+
 	/** intended for starts from a command line, from the very beginning */
 	public Runner(final String outputProjectFileName,
 	              final short numberOfCells,
 	              final int timepoints) {
+		this(new ImageJ().getContext(), outputProjectFileName, numberOfCells, timepoints);
+	}
+
+	/** intended for starts from a command line, from the very beginning, in an already existing context
+	 *  (e.g. shared by more simulations, see {@link EnsembleRunner}) */
+	public Runner(final Context context,
+	              final String outputProjectFileName,
+	              final short numberOfCells,
+	              final int timepoints) {
 		//setup a Mastodon project first
 		final String DUMMYXML="DUMMY x=100 y=100 z=100 t="+(timepoints+1)+".dummy";
-		ImageJ ij = new ImageJ();
-		this.projectModel = ProjectModel.create(ij.getContext(),
+		this.projectModel = ProjectModel.create(context,
 				new Model(),
 				SharedBigDataViewerData.fromDummyFilename(DUMMYXML),
 				new MamutProject(outputProjectFileName));
@@ -78,35 +111,50 @@ public class Runner implements Runnable {
 		this.outputProjectFilename = outputProjectFileName;
 		//
 		this.initialNumberOfCells = Math.max(numberOfCells,1);
+		this.checkpointToResumeFrom = null;
 		this.timeFrom = 0;
 		this.timeTill = timepoints;
 	}
 
+	/** the simulation takes the parameters from this configuration, instead of from the current
+	 *  defaults (see {@link Simulator#setParamsFromConfig(SimulationConfig)}), when it starts */
 	public void changeConfigTo(final SimulationConfig c) {
 		this.simConfig = c;
 	}
 
+	private ForkJoinPool threadPool = null;
+	/** Advance the agents with the threads of this pool, e.g. of a pool shared by more simulations
+	 *  that run at the same time (see {@link EnsembleRunner}); null means the simulation's own threads. */
+	public void setThreadPool(final ForkJoinPool pool) {
+		threadPool = pool;
+	}
+
 	@Override
 	public void run() {
-		Simulator s = new Simulator(projectModel);
-		if (simConfig != null) {
-			Simulator.setParamsFromConfig(simConfig);
-		}
+		Simulator s = new Simulator(projectModel, simConfig != null ? simConfig : new SimulationConfig());
+		s.setThreadPool(threadPool);
 		System.out.println(s);
 
 		ProgressBar pb = null;
 		try {
 			System.out.println("SIMULATOR STARTED on "+java.time.LocalTime.now());
-			s.open();
+			s.open(livePublishing);
 
-			if (initialNumberOfCells == -1) {
+			if (checkpointToResumeFrom != null) {
+				s.restoreCheckpoint(Paths.get(checkpointToResumeFrom));
+				//the spots of this time point are already there
+				startDeltaSnapshots(s);
+			} else if (initialNumberOfCells == -1) {
 				s.populate(projectModel, timeFrom);
 				//don't pushToMastodonGraphAndUpdateStats(), the spots are already there
 				s.updateStats();
+				startDeltaSnapshots(s);
 			} else {
 				s.populate(initialNumberOfCells, timeFrom);
+				startDeltaSnapshots(s);
 				s.pushToMastodonGraphAndUpdateStats();
 			}
+			if (pipelinedPublishing) s.startPipelinedPublishing(PIPELINE_QUEUE_CAPACITY);
 
 			int time = timeFrom+1;
 			if (outputProjectFilename == null && time < timeTill) {
@@ -115,7 +163,13 @@ public class Runner implements Runnable {
 			}
 			while (time <= timeTill) {
 				s.doOneTime();
-				s.pushToMastodonGraphAndUpdateStats();
+				s.recordCurrentTimepoint();
+				if (publishingInterval > 0 && (time-timeFrom) % publishingInterval == 0) {
+					s.flushToMastodonGraph();
+				}
+				if (checkpointsInterval > 0 && (time-timeFrom) % checkpointsInterval == 0) {
+					s.writeCheckpoint(Paths.get(checkpointsPath));
+				}
 
 				if (pb != null) {
 					if (pb.isStop()) {
@@ -126,14 +180,31 @@ public class Runner implements Runnable {
 					pb.updateLabel("Current time point: "+time);
 				}
 
-				if ( snapshotsTimepoints.contains(s.getTime()) ) saveSnapshot(s);
+				if ( snapshotsTimepoints.contains(s.getTime()) && s.isSavingSnapshotDeltas() ) {
+					s.snapshotDeltas();
+				} else if ( snapshotsTimepoints.contains(s.getTime()) ) {
+					s.flushToMastodonGraph();
+					s.finishPipelinedPublishing();
+					saveSnapshot(s);
+					if (pipelinedPublishing) s.startPipelinedPublishing(PIPELINE_QUEUE_CAPACITY);
+				}
 
 				++time;
 			}
-			if (Simulator.CREATE_MASTODON_CENTER_SPOT) {
+			s.flushToMastodonGraph();
+			//NB: the last time point (also of a stopped simulation) is always checkpointed, to be resumed from
+			if (checkpointsInterval > 0 && (s.getTime()-timeFrom) % checkpointsInterval != 0) {
+				s.writeCheckpoint(Paths.get(checkpointsPath));
+			}
+			s.finishPipelinedPublishing();
+			if (s.getParams().CREATE_MASTODON_CENTER_SPOT) {
 				System.out.println("SIMULATOR ADDING CENTRE SPOTS");
 				s.pushCenterSpotsToMastodonGraph(timeFrom, timeTill);
 			}
+			if (s.isSavingSnapshotDeltas()) {
+				//NB: the project now is all the deltas consolidated, save it as the last snapshot
+				saveSnapshot(s);
+			}
 		} catch (Exception e) {
 			System.out.println("SIMULATOR ERROR: "+e.getMessage());
 			e.printStackTrace();
@@ -169,11 +240,15 @@ public class Runner implements Runnable {
 		this.snapshotsTimepoints.add(timepoint);
 	}
 
+	private String snapshotFilename(final String suffix) {
+		int splitIdx = snapshotsPath.indexOf(".mastodon");
+		return snapshotsPath.substring(0,splitIdx) + suffix;
+	}
+
 	private void saveSnapshot(Simulator s) {
 		if (snapshotsPath == null || snapshotsPath.isEmpty()) return;
 
-		int splitIdx = snapshotsPath.indexOf(".mastodon");
-		String path = snapshotsPath.substring(0,splitIdx) + "_tp"+s.getTime() + ".mastodon";
+		String path = snapshotFilename("_tp"+s.getTime() + ".mastodon");
 		try {
 			System.out.println("Saving snapshot: "+path);
 			ProjectSaver.saveProject(new File(path), projectModel);
@@ -182,6 +257,67 @@ public class Runner implements Runnable {
 		}
 	}
 
+	private String checkpointsPath;
+	private int checkpointsInterval = 0;
+	/** Save the complete state of the simulation into the given file every N-th time point (and after
+	 *  the last one), the file is overwritten every time; N = 0 saves nothing. Unlike the snapshots,
+	 *  the Mastodon project is not saved, but the simulation can continue exactly from the checkpoint
+	 *  (see {@link Runner#Runner(ProjectModel, String, int)}), and the checkpoints are saved in the background. */
+	public void setCheckpoints(final String path, final int everyNthTimepoint) {
+		this.checkpointsPath = path;
+		this.checkpointsInterval = path == null || path.isEmpty() ? 0 : Math.max(everyNthTimepoint,0);
+	}
+
+	private boolean snapshotsAsDeltas = false;
+	/** Save the snapshots in the background, and without stopping the simulation: the project is saved
+	 *  only once, as the base, when the simulation starts, and the simulated time points are appended
+	 *  into a deltas file as they are created. The last time point is saved as a regular snapshot
+	 *  in the end, and the others can be created from the base and the deltas with {@link SnapshotDeltas}.
+	 *  A simulation resumed from a checkpoint saves its own base and deltas, named with "_from_tpT". */
+	public void setSnapshotsAsDeltas(boolean newState) {
+		snapshotsAsDeltas = newState;
+	}
+
+	private void startDeltaSnapshots(Simulator s) {
+		if (!snapshotsAsDeltas || snapshotsPath == null || snapshotsPath.isEmpty()) return;
+
+		//NB: a resumed simulation keeps the base and deltas of the previous run(s), so that their snapshots can still be consolidated
+		final String run = checkpointToResumeFrom != null ? "_from_tp"+timeFrom : "";
+		String path = snapshotFilename(run+"_base.mastodon");
+		try {
+			s.flushToMastodonGraph();
+			System.out.println("Saving snapshots base: "+path);
+			ProjectSaver.saveProject(new File(path), projectModel);
+			s.startSnapshotDeltas(Paths.get(snapshotFilename(run+"_deltas.bin")));
+		} catch (IOException e) {
+			System.out.println("Error starting the snapshots: "+e.getMessage());
+		}
+	}
+
+	private int publishingInterval = 1;
+	/** Write the simulated agents into the Mastodon project every N-th time point,
+	 *  or only once at the end of the simulation if N is 0. Regardless of this setting,
+	 *  the agents are always written before a snapshot is saved. */
+	public void setPublishingInterval(int everyNthTimepoint) {
+		publishingInterval = Math.max(everyNthTimepoint,0);
+	}
+
+	private boolean pipelinedPublishing = false;
+	private static final int PIPELINE_QUEUE_CAPACITY = 4;
+	/** Write the simulated agents into the Mastodon project in a separate thread while the simulation
+	 *  continues with the next time points. The simulation waits only if the writing falls behind
+	 *  by more than a few time points. */
+	public void setPipelinedPublishing(boolean newState) {
+		pipelinedPublishing = newState;
+	}
+
+	private boolean livePublishing = false;
+	/** Keep Mastodon views working and showing the simulation as it goes: the graph is locked only for
+	 *  the short times of writing the time points (see {@link Runner#setPublishingInterval(int)}). */
+	public void setLivePublishing(boolean newState) {
+		livePublishing = newState;
+	}
+
 	private boolean useProgressBarIfPossible = true;
 	public void setUseProgressBar(boolean newState) {
 		useProgressBarIfPossible = newState;
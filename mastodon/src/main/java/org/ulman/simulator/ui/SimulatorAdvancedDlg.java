@@ -24,15 +24,51 @@ public class SimulatorAdvancedDlg implements Command {
 	@Parameter(description = "Collect internal status info per every Agent. If not, may speed up the simulation as no extra data will be stored.")
 	boolean COLLECT_INTERNAL_DATA = Simulator.COLLECT_INTERNAL_DATA;
 
+	@Parameter(description = "Where the internal data are collected into, the file can be converted to CSV with org.ulman.simulator.EventLog.")
+	String COLLECT_INTERNAL_DATA_FILE = Simulator.COLLECT_INTERNAL_DATA_FILE;
+
 	@Parameter(description = "Prints a lot of data to understand decisions making of the agents.")
 	boolean VERBOSE_AGENT_DEBUG = Simulator.VERBOSE_AGENT_DEBUG;
 
+	@Parameter(description = "Traces decisions of every N-th agent (by its ID) without slowing down the others, 0 means none.", min = "0")
+	int TRACE_EVERY_NTH_AGENT = Simulator.TRACE_EVERY_NTH_AGENT;
+
+	@Parameter(description = "Traces decisions of agents within this box \"minX,minY,minZ,maxX,maxY,maxZ\", empty means none.", required = false)
+	String TRACE_AGENTS_IN_ROI = Simulator.TRACE_AGENTS_IN_ROI;
+
 	@Parameter(description = "Prints relative little reports about what the simulation framework was asked to do.")
 	boolean VERBOSE_SIMULATOR_DEBUG = Simulator.VERBOSE_SIMULATOR_DEBUG;
 
+	@Parameter(description = "Where the durations of the simulation phases and counts of agents' actions per time point are exported, as JSON if it ends with .json or CSV otherwise; empty means nowhere.", required = false)
+	String SIMULATION_PROFILE_FILE = Simulator.SIMULATION_PROFILE_FILE;
+
+	@Parameter(description = "Where the count, centroid, bounding box, divisions, deaths and density of the agents per time point are exported as CSV; empty means nowhere.", required = false)
+	String SIMULATION_STATS_FILE = Simulator.SIMULATION_STATS_FILE;
+
 	@Parameter(description = "Produce a \"lineage\" that stays in the geometric centre of the generated data.")
 	boolean CREATE_MASTODON_CENTER_SPOT = Simulator.CREATE_MASTODON_CENTER_SPOT;
 
+	@Parameter(description = "Only agents within this box \"minX,minY,minZ,maxX,maxY,maxZ\" or sphere \"x,y,z,radius\" become spots, while all agents are simulated; empty means everywhere.", required = false)
+	String PUBLISH_ONLY_IN_ROI = Simulator.PUBLISH_ONLY_IN_ROI;
+
+	@Parameter(description = "Only agents of these comma-separated lineages (e.g. \"1a,3\") and their descendants become spots, while all agents are simulated; empty means all lineages.", required = false)
+	String PUBLISH_ONLY_LINEAGES = Simulator.PUBLISH_ONLY_LINEAGES;
+
+	@Parameter(description = "Only agents of every N-th lineage (the same lineages in every run) become spots, while all agents are simulated; 1 means all lineages.", min = "1")
+	int PUBLISH_EVERY_NTH_LINEAGE = Simulator.PUBLISH_EVERY_NTH_LINEAGE;
+
+	@Parameter(description = "Stream all agents of every time point into this columnar binary file; empty means don't.", required = false)
+	String EXPORT_TRACKS_FILE = Simulator.EXPORT_TRACKS_FILE;
+
+	@Parameter(description = "Stream the tracks into this Cell Tracking Challenge res_track.txt file; empty means don't.", required = false)
+	String EXPORT_CTC_TRACKS_FILE = Simulator.EXPORT_CTC_TRACKS_FILE;
+
+	@Parameter(description = "Don't create any Mastodon spots when the time points are exported into the files above.")
+	boolean EXPORT_ONLY = Simulator.EXPORT_ONLY;
+
+	@Parameter(description = "The same seed gives the same simulation, 0 means a different simulation every time.")
+	long RANDOM_SEED = Simulator.RANDOM_SEED;
+
 	@Parameter(description = "Using this radius the new spots are introduced into the simulation.")
 	double AGENT_INITIAL_RADIUS = Simulator.AGENT_INITIAL_RADIUS;
 
@@ -51,6 +87,9 @@ public class SimulatorAdvancedDlg implements Command {
 	@Parameter(description = "How many attempts is an agent (cell) allowed to try to move randomly until it finds an non-colliding position.")
 	int AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE = Simulator.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE;
 
+	@Parameter(description = "Agents are advanced this many times between two time points, each time with a proportionally shorter step and with proportionally longer (in these sub-steps) life spans; only every time point is written into Mastodon. 1 means no sub-steps.", min = "1")
+	int SIMULATION_SUBSTEPS_PER_TIMEPOINT = Simulator.SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+
 	@Parameter(visibility = ItemVisibility.MESSAGE)
 	final String sep3 = "----------- Agents life-cycle -----------";
 
@@ -75,6 +114,21 @@ public class SimulatorAdvancedDlg implements Command {
 	@Parameter(description = "After the two daughters are born, they translate away from each other from their INITIAL_DISTANCE to AGENT_DAUGHTERS_DOZERING_DISTANCE for this number of time points, during this the daughters are influenced only by surrounding-and-overlapping agents, but the surrounding agents are influenced by these daughters normally (so the influence is asymmetrical).")
 	int AGENT_DAUGHTERS_DOZERING_TIME_PERIOD = Simulator.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
 
+	@Parameter(visibility = ItemVisibility.MESSAGE)
+	final String sep4 = "----------- Simulation performance -----------";
+
+	@Parameter(description = "Agents remember their neighbors within the look around distance enlarged by this skin, and re-search for them only after some agent has moved more than half of the skin; 0 means to search every time point.", min = "0")
+	double AGENT_NEIGHBORS_LIST_SKIN = Simulator.AGENT_NEIGHBORS_LIST_SKIN;
+
+	@Parameter(description = "How many threads advance the agents, 0 means as many as there are available cores.", min = "0")
+	int SIMULATION_PARALLELISM = Simulator.SIMULATION_PARALLELISM;
+
+	@Parameter(description = "Agents are advanced in tiles: cubes of this many neighbor-search cells along every axis, agents of one tile are typically advanced by the same thread.", min = "1")
+	int SIMULATION_TILE_SIZE = Simulator.SIMULATION_TILE_SIZE;
+
+	@Parameter(description = "Agents evaluate their neighbors in batches, which the JIT compiler can vectorize; the results are bit-for-bit the same as when every neighbor is evaluated on its own (when unchecked).")
+	boolean SIMULATION_BATCHED_KERNELS = Simulator.SIMULATION_BATCHED_KERNELS;
+
 	@Parameter
 	SimulatorMainDlg basicDialog = null;
 
@@ -82,8 +136,13 @@ public class SimulatorAdvancedDlg implements Command {
 	public void run() {
 		Simulator.LABELS_NAMING_POLICY = getAgentNamingPolicyFrom(this.LABELS_NAMING_POLICY);
 		Simulator.COLLECT_INTERNAL_DATA = COLLECT_INTERNAL_DATA;
+		Simulator.COLLECT_INTERNAL_DATA_FILE = COLLECT_INTERNAL_DATA_FILE;
 		Simulator.VERBOSE_AGENT_DEBUG = VERBOSE_AGENT_DEBUG;
+		Simulator.TRACE_EVERY_NTH_AGENT = TRACE_EVERY_NTH_AGENT;
+		Simulator.TRACE_AGENTS_IN_ROI = TRACE_AGENTS_IN_ROI == null ? "" : TRACE_AGENTS_IN_ROI;
 		Simulator.VERBOSE_SIMULATOR_DEBUG = VERBOSE_SIMULATOR_DEBUG;
+		Simulator.SIMULATION_PROFILE_FILE = SIMULATION_PROFILE_FILE == null ? "" : SIMULATION_PROFILE_FILE;
+		Simulator.SIMULATION_STATS_FILE = SIMULATION_STATS_FILE == null ? "" : SIMULATION_STATS_FILE;
 		Simulator.AGENT_LOOK_AROUND_DISTANCE = AGENT_LOOK_AROUND_DISTANCE;
 		Simulator.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT = AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT;
 		Simulator.AGENT_USUAL_STEP_SIZE = AGENT_USUAL_STEP_SIZE;
@@ -97,6 +156,18 @@ public class SimulatorAdvancedDlg implements Command {
 		Simulator.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD = AGENT_DAUGHTERS_DOZERING_TIME_PERIOD;
 		Simulator.AGENT_INITIAL_RADIUS = AGENT_INITIAL_RADIUS;
 		Simulator.CREATE_MASTODON_CENTER_SPOT = CREATE_MASTODON_CENTER_SPOT;
+		Simulator.PUBLISH_ONLY_IN_ROI = PUBLISH_ONLY_IN_ROI == null ? "" : PUBLISH_ONLY_IN_ROI;
+		Simulator.PUBLISH_ONLY_LINEAGES = PUBLISH_ONLY_LINEAGES == null ? "" : PUBLISH_ONLY_LINEAGES;
+		Simulator.PUBLISH_EVERY_NTH_LINEAGE = PUBLISH_EVERY_NTH_LINEAGE;
+		Simulator.EXPORT_TRACKS_FILE = EXPORT_TRACKS_FILE == null ? "" : EXPORT_TRACKS_FILE;
+		Simulator.EXPORT_CTC_TRACKS_FILE = EXPORT_CTC_TRACKS_FILE == null ? "" : EXPORT_CTC_TRACKS_FILE;
+		Simulator.EXPORT_ONLY = EXPORT_ONLY;
+		Simulator.RANDOM_SEED = RANDOM_SEED;
+		Simulator.SIMULATION_SUBSTEPS_PER_TIMEPOINT = SIMULATION_SUBSTEPS_PER_TIMEPOINT;
+		Simulator.AGENT_NEIGHBORS_LIST_SKIN = AGENT_NEIGHBORS_LIST_SKIN;
+		Simulator.SIMULATION_PARALLELISM = SIMULATION_PARALLELISM;
+		Simulator.SIMULATION_TILE_SIZE = SIMULATION_TILE_SIZE;
+		Simulator.SIMULATION_BATCHED_KERNELS = SIMULATION_BATCHED_KERNELS;
 		if (basicDialog != null) basicDialog.runInsideMastodon();
 	}
 
@@ -119,12 +190,18 @@ public class SimulatorAdvancedDlg implements Command {
 		final SimulationConfig cfg = new SimulationConfig();
 		cfg.LABELS_NAMING_POLICY = getAgentNamingPolicyFrom(            prefService.get(SimulatorAdvancedDlg.class, "LABELS_NAMING_POLICY", "encoding labels") );
 		cfg.COLLECT_INTERNAL_DATA =                                     prefService.getBoolean(SimulatorAdvancedDlg.class, "COLLECT_INTERNAL_DATA", Simulator.COLLECT_INTERNAL_DATA);
+		cfg.COLLECT_INTERNAL_DATA_FILE =                                prefService.get(SimulatorAdvancedDlg.class, "COLLECT_INTERNAL_DATA_FILE", Simulator.COLLECT_INTERNAL_DATA_FILE);
 		cfg.VERBOSE_AGENT_DEBUG =                                       prefService.getBoolean(SimulatorAdvancedDlg.class, "VERBOSE_AGENT_DEBUG", Simulator.VERBOSE_AGENT_DEBUG);
+		cfg.TRACE_EVERY_NTH_AGENT =                                     prefService.getInt(SimulatorAdvancedDlg.class, "TRACE_EVERY_NTH_AGENT", Simulator.TRACE_EVERY_NTH_AGENT);
+		cfg.TRACE_AGENTS_IN_ROI =                                       prefService.get(SimulatorAdvancedDlg.class, "TRACE_AGENTS_IN_ROI", Simulator.TRACE_AGENTS_IN_ROI);
 		cfg.VERBOSE_SIMULATOR_DEBUG =                                   prefService.getBoolean(SimulatorAdvancedDlg.class, "VERBOSE_SIMULATOR_DEBUG", Simulator.VERBOSE_SIMULATOR_DEBUG);
+		cfg.SIMULATION_PROFILE_FILE =                                   prefService.get(SimulatorAdvancedDlg.class, "SIMULATION_PROFILE_FILE", Simulator.SIMULATION_PROFILE_FILE);
+		cfg.SIMULATION_STATS_FILE =                                     prefService.get(SimulatorAdvancedDlg.class, "SIMULATION_STATS_FILE", Simulator.SIMULATION_STATS_FILE);
 		cfg.AGENT_LOOK_AROUND_DISTANCE =                                prefService.getDouble(SimulatorAdvancedDlg.class, "AGENT_LOOK_AROUND_DISTANCE", Simulator.AGENT_LOOK_AROUND_DISTANCE);
 		cfg.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT =                       prefService.getDouble(SimulatorAdvancedDlg.class, "AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT", Simulator.AGENT_MIN_DISTANCE_TO_ANOTHER_AGENT);
 		cfg.AGENT_USUAL_STEP_SIZE =                                     prefService.getDouble(SimulatorAdvancedDlg.class, "AGENT_USUAL_STEP_SIZE", Simulator.AGENT_USUAL_STEP_SIZE);
 		cfg.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE =                   prefService.getInt(SimulatorAdvancedDlg.class, "AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE", Simulator.AGENT_NUMBER_OF_ATTEMPTS_TO_MAKE_A_MOVE);
+		cfg.SIMULATION_SUBSTEPS_PER_TIMEPOINT =                         prefService.getInt(SimulatorAdvancedDlg.class, "SIMULATION_SUBSTEPS_PER_TIMEPOINT", Simulator.SIMULATION_SUBSTEPS_PER_TIMEPOINT);
 		cfg.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION =                    prefService.getInt(SimulatorAdvancedDlg.class, "AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION", Simulator.AGENT_AVERAGE_LIFESPAN_BEFORE_DIVISION);
 		cfg.AGENT_MAX_LIFESPAN_AND_DIES_AFTER =                         prefService.getInt(SimulatorAdvancedDlg.class, "AGENT_MAX_LIFESPAN_AND_DIES_AFTER", Simulator.AGENT_MAX_LIFESPAN_AND_DIES_AFTER);
 		cfg.AGENT_MAX_DENSITY_TO_ENABLE_DIVISION =                      prefService.getInt(SimulatorAdvancedDlg.class, "AGENT_MAX_DENSITY_TO_ENABLE_DIVISION", Simulator.AGENT_MAX_DENSITY_TO_ENABLE_DIVISION);
@@ -134,6 +211,17 @@ public class SimulatorAdvancedDlg implements Command {
 		cfg.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD =                      prefService.getInt(SimulatorAdvancedDlg.class, "AGENT_DAUGHTERS_DOZERING_TIME_PERIOD", Simulator.AGENT_DAUGHTERS_DOZERING_TIME_PERIOD);
 		cfg.AGENT_INITIAL_RADIUS =                                      prefService.getDouble(SimulatorAdvancedDlg.class, "AGENT_INITIAL_RADIUS", Simulator.AGENT_INITIAL_RADIUS);
 		cfg.CREATE_MASTODON_CENTER_SPOT =                               prefService.getBoolean(SimulatorAdvancedDlg.class, "CREATE_MASTODON_CENTER_SPOT", Simulator.CREATE_MASTODON_CENTER_SPOT);
+		cfg.PUBLISH_ONLY_IN_ROI =                                       prefService.get(SimulatorAdvancedDlg.class, "PUBLISH_ONLY_IN_ROI", Simulator.PUBLISH_ONLY_IN_ROI);
+		cfg.PUBLISH_ONLY_LINEAGES =                                     prefService.get(SimulatorAdvancedDlg.class, "PUBLISH_ONLY_LINEAGES", Simulator.PUBLISH_ONLY_LINEAGES);
+		cfg.PUBLISH_EVERY_NTH_LINEAGE =                                 prefService.getInt(SimulatorAdvancedDlg.class, "PUBLISH_EVERY_NTH_LINEAGE", Simulator.PUBLISH_EVERY_NTH_LINEAGE);
+		cfg.EXPORT_TRACKS_FILE =                                        prefService.get(SimulatorAdvancedDlg.class, "EXPORT_TRACKS_FILE", Simulator.EXPORT_TRACKS_FILE);
+		cfg.EXPORT_CTC_TRACKS_FILE =                                    prefService.get(SimulatorAdvancedDlg.class, "EXPORT_CTC_TRACKS_FILE", Simulator.EXPORT_CTC_TRACKS_FILE);
+		cfg.EXPORT_ONLY =                                               prefService.getBoolean(SimulatorAdvancedDlg.class, "EXPORT_ONLY", Simulator.EXPORT_ONLY);
+		cfg.RANDOM_SEED =                                               prefService.getLong(SimulatorAdvancedDlg.class, "RANDOM_SEED", Simulator.RANDOM_SEED);
+		cfg.AGENT_NEIGHBORS_LIST_SKIN =                                 prefService.getDouble(SimulatorAdvancedDlg.class, "AGENT_NEIGHBORS_LIST_SKIN", Simulator.AGENT_NEIGHBORS_LIST_SKIN);
+		cfg.SIMULATION_PARALLELISM =                                    prefService.getInt(SimulatorAdvancedDlg.class, "SIMULATION_PARALLELISM", Simulator.SIMULATION_PARALLELISM);
+		cfg.SIMULATION_TILE_SIZE =                                      prefService.getInt(SimulatorAdvancedDlg.class, "SIMULATION_TILE_SIZE", Simulator.SIMULATION_TILE_SIZE);
+		cfg.SIMULATION_BATCHED_KERNELS =                                prefService.getBoolean(SimulatorAdvancedDlg.class, "SIMULATION_BATCHED_KERNELS", Simulator.SIMULATION_BATCHED_KERNELS);
 		return cfg;
 	}
 }
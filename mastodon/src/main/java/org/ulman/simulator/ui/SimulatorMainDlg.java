@@ -34,7 +34,8 @@ public class SimulatorMainDlg implements Command {
 	@Parameter(label = "How to start a simulation:",
 		choices = {"From scratch from the seeds, see below",
 		           "From the existing spots in the time point GIVEN below",
-		           "From the existing spots in the LAST non-empty time point"})
+		           "From the existing spots in the LAST non-empty time point",
+		           "From the checkpoint file given below"})
 	String initMode = "From scratch";
 
 	@Parameter(label = "From scratch: Number of seeds:", min="1")
@@ -43,18 +44,39 @@ public class SimulatorMainDlg implements Command {
 	@Parameter(label = "From existing spots in this time point:", min="0")
 	int existingSpotsAtTP = 0;
 
+	@Parameter(label = "From this checkpoint file:", required = false)
+	String resumeCheckpointPath = "/temp/simulation.checkpoint";
+
 	@Parameter(label = "Number of time points to be created:", min="1")
 	int numTimepoints = 10;
 
 	@Parameter(visibility = ItemVisibility.MESSAGE)
 	final String sep2 = "----------- Output -----------";
 
+	@Parameter(label = "Write spots into Mastodon every N-th time point (0 = only at the end):", min="0")
+	int publishingInterval = 1;
+
+	@Parameter(label = "Write spots into Mastodon in parallel with the simulation:")
+	boolean pipelinedPublishing = false;
+
+	@Parameter(label = "Keep Mastodon views live while simulating:")
+	boolean livePublishing = false;
+
 	@Parameter(label = "Save snapshots at these time points, e.g. 10,20,30:", min="0")
 	String snapShotsTPs = "don't save";
 
 	@Parameter(label = "Save snapshots into files based on this name: ")
 	String snapShotsPath = "/temp/snapshots.mastodon";
 
+	@Parameter(label = "Save snapshots in the background as deltas:")
+	boolean snapShotsAsDeltas = false;
+
+	@Parameter(label = "Save checkpoints every N-th time point (0 = don't save):", min="0")
+	int checkpointsInterval = 0;
+
+	@Parameter(label = "Save checkpoints into this file:", required = false)
+	String checkpointsPath = "/temp/simulation.checkpoint";
+
 	@Parameter(visibility = ItemVisibility.MESSAGE)
 	final String sep3 = "----------- Parameters -----------";
 
@@ -104,6 +126,8 @@ public class SimulatorMainDlg implements Command {
 		if (initMode.startsWith("From the existing spots")) {
 			if (initMode.contains("LAST")) existingSpotsAtTP = -1;
 			r = new Runner(projectModel, existingSpotsAtTP, numTimepoints);
+		} else if (initMode.startsWith("From the checkpoint")) {
+			r = new Runner(projectModel, resumeCheckpointPath, numTimepoints);
 		} else {
 			r = new Runner(projectModel, numCells, numTimepoints);
 		}
@@ -128,6 +152,11 @@ public class SimulatorMainDlg implements Command {
 			logService.info("Managed to extract and thus will use : "+ssTimepoints);
 		}
 
+		r.setSnapshotsAsDeltas(snapShotsAsDeltas);
+		r.setCheckpoints(checkpointsPath, checkpointsInterval);
+		r.setPublishingInterval(publishingInterval);
+		r.setPipelinedPublishing(pipelinedPublishing);
+		r.setLivePublishing(livePublishing);
 		r.setUseProgressBar(showProgressBar);
 		r.run();
 	}